@@ -0,0 +1,81 @@
+package gafolgo;
+
+import java.util.concurrent.Exchanger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Benjamin Groman
+ * Measures handing a layout to another thread the way FloorManager does: snapshot the working floor,
+ * rendezvous on a shared Exchanger, and check the signature of what comes back.
+ * Vary the thread count with -t (e.g. -t 1, -t 2, -t 8, -t max). A thread that finds no partner
+ * gives up after a short timeout instead of hanging the iteration, so odd counts still finish.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(2)
+public class ExchangeBenchmark {
+	/**
+	 * How long a thread waits for a partner before giving up, in microseconds.
+	 */
+	private static final long PARTNER_TIMEOUT = 1000;
+
+	/**
+	 * The rendezvous shared by every benchmark thread, like FloorManager's SWAP_SPOT.
+	 */
+	@State(Scope.Benchmark)
+	public static class SwapSpot {
+		final Exchanger<FloorQuadSnapshot> exchanger = new Exchanger<FloorQuadSnapshot>();
+	}
+
+	/**
+	 * Each thread's own floor.
+	 */
+	@State(Scope.Thread)
+	public static class Island {
+		/**
+		 * The number of rows and columns of the floor.
+		 */
+		@Param({"8", "64", "512"})
+		public int size;
+		WorkingFloor floor;
+
+		@Setup
+		public void setUp() {
+			floor = new WorkingFloor(new FloorQuadSnapshot(new FloorSpec(size, size, AffinityModel.DEFAULT)));
+		}
+	}
+
+	/**
+	 * One handoff. Returns whether a compatible layout came back.
+	 */
+	@Benchmark
+	public boolean handoff(SwapSpot spot, Island island) throws InterruptedException {
+		final FloorQuadSnapshot current = island.floor.snapshot();
+		try {
+			final FloorQuadSnapshot offer = spot.exchanger.exchange(current, PARTNER_TIMEOUT, TimeUnit.MICROSECONDS);
+			return current.isExchangeableWith(offer);
+		}
+		catch (TimeoutException e) {
+			//nobody showed up
+			return false;
+		}
+	}
+
+}
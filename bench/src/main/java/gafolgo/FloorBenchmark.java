@@ -0,0 +1,119 @@
+package gafolgo;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Benjamin Groman
+ * Single-threaded benchmarks for scoring and mutating one floor.
+ * Run with -prof gc to see the allocation rate next to the throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FloorBenchmark {
+	/**
+	 * The number of rows and columns of the floor.
+	 */
+	@Param({"8", "64", "512"})
+	public int size;
+	/**
+	 * An immutable floor for the snapshot benchmarks.
+	 */
+	private FloorQuadSnapshot snapshot;
+	/**
+	 * A mutable copy of the same floor.
+	 */
+	private WorkingFloor working;
+	/**
+	 * A manager for the swap-and-accept step. Never started.
+	 */
+	private FloorManager manager;
+	/**
+	 * A manager that scores a batch of candidates per step. Never started.
+	 */
+	private FloorManager batched;
+	/**
+	 * The number of candidates per batch.
+	 */
+	@Param({"16"})
+	public int batch;
+	/**
+	 * A manager that draws every kind of move, adaptively. Never started.
+	 */
+	private FloorManager mixed;
+
+	@Setup
+	public void setUp() {
+		snapshot = new FloorQuadSnapshot(new FloorSpec(size, size, AffinityModel.DEFAULT));
+		working = new WorkingFloor(snapshot);
+		manager = new FloorManager(snapshot);
+		batched = new FloorManager(snapshot);
+		batched.setBatch(batch, false);
+		mixed = new FloorManager(snapshot);
+		mixed.setMoves(new MoveSet(MoveOperator.values(), true));
+	}
+	/**
+	 * Scores the whole floor from scratch.
+	 */
+	@Benchmark
+	public int fullMetric() {
+		return FloorQuadSnapshot.calculateFullMetric(snapshot);
+	}
+	/**
+	 * Copies the floor with one machine changed.
+	 */
+	@Benchmark
+	public FloorQuadSnapshot replace() {
+		final ThreadLocalRandom rand = ThreadLocalRandom.current();
+		return snapshot.replace(rand.nextInt(snapshot.spec.flavors), rand.nextInt(size), rand.nextInt(size));
+	}
+	/**
+	 * Scores a random swap without applying it.
+	 */
+	@Benchmark
+	public int swapDelta() {
+		final ThreadLocalRandom rand = ThreadLocalRandom.current();
+		return working.swapDelta(rand.nextInt(size), rand.nextInt(size), rand.nextInt(size), rand.nextInt(size));
+	}
+	/**
+	 * One swap-and-accept step of the main loop, without the exchange or the drawing.
+	 */
+	@Benchmark
+	public int swapAndAccept() {
+		manager.trySwap(ThreadLocalRandom.current());
+		return manager.getLastMetric();
+	}
+	/**
+	 * One batched step: score a batch of random swaps and offer the best one. Divide by the batch size to compare per swap.
+	 */
+	@Benchmark
+	public int batchSwapAndAccept() {
+		batched.tryBatch(ThreadLocalRandom.current());
+		return batched.getLastMetric();
+	}
+	/**
+	 * One step of a manager drawing from every move operator, which scores compound moves swap by swap and undoes them.
+	 */
+	@Benchmark
+	public int mixedMoveAndAccept() {
+		mixed.tryMove(ThreadLocalRandom.current());
+		return mixed.getLastMetric();
+	}
+
+}
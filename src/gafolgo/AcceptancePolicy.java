@@ -0,0 +1,39 @@
+package gafolgo;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * This interface decides whether a FloorManager takes a layout that is no better than the one it has.
+ * Improvements are always taken unless the policy says otherwise.
+ * Policies may keep state, so each FloorManager gets its own.
+ */
+interface AcceptancePolicy {
+	/**
+	 * Decides whether to keep a proposed swap.
+	 * @param delta The metric after the swap minus the metric before it.
+	 * @param first The index (row * cols + col) of the first cell of the swap.
+	 * @param second The index of the second cell of the swap.
+	 * @param rand The random number generator of the calling thread.
+	 */
+	boolean acceptSwap(int delta, int first, int second, RandomGenerator rand);
+	/**
+	 * Decides whether to keep a layout received from another thread.
+	 * @param delta The metric of the received layout minus the current metric.
+	 * @param rand The random number generator of the calling thread.
+	 */
+	boolean acceptMigrant(int delta, RandomGenerator rand);
+	/**
+	 * Called once per iteration, before the swap is judged. Lets the policy cool down or age its memory.
+	 */
+	default void step() {
+	}
+	/**
+	 * Called after a swap has been kept.
+	 * @param first The index of the first cell of the swap.
+	 * @param second The index of the second cell of the swap.
+	 */
+	default void accepted(int first, int second) {
+	}
+
+}
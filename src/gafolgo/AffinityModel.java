@@ -0,0 +1,153 @@
+package gafolgo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Benjamin Groman
+ * This class holds the affinity of every flavor for every other flavor as a flat table indexed by
+ * (machine * flavors) + neighbor, so that scoring an edge is a single array lookup.
+ * The order of the flavors makes a difference: the machine is the one doing the evaluating.
+ */
+final class AffinityModel {
+	/**
+	 * The affinities this program was written for, in Flavor ordinal order (Green, Red, Blue, Yellow).
+	 * Expected optimum: red and green checker board with blue edging and yellow low and/or on the right.
+	 */
+	static final AffinityModel DEFAULT = new AffinityModel(4, new int[] {
+		//green's opinions - the strongest spread
+		10, 50, 20, 21,
+		//red's opinions
+		50, 10, 25, -2,
+		//blue's opinions
+		20, 5, 10, 11,
+		//yellow's opinions - the weakest spread
+		8, -1, 1, 10,
+	});
+	/**
+	 * The affinity a machine has for another of its own flavor when nothing else has been specified.
+	 */
+	private static final int SAME_FLAVOR = 10;
+	/**
+	 * The number of flavors this model covers.
+	 */
+	final int flavors;
+	/**
+	 * The affinities, indexed by (machine * flavors) + neighbor.
+	 * This is handed to the scoring loops directly, so it must never be modified after construction.
+	 */
+	final int[] table;
+
+	/**
+	 * Creates a model from a flat table. The table is copied.
+	 * @param flavors The number of flavors.
+	 * @param table The affinities, indexed by (machine * flavors) + neighbor.
+	 */
+	AffinityModel(int flavors, int[] table) {
+		if (flavors < 1 || flavors > FloorSpec.MAX_FLAVORS) {
+			throw new IllegalArgumentException("Flavor count must be between 1 and " + FloorSpec.MAX_FLAVORS + ": " + flavors);
+		}
+		if (table.length != flavors * flavors) {
+			throw new IllegalArgumentException("Expected " + (flavors * flavors) + " affinities but got " + table.length);
+		}
+		this.flavors = flavors;
+		this.table = table.clone();
+	}
+	/**
+	 * Returns the default model for the given number of flavors.
+	 * Fewer than four flavors use the matching corner of the default table.
+	 * Any flavors beyond the Flavor enumeration only like their own kind.
+	 */
+	static AffinityModel defaultFor(int flavors) {
+		if (flavors == DEFAULT.flavors) return DEFAULT;
+		final int[] temp = new int[flavors * flavors];
+		for (int machine = 0; machine < flavors; machine++) {
+			for (int neighbor = 0; neighbor < flavors; neighbor++) {
+				if (machine < DEFAULT.flavors && neighbor < DEFAULT.flavors) {
+					temp[(machine * flavors) + neighbor] = DEFAULT.affinity(machine, neighbor);
+				}
+				else if (machine == neighbor) {
+					temp[(machine * flavors) + neighbor] = SAME_FLAVOR;
+				}
+				//everything else stays at zero
+			}
+		}
+		return new AffinityModel(flavors, temp);
+	}
+	/**
+	 * Reads a model from a text file with one row of whitespace-separated integers per flavor.
+	 * Row i holds the affinities of flavor i for each neighbor, so the file must be square.
+	 * Blank lines and anything after a '#' are ignored.
+	 * @param file The file to read.
+	 * @return The model described by the file.
+	 * @throws IOException If the file can't be read or isn't a square table of integers.
+	 */
+	static AffinityModel load(Path file) throws IOException {
+		final List<int[]> rows = new ArrayList<int[]>();
+		try (BufferedReader in = Files.newBufferedReader(file)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				//strip comments
+				final int hash = line.indexOf('#');
+				if (hash >= 0) line = line.substring(0, hash);
+				line = line.trim();
+				if (line.isEmpty()) continue;
+				final String[] fields = line.split("\\s+");
+				final int[] row = new int[fields.length];
+				for (int i = 0; i < fields.length; i++) {
+					try {
+						row[i] = Integer.parseInt(fields[i]);
+					}
+					catch (NumberFormatException e) {
+						throw new IOException(file + ":" + lineNumber + ": not an integer: " + fields[i], e);
+					}
+				}
+				rows.add(row);
+			}
+		}
+		final int flavors = rows.size();
+		final int[] temp = new int[flavors * flavors];
+		for (int i = 0; i < flavors; i++) {
+			if (rows.get(i).length != flavors) {
+				throw new IOException(file + ": row " + i + " has " + rows.get(i).length + " values, expected " + flavors);
+			}
+			System.arraycopy(rows.get(i), 0, temp, i * flavors, flavors);
+		}
+		try {
+			return new AffinityModel(flavors, temp);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException(file + ": " + e.getMessage(), e);
+		}
+	}
+	/**
+	 * Returns the affinity the machine has for the neighbor it is evaluating.
+	 */
+	int affinity(int machine, int neighbor) {
+		return table[(machine * flavors) + neighbor];
+	}
+	/**
+	 * Returns the largest affinity anywhere in the table.
+	 */
+	int maxAffinity() {
+		return Arrays.stream(table).max().getAsInt();
+	}
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) return true;
+		if (!(other instanceof AffinityModel)) return false;
+		return Arrays.equals(table, ((AffinityModel)other).table);
+	}
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(table);
+	}
+
+}
@@ -0,0 +1,86 @@
+package gafolgo;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * Simulated annealing: a layout that is worse by delta is taken with probability exp(delta / temperature),
+ * and the temperature falls over the run, so the search wanders early and settles late.
+ */
+final class AnnealingAcceptance implements AcceptancePolicy {
+	/**
+	 * The temperature is only recalculated this often, since pow() and log() aren't free.
+	 */
+	private static final int UPDATE_INTERVAL = 1024;
+	/**
+	 * How the temperature falls.
+	 */
+	private final CoolingSchedule schedule;
+	/**
+	 * The temperature at the start.
+	 */
+	private final double initial;
+	/**
+	 * The temperature at the end.
+	 */
+	private final double last;
+	/**
+	 * The number of steps over which the temperature falls.
+	 */
+	private final long steps;
+	/**
+	 * The number of steps taken so far.
+	 */
+	private long step = 0;
+	/**
+	 * The current temperature.
+	 */
+	private double temperature;
+
+	/**
+	 * Creates an annealing policy.
+	 * @param schedule How the temperature falls.
+	 * @param initial The temperature at the start. Must be positive.
+	 * @param last The temperature at the end. Must be positive.
+	 * @param steps The number of iterations over which the temperature falls. Must be positive.
+	 */
+	AnnealingAcceptance(CoolingSchedule schedule, double initial, double last, long steps) {
+		if (!(initial > 0) || !(last > 0)) {
+			throw new IllegalArgumentException("Temperatures must be positive: " + initial + ", " + last);
+		}
+		if (steps < 1) throw new IllegalArgumentException("Cooling steps must be at least 1: " + steps);
+		this.schedule = schedule;
+		this.initial = initial;
+		this.last = last;
+		this.steps = steps;
+		temperature = initial;
+	}
+	@Override
+	public void step() {
+		step++;
+		if (step % UPDATE_INTERVAL == 0) {
+			temperature = schedule.temperature(initial, last, step, steps);
+		}
+	}
+	@Override
+	public boolean acceptSwap(int delta, int first, int second, RandomGenerator rand) {
+		return accept(delta, rand);
+	}
+	@Override
+	public boolean acceptMigrant(int delta, RandomGenerator rand) {
+		return accept(delta, rand);
+	}
+	/**
+	 * The Metropolis rule.
+	 */
+	private boolean accept(int delta, RandomGenerator rand) {
+		return delta > 0 || rand.nextDouble() < Math.exp(delta / temperature);
+	}
+	/**
+	 * Returns the current temperature.
+	 */
+	double getTemperature() {
+		return temperature;
+	}
+
+}
@@ -0,0 +1,137 @@
+package gafolgo;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Benjamin Groman
+ * This class holds the best layout found by any thread, so it can be read at any time without stopping anyone.
+ * The best is an immutable Best held in an AtomicReference. Workers only offer a layout when it beats their own
+ * best, and it only replaces the global one by compare-and-set when it beats that too, so there are no locks
+ * and almost no contention once the search settles down.
+ * <p>
+ * It also tells every thread when to stop: once the target metric is reached,
+ * or once the global best hasn't improved for the stagnation limit.
+ */
+final class BestRegistry {
+	/**
+	 * A layout together with its metric and where and when it was found. Never modified, so it can be shared freely.
+	 */
+	static final class Best {
+		/**
+		 * The best layout.
+		 */
+		final FloorQuadSnapshot layout;
+		/**
+		 * The metric of the layout.
+		 */
+		final int metric;
+		/**
+		 * The index of the worker that found it.
+		 */
+		final int worker;
+		/**
+		 * When it was found, as given by System.nanoTime().
+		 */
+		final long foundNanos;
+
+		Best(FloorQuadSnapshot layout, int metric, int worker, long foundNanos) {
+			this.layout = layout;
+			this.metric = metric;
+			this.worker = worker;
+			this.foundNanos = foundNanos;
+		}
+	}
+
+	/**
+	 * The best found so far. Null until the first offer.
+	 */
+	private final AtomicReference<Best> best = new AtomicReference<>();
+	/**
+	 * Everyone stops once the best metric reaches this value. Only lowered, and only before the workers start.
+	 */
+	private volatile int target;
+	/**
+	 * Everyone stops once the best hasn't improved for this many nanoseconds. Long.MAX_VALUE for never.
+	 */
+	private final long stagnationNanos;
+	/**
+	 * When the registry was created, which counts as the last improvement until the first offer.
+	 */
+	private final long createdNanos = System.nanoTime();
+	/**
+	 * Set once the run should end. Workers check it every iteration, so it's a plain volatile read.
+	 */
+	private volatile boolean stopped = false;
+
+	/**
+	 * Creates an empty registry.
+	 * @param target Everyone stops once the best metric reaches this value. Integer.MAX_VALUE for no target.
+	 * @param stagnationMillis Everyone stops once the best hasn't improved for this many milliseconds. Zero for no limit.
+	 */
+	BestRegistry(int target, long stagnationMillis) {
+		this.target = target;
+		stagnationNanos = stagnationMillis > 0 ? stagnationMillis * 1_000_000L : Long.MAX_VALUE;
+	}
+	/**
+	 * Replaces the global best if the given layout beats it. Safe to call from any thread.
+	 * @param worker The index of the worker offering the layout.
+	 * @param layout An immutable layout.
+	 * @param metric The metric of the layout.
+	 * @return True if the layout is now the global best.
+	 */
+	boolean offer(int worker, FloorQuadSnapshot layout, int metric) {
+		Best current = best.get();
+		//most offers lose, so check before allocating anything
+		if (current != null && metric <= current.metric) return false;
+		final Best candidate = new Best(layout, metric, worker, System.nanoTime());
+		while (!best.compareAndSet(current, candidate)) {
+			//somebody else got there first, see if we still win
+			current = best.get();
+			if (current != null && metric <= current.metric) return false;
+		}
+		if (metric >= target) stopped = true;
+		return true;
+	}
+	/**
+	 * Lowers the target to the given metric if it is below the current one, ending the run if the best already reaches it.
+	 * Used to stop once the best is provably (or nearly) optimal.
+	 */
+	void lowerTarget(int metric) {
+		if (metric >= target) return;
+		target = metric;
+		final Best current = best.get();
+		if (current != null && current.metric >= metric) stopped = true;
+	}
+	/**
+	 * Returns the best found so far, or null if nothing has been offered yet.
+	 * The layout, metric and worker always belong together.
+	 */
+	Best get() {
+		return best.get();
+	}
+	/**
+	 * Returns true once the run should end.
+	 */
+	boolean isStopped() {
+		return stopped;
+	}
+	/**
+	 * Ends the run for every thread.
+	 */
+	void stop() {
+		stopped = true;
+	}
+	/**
+	 * Ends the run if the best hasn't improved for the stagnation limit. Reads the clock, so don't call it every iteration.
+	 * @return True once the run should end, for whatever reason.
+	 */
+	boolean checkStagnation() {
+		if (!stopped && stagnationNanos != Long.MAX_VALUE) {
+			final Best current = best.get();
+			final long last = current != null ? current.foundNanos : createdNanos;
+			if (System.nanoTime() - last >= stagnationNanos) stopped = true;
+		}
+		return stopped;
+	}
+
+}
@@ -0,0 +1,269 @@
+package gafolgo;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Benjamin Groman
+ * This class saves the state of every worker to a memory-mapped file so that a run can be resumed if the JVM dies.
+ * Each worker writes its own slots directly into the mapping, which is just a memory copy,
+ * and a background thread asks the operating system to flush the mapping to disk now and then.
+ * <p>
+ * The file is a header (magic, version, rows, cols, flavors, workers, slot size, affinity table) followed by
+ * two slots per worker. Workers alternate between their two slots, so one complete copy always survives a crash
+ * in the middle of a write. A slot holds a sequence number, the iteration counter, the RNG seed, the current
+ * and best metrics, and the current and best layouts packed by PackedLayout. Everything is big-endian.
+ */
+final class Checkpoint implements AutoCloseable {
+	/**
+	 * "GFCK", at the start of every checkpoint file.
+	 */
+	private static final int MAGIC = 0x4746434B;
+	/**
+	 * The version of the file format.
+	 */
+	private static final int VERSION = 1;
+	/**
+	 * The size of the fixed part of the header, before the affinity table.
+	 */
+	private static final int HEADER_BYTES = 7 * Integer.BYTES;
+	/**
+	 * The size of the fixed part of a slot, before the layouts: sequence, iterations, seed, metric, best metric.
+	 */
+	private static final int SLOT_FIXED_BYTES = (3 * Long.BYTES) + (2 * Integer.BYTES);
+	/**
+	 * The sequence number of a slot that is being written or has never been written.
+	 */
+	private static final long INCOMPLETE = -1;
+	/**
+	 * How often the background thread flushes the mapping to disk, in milliseconds.
+	 */
+	private static final long FLUSH_INTERVAL = 5000;
+	/**
+	 * The shape of the floors being saved.
+	 */
+	private final FloorSpec spec;
+	/**
+	 * The open file, kept so it can be closed.
+	 */
+	private final FileChannel channel;
+	/**
+	 * The whole file, mapped.
+	 */
+	private final MappedByteBuffer mapping;
+	/**
+	 * Two slots for each worker, each its own view of the mapping so workers never share a position.
+	 */
+	private final ByteBuffer[][] slots;
+	/**
+	 * For each worker, the number of saves so far. Only touched by that worker.
+	 */
+	private final long[] saves;
+	/**
+	 * Flushes the mapping to disk in the background.
+	 */
+	private final ScheduledExecutorService flusher;
+
+	/**
+	 * Creates (or replaces) a checkpoint file for the given number of workers.
+	 * @param file Where to save.
+	 * @param spec The shape of the floors being saved.
+	 * @param workers The number of workers.
+	 * @throws IOException If the file can't be created or mapped.
+	 */
+	Checkpoint(Path file, FloorSpec spec, int workers) throws IOException {
+		this.spec = spec;
+		final int slotBytes = slotBytes(spec);
+		final long size = headerBytes(spec) + ((long)workers * 2 * slotBytes);
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		//header
+		mapping.putInt(MAGIC).putInt(VERSION).putInt(spec.rows).putInt(spec.cols).putInt(spec.flavors)
+			.putInt(workers).putInt(slotBytes);
+		for (int affinity : spec.affinity.table) {
+			mapping.putInt(affinity);
+		}
+		slots = new ByteBuffer[workers][2];
+		saves = new long[workers];
+		for (int i = 0; i < workers; i++) {
+			for (int j = 0; j < 2; j++) {
+				slots[i][j] = mapping.slice(headerBytes(spec) + (((i * 2) + j) * slotBytes), slotBytes);
+				slots[i][j].putLong(0, INCOMPLETE);
+			}
+		}
+		mapping.force();
+		flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "checkpoint-flusher");
+			//don't let this thread keep the program from terminating
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleWithFixedDelay(mapping::force, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+	/**
+	 * Returns the size of the header for the given spec.
+	 */
+	private static int headerBytes(FloorSpec spec) {
+		return HEADER_BYTES + (spec.flavors * spec.flavors * Integer.BYTES);
+	}
+	/**
+	 * Returns the size of one slot for the given spec.
+	 */
+	private static int slotBytes(FloorSpec spec) {
+		return SLOT_FIXED_BYTES + (2 * PackedLayout.packedBytes(spec));
+	}
+	/**
+	 * Saves one worker's state. Must only be called by that worker (or by anyone once it has stopped).
+	 * @param worker The index of the worker.
+	 * @param iterations The worker's iteration counter.
+	 * @param seed The seed of the worker's random number generator.
+	 * @param metric The metric of the current layout.
+	 * @param current The flavor indices of the current layout.
+	 * @param bestMetric The metric of the best layout.
+	 * @param best The flavor indices of the best layout.
+	 */
+	void save(int worker, long iterations, long seed, int metric, byte[] current, int bestMetric, byte[] best) {
+		final long sequence = saves[worker]++;
+		//alternate slots, so the previous save is intact while this one is written
+		final ByteBuffer slot = slots[worker][(int)(sequence & 1)];
+		slot.putLong(0, INCOMPLETE);
+		slot.position(Long.BYTES);
+		slot.putLong(iterations).putLong(seed).putInt(metric).putInt(bestMetric);
+		PackedLayout.pack(current, spec.flavors, slot);
+		PackedLayout.pack(best, spec.flavors, slot);
+		//the contents have to land before the sequence number that marks them complete
+		VarHandle.releaseFence();
+		slot.putLong(0, sequence);
+	}
+	/**
+	 * Asks the operating system to write everything saved so far to disk, without waiting for the background thread.
+	 */
+	void flush() {
+		mapping.force();
+	}
+	/**
+	 * Stops the background flushing, flushes one last time and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		flusher.shutdownNow();
+		mapping.force();
+		channel.close();
+	}
+
+	/**
+	 * The saved state of one worker.
+	 */
+	static final class WorkerState {
+		/**
+		 * The worker's iteration counter.
+		 */
+		final long iterations;
+		/**
+		 * The seed of the worker's random number generator.
+		 */
+		final long seed;
+		/**
+		 * The current layout.
+		 */
+		final FloorQuadSnapshot current;
+		/**
+		 * The best layout.
+		 */
+		final FloorQuadSnapshot best;
+		/**
+		 * The metric of the best layout.
+		 */
+		final int bestMetric;
+
+		WorkerState(long iterations, long seed, FloorQuadSnapshot current, FloorQuadSnapshot best, int bestMetric) {
+			this.iterations = iterations;
+			this.seed = seed;
+			this.current = current;
+			this.best = best;
+			this.bestMetric = bestMetric;
+		}
+	}
+	/**
+	 * Reads back every worker's most recent complete save.
+	 * @param file The checkpoint file.
+	 * @return One state per worker, in worker order.
+	 * @throws IOException If the file can't be read, isn't a checkpoint, or has a worker with no complete save.
+	 */
+	static WorkerState[] load(Path file) throws IOException {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			final ByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+			if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+				throw new IOException(file + " is not a checkpoint file");
+			}
+			final int version = buffer.getInt();
+			if (version != VERSION) throw new IOException(file + " has unsupported version " + version);
+			final int rows = buffer.getInt();
+			final int cols = buffer.getInt();
+			final int flavors = buffer.getInt();
+			final int workers = buffer.getInt();
+			final int slotBytes = buffer.getInt();
+			//these size the arrays below, so check them before trusting them
+			if (flavors < 1 || flavors > FloorSpec.MAX_FLAVORS) throw new IOException(file + " has " + flavors + " flavors");
+			if (workers < 1) throw new IOException(file + " has " + workers + " workers");
+			if (buffer.remaining() < flavors * flavors * Integer.BYTES) throw new IOException(file + " is truncated or corrupt");
+			final int[] table = new int[flavors * flavors];
+			for (int i = 0; i < table.length; i++) {
+				table[i] = buffer.getInt();
+			}
+			final FloorSpec spec;
+			try {
+				spec = new FloorSpec(rows, cols, new AffinityModel(flavors, table));
+			}
+			catch (IllegalArgumentException e) {
+				throw new IOException(file + ": " + e.getMessage(), e);
+			}
+			if (slotBytes != slotBytes(spec) || buffer.capacity() < headerBytes(spec) + ((long)workers * 2 * slotBytes)) {
+				throw new IOException(file + " is truncated or corrupt");
+			}
+			final WorkerState[] states = new WorkerState[workers];
+			for (int i = 0; i < workers; i++) {
+				//take whichever of the two slots is complete and newer
+				ByteBuffer newest = null;
+				long newestSequence = INCOMPLETE;
+				for (int j = 0; j < 2; j++) {
+					final ByteBuffer slot = buffer.slice(headerBytes(spec) + (((i * 2) + j) * slotBytes), slotBytes);
+					final long sequence = slot.getLong(0);
+					if (sequence > newestSequence) {
+						newest = slot;
+						newestSequence = sequence;
+					}
+				}
+				if (newest == null) throw new IOException(file + " has no complete save for worker " + i);
+				newest.position(Long.BYTES);
+				final long iterations = newest.getLong();
+				final long seed = newest.getLong();
+				//the current metric is recalculated from the layout, but is kept in the file for inspection
+				newest.getInt();
+				final int bestMetric = newest.getInt();
+				final byte[] current = new byte[spec.cells()];
+				final byte[] best = new byte[spec.cells()];
+				try {
+					PackedLayout.unpack(newest, flavors, current);
+					PackedLayout.unpack(newest, flavors, best);
+				}
+				catch (IllegalArgumentException e) {
+					throw new IOException(file + ": worker " + i + ": " + e.getMessage(), e);
+				}
+				states[i] = new WorkerState(iterations, seed, new FloorQuadSnapshot(spec, current),
+						new FloorQuadSnapshot(spec, best), bestMetric);
+			}
+			return states;
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+package gafolgo;
+
+/**
+ * @author Benjamin Groman
+ * This enumeration represents the ways a simulated annealing temperature can fall from its initial to its final value.
+ */
+enum CoolingSchedule {
+	/**
+	 * Falls by the same factor every step, so most of the time is spent cool.
+	 */
+	GEOMETRIC,
+	/**
+	 * Falls by the same amount every step.
+	 */
+	LINEAR,
+	/**
+	 * Falls as one over the log of the step, which is slow and never quite reaches the final temperature on its own.
+	 */
+	LOGARITHMIC;
+
+	/**
+	 * Works out the temperature partway through the schedule.
+	 * @param initial The temperature at step zero.
+	 * @param last The temperature once the schedule is over. Must be positive.
+	 * @param step How many steps have passed.
+	 * @param steps How many steps the schedule lasts. Afterwards the temperature stays at last.
+	 */
+	double temperature(double initial, double last, long step, long steps) {
+		if (step >= steps) return last;
+		final double progress = (double)step / steps;
+		switch (this) {
+		case GEOMETRIC:
+			return initial * Math.pow(last / initial, progress);
+		case LINEAR:
+			return initial + ((last - initial) * progress);
+		default:
+			//scaled so that the first step is at the initial temperature
+			return Math.max(last, initial / Math.log(Math.E + step));
+		}
+	}
+
+}
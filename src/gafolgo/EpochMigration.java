@@ -0,0 +1,95 @@
+package gafolgo;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.Phaser;
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * Deterministic migration between islands. Every interval iterations, all the islands meet at a Phaser:
+ * each one leaves its best layout in its slot, waits for everyone else to do the same, and then takes
+ * a neighbor's layout from the same epoch. What an island receives never depends on timing,
+ * so with the same seeds the whole run is repeatable.
+ * <p>
+ * The slots are double-buffered by the parity of the phase, so one barrier per epoch is enough:
+ * nobody can write the buffer of epoch e + 2 until everyone has passed the barrier of epoch e + 1,
+ * which they only reach once they're done reading epoch e.
+ * Islands that finish leave the phaser so the others don't wait for them.
+ * Every island blocks at the barrier, so each one needs a thread of its own.
+ */
+final class EpochMigration implements Migration {
+	/**
+	 * Where everyone meets every epoch.
+	 */
+	private final Phaser phaser;
+	/**
+	 * The layout each island left in each buffer, indexed by [phase parity][island].
+	 * The phaser orders the writes before the reads, so no atomics are needed.
+	 */
+	private final FloorQuadSnapshot[][] slots;
+	/**
+	 * For each island, the islands it reads from.
+	 */
+	private final int[][] neighbors;
+	/**
+	 * The number of iterations between epochs.
+	 */
+	private final int interval;
+	/**
+	 * True for an island that has arrived at the barrier but was interrupted before the epoch advanced.
+	 * Each slot is only touched by its own island's thread.
+	 */
+	private final boolean[] stranded;
+
+	/**
+	 * Creates the barrier, slots and wiring for the given number of islands.
+	 * @param islands The number of islands. Every one of them has to take part, or leave.
+	 * @param topology How the islands are connected.
+	 * @param k The number of neighbors for a random topology.
+	 * @param interval The number of iterations between epochs. Must be at least one.
+	 * @param seed Used to wire a random topology, so the same seed gives the same wiring.
+	 */
+	EpochMigration(int islands, Topology topology, int k, int interval, long seed) {
+		if (interval < 1) throw new IllegalArgumentException("Migration interval must be at least 1: " + interval);
+		phaser = new Phaser(islands);
+		slots = new FloorQuadSnapshot[2][islands];
+		neighbors = topology.neighbors(islands, k, new SplittableRandom(seed));
+		this.interval = interval;
+		stranded = new boolean[islands];
+	}
+	@Override
+	public boolean isDue(long iteration, RandomGenerator rand) {
+		return iteration % interval == 0;
+	}
+	@Override
+	public FloorQuadSnapshot migrate(int island, FloorQuadSnapshot outgoing, RandomGenerator rand) throws InterruptedException {
+		//the phase can't move on without us, so it's safe to read before arriving
+		final int buffer = phaser.getPhase() & 1;
+		slots[buffer][island] = outgoing;
+		final int phase = phaser.arrive();
+		//if the wait is interrupted we have already arrived, and leave() must not arrive again
+		stranded[island] = true;
+		phaser.awaitAdvanceInterruptibly(phase);
+		stranded[island] = false;
+		final int[] mine = neighbors[island];
+		if (mine.length == 0) return null;
+		//a neighbor that has already left still has its last layout in the slot, or nothing
+		return slots[buffer][mine[rand.nextInt(mine.length)]];
+	}
+	@Override
+	public boolean sendsBest() {
+		return true;
+	}
+	@Override
+	public void leave(int island) {
+		if (stranded[island]) {
+			//arriving a second time could end an epoch before a neighbor has filled its slot,
+			//and an interrupted wait only happens when the run is being stopped, so release everyone instead
+			phaser.forceTermination();
+		}
+		else {
+			phaser.arriveAndDeregister();
+		}
+	}
+
+}
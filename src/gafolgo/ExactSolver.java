@@ -0,0 +1,329 @@
+package gafolgo;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Benjamin Groman
+ * This class finds a provably optimal layout of a small floor by branch and bound.
+ * Cells are filled in row-major order from the remaining bag of machines. Each new machine closes the edge to its
+ * left neighbor and the edge to the neighbor above it, so the score of a partial layout is exact, and the edges
+ * still open are bounded by the best affinity each could possibly get from the flavors left in the bag.
+ * A branch is dropped as soon as its score plus that bound can't beat the best layout so far, so seeding the
+ * solver with a good heuristic layout makes it much faster.
+ * <p>
+ * The first few cells are split into ForkJoin tasks, which share the best layout so far, so the pool's threads
+ * prune each other's branches. Below that each task searches depth-first in place, allocating nothing.
+ * The search is exponential, so it is only meant for floors of a few dozen cells, and gives up at its deadline.
+ */
+final class ExactSolver {
+	/**
+	 * The largest floor, in cells, the solver accepts.
+	 */
+	static final int MAX_CELLS = 64;
+	/**
+	 * The number of cells filled by forked tasks before each task carries on by itself.
+	 */
+	private static final int SPLIT_DEPTH = 3;
+	/**
+	 * How many nodes a task visits between looks at the clock. A power of two.
+	 */
+	private static final int CLOCK_INTERVAL = 1 << 16;
+	/**
+	 * The bits needed for a count of at most MAX_CELLS machines, or for a cell index.
+	 */
+	private static final int COUNT_BITS = 7;
+
+	/**
+	 * The result of a search.
+	 */
+	static final class Result {
+		/**
+		 * The best layout found, which is optimal if the search finished.
+		 */
+		final FloorQuadSnapshot layout;
+		/**
+		 * The metric of the layout.
+		 */
+		final int metric;
+		/**
+		 * True if the search finished, proving no layout beats this one.
+		 */
+		final boolean optimal;
+		/**
+		 * The number of partial layouts visited.
+		 */
+		final long nodes;
+
+		Result(FloorQuadSnapshot layout, int metric, boolean optimal, long nodes) {
+			this.layout = layout;
+			this.metric = metric;
+			this.optimal = optimal;
+			this.nodes = nodes;
+		}
+	}
+
+	/**
+	 * The shape and affinities of the floor.
+	 */
+	final FloorSpec spec;
+	/**
+	 * The number of machines of each flavor in the bag.
+	 */
+	private final int[] counts;
+	/**
+	 * The number of right edges with both ends at or after each cell index, in row-major order.
+	 */
+	private final int[] innerRights;
+	/**
+	 * The number of down edges with both ends at or after each cell index, in row-major order.
+	 */
+	private final int[] innerDowns;
+	/**
+	 * The pairing bound of the unset cells, keyed by the next cell and the bag left, packed into a long.
+	 * Null if the bag has too many flavors to pack.
+	 */
+	private final ConcurrentHashMap<Long, Integer> pairings;
+	/**
+	 * The metric of the best layout so far.
+	 */
+	private final AtomicInteger bestMetric = new AtomicInteger(Integer.MIN_VALUE);
+	/**
+	 * The cells of the best layout so far, or null if there is none yet. Guarded by this.
+	 */
+	private byte[] bestCells = null;
+	/**
+	 * The number of partial layouts visited by finished tasks.
+	 */
+	private long nodes = 0;
+	/**
+	 * When to give up, as given by System.nanoTime().
+	 */
+	private long deadline;
+	/**
+	 * Set once the deadline has passed, so every task stops.
+	 */
+	private volatile boolean expired = false;
+
+	/**
+	 * Creates a solver for the given floor and bag.
+	 * @param spec The shape and affinities of the floor. Must have at most MAX_CELLS cells.
+	 * @param counts The number of machines of each flavor. Must add up to the number of cells.
+	 */
+	ExactSolver(FloorSpec spec, int[] counts) {
+		final int cells = spec.cells();
+		if (cells > MAX_CELLS) {
+			throw new IllegalArgumentException("The exact solver only handles floors of up to " + MAX_CELLS + " cells, not " + spec);
+		}
+		int total = 0;
+		for (int count : counts) total += count;
+		if (counts.length != spec.flavors || total != cells) {
+			throw new IllegalArgumentException("The bag doesn't fill a " + spec + " floor");
+		}
+		this.spec = spec;
+		this.counts = counts.clone();
+		//an edge is between unset cells once the earlier of its two ends (the left or upper one) is at or after k
+		innerRights = new int[cells + 1];
+		innerDowns = new int[cells + 1];
+		for (int k = cells - 1; k >= 0; k--) {
+			innerRights[k] = innerRights[k + 1] + ((k % spec.cols) < spec.cols - 1 ? 1 : 0);
+			innerDowns[k] = innerDowns[k + 1] + (k + spec.cols < cells ? 1 : 0);
+		}
+		pairings = (spec.flavors + 1) * COUNT_BITS < Long.SIZE ? new ConcurrentHashMap<>() : null;
+	}
+	/**
+	 * Creates a solver for the given layout's bag of machines.
+	 */
+	ExactSolver(FloorQuadSnapshot layout) {
+		this(layout.spec, bag(layout));
+	}
+	/**
+	 * Returns the number of machines of each flavor in the layout.
+	 */
+	private static int[] bag(FloorQuadSnapshot layout) {
+		final int[] counts = new int[layout.spec.flavors];
+		for (int f = 0; f < counts.length; f++) counts[f] = layout.flavorCount(f);
+		return counts;
+	}
+	/**
+	 * Searches for the optimal layout. Only call once per solver.
+	 * @param incumbent A layout of the same bag to beat, or null to start from nothing.
+	 * The solver only reports a different layout if it is strictly better.
+	 * @param pool The pool to search on.
+	 * @param timeLimitMillis Give up after this many milliseconds. Zero for no limit.
+	 * @return The best layout found, and whether it is proven optimal. The layout is only null if there was
+	 * no incumbent and time ran out before the first complete layout.
+	 */
+	Result solve(FloorQuadSnapshot incumbent, ForkJoinPool pool, long timeLimitMillis) {
+		if (incumbent != null) {
+			bestCells = new byte[spec.cells()];
+			incumbent.copyMachines(bestCells);
+			bestMetric.set(FloorQuadSnapshot.calculateFullMetric(incumbent));
+		}
+		deadline = timeLimitMillis > 0 ? System.nanoTime() + (timeLimitMillis * 1_000_000L) : Long.MAX_VALUE;
+		pool.invoke(new Branch(new byte[spec.cells()], counts.clone(), 0, 0));
+		synchronized (this) {
+			final FloorQuadSnapshot layout = bestCells != null ? new FloorQuadSnapshot(spec, bestCells) : null;
+			return new Result(layout, bestMetric.get(), !expired, nodes);
+		}
+	}
+	/**
+	 * Records a complete layout if it beats the best so far.
+	 */
+	private synchronized void offer(byte[] cells, int metric) {
+		if (metric > bestMetric.get()) {
+			bestCells = cells.clone();
+			bestMetric.set(metric);
+		}
+	}
+	/**
+	 * Adds to the count of visited nodes.
+	 */
+	private synchronized void count(long visited) {
+		nodes += visited;
+	}
+	/**
+	 * A subtree of the search: every completion of a partial layout.
+	 */
+	private final class Branch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The partial layout. Cells from next on are unset. Owned by this task.
+		 */
+		private final byte[] cells;
+		/**
+		 * The machines of each flavor left in the bag. Owned by this task.
+		 */
+		private final int[] remaining;
+		/**
+		 * The index of the next cell to fill.
+		 */
+		private final int next;
+		/**
+		 * The metric of the edges closed so far.
+		 */
+		private final int score;
+		/**
+		 * The nodes this task has visited.
+		 */
+		private long visited = 0;
+
+		Branch(byte[] cells, int[] remaining, int next, int score) {
+			this.cells = cells;
+			this.remaining = remaining;
+			this.next = next;
+			this.score = score;
+		}
+		@Override
+		protected void compute() {
+			if (next < SPLIT_DEPTH && next < cells.length) {
+				//one task per flavor still in the bag
+				final Branch[] children = new Branch[spec.flavors];
+				int forked = 0;
+				for (int f = 0; f < spec.flavors; f++) {
+					if (remaining[f] == 0) continue;
+					final byte[] child = cells.clone();
+					child[next] = (byte)f;
+					final int[] left = remaining.clone();
+					left[f]--;
+					children[forked++] = new Branch(child, left, next + 1, score + gain(cells, next, f));
+				}
+				invokeAll(Arrays.copyOf(children, forked));
+				return;
+			}
+			search(next, score);
+			count(visited);
+		}
+		/**
+		 * Fills the cells from k on, depth-first, in place.
+		 */
+		private void search(int k, int partial) {
+			if ((++visited & (CLOCK_INTERVAL - 1)) == 0 && System.nanoTime() >= deadline) expired = true;
+			if (expired) return;
+			if (k == cells.length) {
+				offer(cells, partial);
+				return;
+			}
+			final int open = partial + openBound(k);
+			final int best = bestMetric.get();
+			if (open + innerBound(k) <= best) return;
+			//the pairing bound is much tighter, but costs a lookup, so only when the quick one didn't prune
+			if (pairings != null && open + pairingBound(k) <= best) return;
+			for (int f = 0; f < spec.flavors; f++) {
+				if (remaining[f] == 0) continue;
+				cells[k] = (byte)f;
+				remaining[f]--;
+				search(k + 1, partial + gain(cells, k, f));
+				remaining[f]++;
+			}
+		}
+		/**
+		 * Returns the most the open edges from set cells could add, given what is left in the bag:
+		 * the right edge of the last set cell and the down edges of the last row's worth.
+		 * @param k The next cell to fill. Cells before it are set.
+		 */
+		private int openBound(int k) {
+			final int flavors = spec.flavors;
+			final int[] table = spec.affinity.table;
+			final int cols = spec.cols;
+			int bound = 0;
+			for (int j = Math.max(0, k - cols); j < k; j++) {
+				int edges = j + cols < cells.length ? 1 : 0;
+				if (j == k - 1 && (k % cols) != 0) edges++;
+				if (edges == 0) continue;
+				final int row = cells[j] * flavors;
+				int most = Integer.MIN_VALUE;
+				for (int b = 0; b < flavors; b++) {
+					if (remaining[b] > 0 && table[row + b] > most) most = table[row + b];
+				}
+				bound += edges * most;
+			}
+			return bound;
+		}
+		/**
+		 * Returns the most the edges between two unset cells could add if each got the best pair left in the bag.
+		 */
+		private int innerBound(int k) {
+			if (innerRights[k] + innerDowns[k] == 0) return 0;
+			final int flavors = spec.flavors;
+			final int[] table = spec.affinity.table;
+			int most = Integer.MIN_VALUE;
+			for (int a = 0; a < flavors; a++) {
+				if (remaining[a] == 0) continue;
+				for (int b = 0; b < flavors; b++) {
+					if (remaining[b] > (a == b ? 1 : 0) && table[(a * flavors) + b] > most) most = table[(a * flavors) + b];
+				}
+			}
+			return (innerRights[k] + innerDowns[k]) * most;
+		}
+		/**
+		 * Returns the most the edges between two unset cells could add, by the same pairing argument as FloorBound
+		 * applied to the rest of the bag. Only depends on k and the bag, so it is worked out once per pair and kept.
+		 */
+		private int pairingBound(int k) {
+			long key = k;
+			for (int f = 0; f < spec.flavors; f++) key = (key << COUNT_BITS) | remaining[f];
+			final Integer known = pairings.get(key);
+			if (known != null) return known;
+			final int bound = (int)(FloorBound.bestPairing(spec.affinity.table, remaining, innerRights[k])
+					+ FloorBound.bestPairing(spec.affinity.table, remaining, innerDowns[k]));
+			pairings.put(key, bound);
+			return bound;
+		}
+	}
+	/**
+	 * Returns what putting the given flavor at cell k adds: the edges to its left and upper neighbors, which are both set.
+	 */
+	private int gain(byte[] cells, int k, int flavor) {
+		final int flavors = spec.flavors;
+		final int[] table = spec.affinity.table;
+		int gain = 0;
+		if (k % spec.cols > 0) gain += table[(cells[k - 1] * flavors) + flavor];
+		if (k >= spec.cols) gain += table[(cells[k - spec.cols] * flavors) + flavor];
+		return gain;
+	}
+
+}
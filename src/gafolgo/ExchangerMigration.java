@@ -0,0 +1,49 @@
+package gafolgo;
+
+import java.util.concurrent.Exchanger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * The original way of trading layouts: on 10% of iterations, wait at a single Exchanger shared by everyone
+ * and swap current layouts with whichever thread shows up. Pairing is random and waiting blocks the thread.
+ */
+final class ExchangerMigration implements Migration {
+	/**
+	 * The exchanger that all threads use to communicate solutions.
+	 */
+	static final ExchangerMigration SWAP_SPOT = new ExchangerMigration();
+	/**
+	 * How long to wait for a partner before giving up, in milliseconds.
+	 * Without this, the last thread running would wait forever once the others finish their budgets.
+	 */
+	private static final long EXCHANGE_TIMEOUT = 100;
+	/**
+	 * Where the threads meet.
+	 */
+	private final Exchanger<FloorQuadSnapshot> exchanger = new Exchanger<FloorQuadSnapshot>();
+
+	/**
+	 * Everyone shares SWAP_SPOT.
+	 */
+	private ExchangerMigration() {
+	}
+	@Override
+	public boolean isDue(long iteration, RandomGenerator rand) {
+		//10% chance to try to swap a quadrant
+		return rand.nextInt(10)==1;
+	}
+	@Override
+	public FloorQuadSnapshot migrate(int island, FloorQuadSnapshot outgoing, RandomGenerator rand) throws InterruptedException {
+		try {
+			return exchanger.exchange(outgoing, EXCHANGE_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException e) {
+			//nobody else was around to trade with
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,168 @@
+package gafolgo;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Benjamin Groman
+ * This class remembers the metrics of layouts that have already been scored, so that a layout that comes around
+ * again (a migrant a worker has seen before, a child identical to its parent) isn't scored from scratch.
+ * Layouts are keyed by their 64-bit Zobrist hash, and the chance of two different layouts colliding
+ * is small enough to ignore.
+ * <p>
+ * The cache is set-associative: a key can only live in one small set of ways, and each set evicts by CLOCK,
+ * giving a second chance to entries that were hit since the hand last passed. The sets are guarded by
+ * a fixed number of striped locks, so the cache stays bounded and can be shared by every thread of a run.
+ * Metrics are computed outside the locks.
+ */
+final class FitnessCache {
+	/**
+	 * The number of entries in each set.
+	 */
+	private static final int WAYS = 8;
+	/**
+	 * The number of locks the sets are spread over. A power of two.
+	 */
+	private static final int STRIPES = 64;
+	/**
+	 * Way state for an empty way.
+	 */
+	private static final byte EMPTY = 0;
+	/**
+	 * Way state for an entry that hasn't been hit since the hand last passed it.
+	 */
+	private static final byte COLD = 1;
+	/**
+	 * Way state for an entry that has been hit since the hand last passed it.
+	 */
+	private static final byte REFERENCED = 2;
+	/**
+	 * The number of sets minus one, for masking a hash into a set index. The number of sets is a power of two.
+	 */
+	private final int setMask;
+	/**
+	 * The hash of each entry, indexed by (set * WAYS) + way.
+	 */
+	private final long[] keys;
+	/**
+	 * The metric of each entry, indexed like keys.
+	 */
+	private final int[] metrics;
+	/**
+	 * EMPTY, COLD or REFERENCED for each entry, indexed like keys.
+	 */
+	private final byte[] states;
+	/**
+	 * The CLOCK hand of each set: the next way it looks at for eviction.
+	 */
+	private final byte[] hands;
+	/**
+	 * Set i is guarded by locks[i % STRIPES].
+	 */
+	private final Object[] locks = new Object[STRIPES];
+	/**
+	 * The number of lookups that found their layout.
+	 */
+	private final LongAdder hits = new LongAdder();
+	/**
+	 * The number of lookups that had to score their layout.
+	 */
+	private final LongAdder misses = new LongAdder();
+	/**
+	 * The number of entries pushed out to make room.
+	 */
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates an empty cache.
+	 * @param capacity The most entries to keep. Rounded up to a power of two, and at least one set.
+	 */
+	FitnessCache(int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+		final int sets = capacity <= WAYS ? 1 : Integer.highestOneBit((capacity - 1) / WAYS) << 1;
+		setMask = sets - 1;
+		keys = new long[sets * WAYS];
+		metrics = new int[sets * WAYS];
+		states = new byte[sets * WAYS];
+		hands = new byte[sets];
+		for (int i = 0; i < STRIPES; i++) locks[i] = new Object();
+	}
+	/**
+	 * Returns the metric of the given layout, from the cache if it has been seen, or by scoring it otherwise.
+	 * Safe to call from any thread.
+	 */
+	int metric(FloorQuadSnapshot layout) {
+		final long key = layout.zobristHash();
+		//the low bits pick the set; the hash is already well mixed
+		final int set = (int)key & setMask;
+		final int base = set * WAYS;
+		synchronized (locks[set & (STRIPES - 1)]) {
+			for (int way = 0; way < WAYS; way++) {
+				if (states[base + way] != EMPTY && keys[base + way] == key) {
+					states[base + way] = REFERENCED;
+					hits.increment();
+					return metrics[base + way];
+				}
+			}
+		}
+		misses.increment();
+		final int metric = FloorQuadSnapshot.calculateFullMetric(layout);
+		put(set, key, metric);
+		return metric;
+	}
+	/**
+	 * Adds an entry to a set, evicting by CLOCK if it is full.
+	 */
+	private void put(int set, long key, int metric) {
+		final int base = set * WAYS;
+		synchronized (locks[set & (STRIPES - 1)]) {
+			//someone else may have scored the same layout meanwhile
+			for (int way = 0; way < WAYS; way++) {
+				if (states[base + way] != EMPTY && keys[base + way] == key) return;
+			}
+			//the hand clears second chances until it finds a cold or empty way, which takes at most two turns
+			int way = hands[set];
+			while (states[base + way] == REFERENCED) {
+				states[base + way] = COLD;
+				way = (way + 1) % WAYS;
+			}
+			if (states[base + way] != EMPTY) evictions.increment();
+			keys[base + way] = key;
+			metrics[base + way] = metric;
+			states[base + way] = COLD;
+			hands[set] = (byte)((way + 1) % WAYS);
+		}
+	}
+	/**
+	 * Returns the most entries the cache holds.
+	 */
+	int capacity() {
+		return keys.length;
+	}
+	/**
+	 * Returns the number of lookups that found their layout.
+	 */
+	long getHits() {
+		return hits.sum();
+	}
+	/**
+	 * Returns the number of lookups that had to score their layout.
+	 */
+	long getMisses() {
+		return misses.sum();
+	}
+	/**
+	 * Returns the number of entries pushed out to make room.
+	 */
+	long getEvictions() {
+		return evictions.sum();
+	}
+	/**
+	 * Returns the fraction of lookups that were hits, or zero if there were none.
+	 */
+	double getHitRate() {
+		final long hit = hits.sum();
+		final long total = hit + misses.sum();
+		return total == 0 ? 0 : (double)hit / total;
+	}
+
+}
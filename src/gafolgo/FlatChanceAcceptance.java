@@ -0,0 +1,37 @@
+package gafolgo;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * The original rule: take anything better, and take anything else with a flat chance that never changes.
+ */
+final class FlatChanceAcceptance implements AcceptancePolicy {
+	/**
+	 * The original 5% chance. This policy has no state, so it can be shared.
+	 */
+	static final FlatChanceAcceptance DEFAULT = new FlatChanceAcceptance(20);
+	/**
+	 * A layout that is no better is taken when nextInt(odds) comes up 1.
+	 */
+	private final int odds;
+
+	/**
+	 * Creates a policy that takes layouts that are no better once in the given number of tries.
+	 * @param odds One over the chance of taking a layout anyway. Must be at least two.
+	 */
+	FlatChanceAcceptance(int odds) {
+		if (odds < 2) throw new IllegalArgumentException("Odds must be at least 2: " + odds);
+		this.odds = odds;
+	}
+	@Override
+	public boolean acceptSwap(int delta, int first, int second, RandomGenerator rand) {
+		//if better or 5% chance (with the default odds)
+		return delta > 0 || rand.nextInt(odds)==1;
+	}
+	@Override
+	public boolean acceptMigrant(int delta, RandomGenerator rand) {
+		return delta > 0 || rand.nextInt(odds)==1;
+	}
+
+}
@@ -0,0 +1,107 @@
+package gafolgo;
+
+import java.util.Arrays;
+
+/**
+ * @author Benjamin Groman
+ * This class works out an upper bound on the metric any arrangement of a given bag of machines can reach,
+ * so a search can tell how far it might still be from the optimum.
+ * <p>
+ * The right edges and the down edges are bounded separately. Every machine has at most one right neighbor,
+ * and at most one left neighbor, and the floor has exactly rows * (cols - 1) right edges. So the number of right
+ * edges from flavor a to flavor b, x[a][b], has rows summing to at most count[a], columns summing to at most
+ * count[b], and everything summing to the number of edges. The best such x is a small transportation problem,
+ * solved exactly as a min-cost flow; the same goes for the down edges. Every real layout gives a feasible x,
+ * so the two optima together bound the metric from above. The bound ignores the geometry beyond that,
+ * so it is only tight when the best pairs can actually be chained together.
+ */
+final class FloorBound {
+	/**
+	 * This class is never instantiated.
+	 */
+	private FloorBound() {
+	}
+	/**
+	 * Returns an upper bound on the metric of any layout of the given spec with the given bag of machines.
+	 * @param spec The shape and affinities of the floor.
+	 * @param counts The number of machines of each flavor. Must add up to the number of cells.
+	 */
+	static int upperBound(FloorSpec spec, int[] counts) {
+		final int rights = spec.rows * (spec.cols - 1);
+		final int downs = (spec.rows - 1) * spec.cols;
+		return (int)(bestPairing(spec.affinity.table, counts, rights) + bestPairing(spec.affinity.table, counts, downs));
+	}
+	/**
+	 * Returns an upper bound for the layout's own bag of machines.
+	 */
+	static int upperBound(FloorQuadSnapshot layout) {
+		final int[] counts = new int[layout.spec.flavors];
+		for (int f = 0; f < counts.length; f++) counts[f] = layout.flavorCount(f);
+		return upperBound(layout.spec, counts);
+	}
+	/**
+	 * Solves the transportation problem: the most affinity that the given number of edges can carry if every flavor
+	 * can be on the evaluating end of at most count edges and on the evaluated end of at most count edges.
+	 * This is a min-cost flow from a source through one node per evaluating flavor and one per evaluated flavor
+	 * to a sink, found by successive shortest paths (Bellman-Ford, since the costs are negated affinities).
+	 * @param affinity The affinity table, indexed by (machine * flavors) + neighbor.
+	 * @param counts The number of machines of each flavor.
+	 * @param edges The number of edges to fill.
+	 */
+	static long bestPairing(int[] affinity, int[] counts, int edges) {
+		final int flavors = counts.length;
+		//nodes: source, evaluating flavors, evaluated flavors, sink
+		final int source = 0;
+		final int sink = (2 * flavors) + 1;
+		final int nodes = sink + 1;
+		//dense residual capacities and costs are fine for the handful of flavors there are
+		final long[][] capacity = new long[nodes][nodes];
+		final long[][] cost = new long[nodes][nodes];
+		for (int a = 0; a < flavors; a++) {
+			capacity[source][1 + a] = counts[a];
+			capacity[1 + flavors + a][sink] = counts[a];
+			for (int b = 0; b < flavors; b++) {
+				capacity[1 + a][1 + flavors + b] = edges;
+				cost[1 + a][1 + flavors + b] = -affinity[(a * flavors) + b];
+				cost[1 + flavors + b][1 + a] = affinity[(a * flavors) + b];
+			}
+		}
+		long total = 0;
+		long flow = 0;
+		final long[] distance = new long[nodes];
+		final int[] previous = new int[nodes];
+		while (flow < edges) {
+			//cheapest augmenting path in the residual graph
+			Arrays.fill(distance, Long.MAX_VALUE);
+			distance[source] = 0;
+			for (int round = 0; round < nodes - 1; round++) {
+				boolean changed = false;
+				for (int u = 0; u < nodes; u++) {
+					if (distance[u] == Long.MAX_VALUE) continue;
+					for (int v = 0; v < nodes; v++) {
+						if (capacity[u][v] > 0 && distance[u] + cost[u][v] < distance[v]) {
+							distance[v] = distance[u] + cost[u][v];
+							previous[v] = u;
+							changed = true;
+						}
+					}
+				}
+				if (!changed) break;
+			}
+			//can't happen while the counts cover the edges, but an empty bag would loop forever
+			if (distance[sink] == Long.MAX_VALUE) break;
+			long push = edges - flow;
+			for (int v = sink; v != source; v = previous[v]) {
+				push = Math.min(push, capacity[previous[v]][v]);
+			}
+			for (int v = sink; v != source; v = previous[v]) {
+				capacity[previous[v]][v] -= push;
+				capacity[v][previous[v]] += push;
+			}
+			flow += push;
+			total -= push * distance[sink];
+		}
+		return total;
+	}
+
+}
@@ -1,179 +1,338 @@
 package gafolgo;
 
-import java.util.concurrent.Exchanger;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 
 /**
  * @author Benjamin Groman
  * This class keeps track of the FloorQuadSnapshots and implements the main algorithmic loop.
  */
-public class FloorManager extends Thread {
+public class FloorManager extends SearchWorker {
 	/**
 	 * The floor as it currently stands during operation.
+	 * This is swapped in place; snapshots are only taken when something else needs to see it.
 	 */
-	private FloorQuadSnapshot floor;
-	/**
-	 * The best layout of the floor found so far.
-	 */
-	private FloorQuadSnapshot bestFloor;
+	private final WorkingFloor floor;
 	/**
 	 * The affinity metric as it currently stands during operation.
 	 */
 	private int metric;
 	/**
-	 * The best value of the affinity metric found so far.
+	 * Decides when to take a layout that is no better than the current one.
+	 */
+	private final AcceptancePolicy policy;
+	/**
+	 * Seeded from the worker's seed when the search begins.
+	 */
+	private SplittableRandom rand;
+	/**
+	 * True if the working floor has changed since it was last published.
+	 */
+	private boolean moved = false;
+	/**
+	 * Draws and scores several candidate swaps per step, or null to try one swap per step.
 	 */
-	private int bestMetric;
+	private MoveBatch batch = null;
 	/**
-	 * The exchanger that all threads use to communicate solutions.
+	 * If true, a batch stops at its first improving candidate instead of scoring them all for the best.
 	 */
-	private static final Exchanger<FloorQuadSnapshot> SWAP_SPOT = new Exchanger<FloorQuadSnapshot>();
+	private boolean firstImproving = false;
 	/**
-	 * The display that this class updates. If null during execution, this attribute will be ignored.
+	 * The operators each step draws a move from, or null to try one random swap per step.
 	 */
-	private FloorPanel display = null;
+	private MoveSet moves = null;
 	/**
-	 * Used to prevent drawing from occurring too frequently.
-	 * Represents milliseconds.
+	 * Decides when to give up on the current layout and start over, or null to never restart.
 	 */
-	private long lastDraw = 0;
+	private RestartScheduler restarts = null;
 	/**
-	 * Creates a floor manager with the given starting quadrant. Fails if given null.
+	 * Creates a floor manager with the given starting quadrant that trades at the shared exchanger. Fails if given null.
 	 */
 	public FloorManager(FloorQuadSnapshot fqs1) {
-		//floor and bestFloor are initially the same
-		floor = fqs1;
-		bestFloor = fqs1;
-		//metric and bestMetric are the same, too, but we don't need to re-do the calculations
-		metric = FloorQuadSnapshot.calculateFullMetric(fqs1);
-		bestMetric = metric;
-		//don't let this thread keep the program from terminating
-		setDaemon(true);
+		this(fqs1, ExchangerMigration.SWAP_SPOT, 0, FlatChanceAcceptance.DEFAULT);
+	}
+	/**
+	 * Creates a floor manager with the given starting quadrant, way of trading solutions and acceptance rule. Fails if given null.
+	 * @param fqs1 The starting layout.
+	 * @param migration How to trade layouts with the other threads.
+	 * @param island This thread's index among the islands of the migration.
+	 * @param policy Decides when to take a layout that is no better. Must not be shared with another thread unless stateless.
+	 */
+	FloorManager(FloorQuadSnapshot fqs1, Migration migration, int island, AcceptancePolicy policy) {
+		//floor and bestFloor are initially the same, and so are metric and bestMetric
+		this(fqs1, FloorQuadSnapshot.calculateFullMetric(fqs1), migration, island, policy);
+	}
+	/**
+	 * Lets the metric be calculated once for both the working and best state.
+	 */
+	private FloorManager(FloorQuadSnapshot fqs1, int startMetric, Migration migration, int island, AcceptancePolicy policy) {
+		super(fqs1, startMetric, migration, island);
+		floor = new WorkingFloor(fqs1);
+		metric = startMetric;
+		this.policy = policy;
 	}
 
 	/**
-	 * The main worker loop of the algorithm.
+	 * Seeds the random number generator, so a checkpoint can record where the random choices came from.
+	 */
+	@Override
+	void begin() {
+		rand = new SplittableRandom(seed);
+		if (restarts != null) restarts.started(iterations, metric);
+	}
+	/**
+	 * One pass of the main worker loop of the algorithm.
 	 * 1) Calculate metric.
 	 * 2) Pick two random locations.
-	 * 3) If same flavor, go back to 2. (Not implemented, but included for consistency with original plan numbers.)
+	 * 3) If same flavor, there is nothing to decide; the swap is skipped without asking the policy.
 	 * 4) Swap values.
 	 * 5) Recalculate metric.
-	 * 6) Keep the better layout, with a 5% chance of taking the new one anyway.
+	 * 6) Keep the better layout, or the new one anyway if the acceptance policy says so (5% chance by default).
 	 * 7) Revert variables as necessary. (Not present in this function.)
-	 * 8) 10% chance of trying to swap a solution with another thread, with a 5% chance of keeping valid ones anyway.
-	 * 9) Draw approximately once a second.
-	 * 10) Go back to 2 unless interrupted.
+	 * 8) When the migration says so, trade a solution with another worker, keeping valid ones that are no better if the policy says so.
+	 * 9) Publish the floor for the GUI about ten times a second, if anyone is watching and it has changed.
+	 * 10) Go back to 2 unless cancelled, out of iterations, or on target. (The loop is in SearchWorker.)
 	 */
 	@Override
-	public void run() {
-		//get a friendly name for our random number generator
-		ThreadLocalRandom rand = ThreadLocalRandom.current();
-		//get a friendly name for the dimension of the floor
-		final int size = FloorQuadSnapshot.SIZE;
+	void step() {
 		//1 calculate metric performed at construction, so we don't need to do it again until we update the layout
-		//check for interrupt so that we can terminate nicely
-		while (!interrupted()) {
-			//2 pick two random locations
-			//first location
-			final int row1 = rand.nextInt(size);
-			final int col1 = rand.nextInt(size);
-			//second location
-			final int row2 = rand.nextInt(size);
-			final int col2 = rand.nextInt(size);
-			//3 decided not to check. ---- if same flavor, go back to 2
-			//4 swap values
-			//find first value
-			final Flavor mac1 = floor.machine(row1, col1);
-			//find second value
-			final Flavor mac2 = floor.machine(row2, col2);
-			//insert first value in second slot and insert second value in first slot
-			//replace returns a clone with the given tweak, so we can chain calls to it
-			final FloorQuadSnapshot newLayout = floor.replace(mac1, row2, col2).replace(mac2, row1, col1);
-			//5 recalculate metric (happens inside the function)
-			//6 if better or 5% chance, keep swap, else revert
-			keepBetter(newLayout, (rand.nextInt(20)==1));
-			//8 10% chance to try to swap a quadrant
-			if (rand.nextInt(10)==1) {
-				try {
-					final FloorQuadSnapshot offer = SWAP_SPOT.exchange(floor);
-					//verify we're getting the same bag of machines before updating
-					if (floor.exchangeSignature == offer.exchangeSignature) {
-						//5% chance to keep it regardless of improvements
-						keepBetter(offer, (rand.nextInt(20)==1));
-					}
-				}
-				catch(InterruptedException e) {
-					//make sure we properly terminate the loop, since the exception will clear the status bit
-					this.interrupt();
+		//2 through 7 happen inside the function, for one swap or the pick of a batch
+		if (batch != null) {
+			tryBatch(rand);
+		}
+		else if (moves != null) {
+			tryMove(rand);
+		}
+		else {
+			trySwap(rand);
+		}
+		//8 trade a quadrant when the migration says so (10% of the time at the shared exchanger)
+		if (migration.isDue(iterations, rand)) {
+			try {
+				//the other worker will hold on to what we send, so it has to be immutable
+				final FloorQuadSnapshot outgoing = migration.sendsBest() ? bestFloor : floor.snapshot();
+				final long waitStart = System.nanoTime();
+				final FloorQuadSnapshot offer = migration.migrate(island, outgoing, rand);
+				final boolean exchangeable = offer != null && offer.isExchangeableWith(outgoing);
+				countExchange(System.nanoTime() - waitStart, offer, !exchangeable);
+				//verify we're getting something new with the same bag of machines before updating
+				//(a layout with our own hash is the one we already have, most likely sent back to us);
+				//a neighbor's best is worth taking again whenever we have wandered off it, even if it is our best too
+				if (exchangeable && offer.zobristHash() != floor.hash()) {
+					//the policy may keep it regardless of improvements
+					keepBetter(offer, rand);
 				}
 			}
-			//9 if display set and at least ~1000 milliseconds since last draw, queue draw.
-			if (display != null && lastDraw + 1000 < System.currentTimeMillis()) {
-				//using a lambda runnable
-				javax.swing.SwingUtilities.invokeLater(() -> {display.update(floor, metric);});
-				//update the time tracker - forgot to do this initially
-				lastDraw = System.currentTimeMillis();
+			catch(InterruptedException e) {
+				//make sure we properly terminate the loop
+				cancel();
 			}
-			try {
-				//waiting between swaps to avoid total load of my system.
-				sleep(5);
+		}
+		//9 if someone is watching and at least ~100 milliseconds since the last publish, publish the floor
+		//nothing to show if nothing has moved since the last time
+		if (moved && isPublishDue()) {
+			//take the snapshot here so the GUI doesn't read the working floor while we swap it
+			publish(floor.snapshot(), metric);
+			moved = false;
+		}
+		iterations++;
+		//save our state and flush our counters now and then
+		housekeeping();
+		//start over somewhere else if this layout hasn't gone anywhere for a while
+		if (restarts != null && restarts.isDue(iterations)) {
+			restart();
+		}
+		//10 go back to 2
+	}
+	/**
+	 * Proposes one random swap and keeps it if it is better, or if the acceptance policy says to anyway.
+	 * This is steps 2 through 7 of the main loop.
+	 * @param rand The random number generator of the calling thread.
+	 */
+	void trySwap(RandomGenerator rand) {
+		//2 pick two random locations
+		//first location
+		final int row1 = rand.nextInt(floor.spec.rows);
+		final int col1 = rand.nextInt(floor.spec.cols);
+		//second location
+		final int row2 = rand.nextInt(floor.spec.rows);
+		final int col2 = rand.nextInt(floor.spec.cols);
+		//3 same flavor is checked in decide(), since it has to be for a batch too
+		//5 recalculate metric, but only the part the swap would change
+		final int delta = floor.swapDelta(row1, col1, row2, col2);
+		decide(delta, (row1 * floor.spec.cols) + col1, (row2 * floor.spec.cols) + col2, rand);
+	}
+	/**
+	 * Draws a batch of random swaps, scores them all, and offers the best (or the first improving one)
+	 * to the acceptance policy. Steps 2 through 7 of the main loop, done for the whole batch at once.
+	 * @param rand The random number generator of the calling thread.
+	 */
+	void tryBatch(RandomGenerator rand) {
+		//2 and 5 for every candidate, without touching the floor
+		final int chosen = batch.pick(floor, rand, firstImproving);
+		decide(batch.delta(chosen), batch.first(chosen), batch.second(chosen), rand);
+	}
+	/**
+	 * Proposes a move from the move set, keeping it if the acceptance policy likes it.
+	 * A move is a few swaps, which are applied one at a time to add up its delta, and undone in reverse if it isn't kept.
+	 * @param rand The random number generator of the calling thread.
+	 */
+	void tryMove(RandomGenerator rand) {
+		final int operator = moves.choose(rand);
+		final int swaps = moves.propose(operator, floor, rand);
+		if (swaps == 1) {
+			//a single swap can be scored without touching the floor, like any other
+			final int delta = floor.swapDelta(moves.first(0), moves.second(0));
+			moves.credit(operator, delta, decide(delta, moves.first(0), moves.second(0), rand));
+			return;
+		}
+		policy.step();
+		final long before = floor.hash();
+		int delta = 0;
+		for (int i = 0; i < swaps; i++) {
+			delta += floor.swapDelta(moves.first(i), moves.second(i));
+			floor.swap(moves.first(i), moves.second(i));
+		}
+		//a move that only traded machines of the same flavor changes nothing, so don't let the policy "accept" it
+		if (floor.hash() == before) {
+			countMove(false);
+			moves.credit(operator, 0, false);
+			return;
+		}
+		final boolean accepted = policy.acceptSwap(delta, moves.first(0), moves.second(0), rand);
+		countMove(accepted);
+		moves.credit(operator, delta, accepted);
+		if (accepted) {
+			policy.accepted(moves.first(0), moves.second(0));
+			keepSwapped(metric + delta);
+			moved = true;
+		}
+		else {
+			//every swap is its own inverse
+			for (int i = swaps - 1; i >= 0; i--) {
+				floor.swap(moves.first(i), moves.second(i));
 			}
-			catch(InterruptedException e) {
-				//be sure we don't miss our termination signal
-				this.interrupt();
+		}
+	}
+	/**
+	 * Asks the acceptance policy about a scored swap and applies it if the policy agrees.
+	 * @param delta The change in the metric if the swap is applied.
+	 * @param first The first cell index, (row * cols) + col.
+	 * @param second The second cell index.
+	 * @param rand The random number generator of the calling thread.
+	 * @return True if the swap was kept.
+	 */
+	private boolean decide(int delta, int first, int second, RandomGenerator rand) {
+		//6 if the policy likes it (better, or 5% chance by default), keep swap, else revert
+		//7 revert is free because nothing was changed to evaluate the swap
+		policy.step();
+		//3 swapping two machines of the same flavor changes nothing, so don't let the policy "accept" it
+		if (floor.sameFlavor(first, second)) {
+			countMove(false);
+			return false;
+		}
+		final boolean accepted = policy.acceptSwap(delta, first, second, rand);
+		countMove(accepted);
+		if (accepted) {
+			//4 swap values in place
+			floor.swap(first, second);
+			policy.accepted(first, second);
+			keepSwapped(metric + delta);
+			moved = true;
+		}
+		return accepted;
+	}
+	/**
+	 * Replaces the working floor with a new starting point: a shuffle of the same machines,
+	 * or the best layout so far with a few random swaps, as the restart scheduler says.
+	 */
+	private void restart() {
+		if (restarts.restart()) {
+			//dig around the best basin so far
+			final FloorQuadSnapshot best = restarts.global ? globalBest() : bestFloor;
+			floor.load(best.isExchangeableWith(bestFloor) ? best : bestFloor);
+			final int cells = floor.spec.cells();
+			for (int i = 0; i < restarts.perturbation; i++) {
+				floor.swap(rand.nextInt(cells), rand.nextInt(cells));
 			}
-			//10 go back to 2
+		}
+		else {
+			//a new basin altogether
+			floor.shuffle(rand);
+		}
+		metric = floor.fullMetric();
+		moved = true;
+		countRestart();
+		restarts.started(iterations, metric);
+		if (metric > bestMetric) {
+			improved(floor.snapshot(), metric);
 		}
 	}
 	/**
-	 * Returns the best metric found so far.
+	 * Makes this worker start over when it stops improving. Call before the worker starts.
+	 * @param restarts The scheduler to follow, which must not be shared, or null to never restart.
 	 */
-	public int getBestMetric() {
-		return bestMetric;
+	void setRestarts(RestartScheduler restarts) {
+		this.restarts = restarts;
 	}
 	/**
-	 * Returns the best layout found so far.
+	 * Sets how many candidate swaps each step draws and scores. Call before the worker starts.
+	 * @param size The number of candidates per step. 1 goes back to a single random swap per step.
+	 * @param firstImproving If true, take the first improving candidate instead of the best one.
 	 */
-	public FloorQuadSnapshot getBestLayout() {
-		return bestFloor;
+	void setBatch(int size, boolean firstImproving) {
+		batch = size > 1 ? new MoveBatch(size) : null;
+		this.firstImproving = firstImproving;
 	}
 	/**
-	 * Returns the last metric found. Result not guaranteed if the thread is running.
+	 * Sets the operators each step draws a move from. Call before the worker starts.
+	 * @param moves The operators, or null for one random swap per step. Ignored while a batch is set.
 	 */
+	void setMoves(MoveSet moves) {
+		this.moves = moves;
+		//guided moves look for the worst placed machines, which takes keeping score of every cell
+		if (moves != null && moves.contains(MoveOperator.GUIDED)) floor.trackSlack();
+	}
+	@Override
 	public int getLastMetric() {
 		return metric;
 	}
-	/**
-	 * Returns the last layout found. Result not guaranteed if the thread is running.
-	 */
+	@Override
 	public FloorQuadSnapshot getLastLayout() {
-		return floor;
+		return floor.snapshot();
+	}
+	@Override
+	void copyCurrent(byte[] target) {
+		//no need for a snapshot, since only this thread touches the working floor
+		floor.copyMachines(target);
 	}
 	/**
 	 * Updates the working state if the given layout is an improvement over the current working state.
 	 * Also keeps the best state up to date.
 	 * @param newLayout the potential new floor.
-	 * @param succeedAnyway if true, the newLayout will be used even if it isn't better.
+	 * @param rand used by the acceptance policy to decide whether to use newLayout even if it isn't better.
 	 */
-	private void keepBetter(FloorQuadSnapshot newLayout, boolean succeedAnyway) {
-		//calculate the new metric
-		final int newMetric = FloorQuadSnapshot.calculateFullMetric(newLayout);
+	private void keepBetter(FloorQuadSnapshot newLayout, RandomGenerator rand) {
+		//calculate the new metric, unless some worker has already done it for the same layout
+		final int newMetric = evaluate(newLayout);
 		//check for improvement
 		if (newMetric > metric) {
 			//update state because the new one is better
 			metric = newMetric;
-			floor = newLayout;
+			floor.load(newLayout);
+			moved = true;
+			if (restarts != null) restarts.observe(iterations, newMetric);
 			//keep best state up to date as appropriate
 			if (newMetric > bestMetric) {
-				bestMetric = newMetric;
-				bestFloor = newLayout;
+				improved(newLayout, newMetric);
 			}
 		}
-		else if (succeedAnyway) {
+		else if (policy.acceptMigrant(newMetric - metric, rand)) {
 			//update metric even though its worse or the same
 			//(not going to get here if it was better)
 			metric = newMetric;
-			floor = newLayout;
+			floor.load(newLayout);
+			moved = true;
 		}
 		//7 else revert
 		else {
@@ -182,11 +341,17 @@ public class FloorManager extends Thread {
 		}
 	}
 	/**
-	 * Allows the FloorManager to be linked to the GUI and know what to update.
-	 * @param panel The FloorPanel that will be updated when this FloorManager draws.
+	 * Records a swap that has already been applied to the working floor.
+	 * A snapshot is only taken if the swap produced a new best.
+	 * @param newMetric the metric of the working floor after the swap.
 	 */
-	public void setPanel(FloorPanel panel) {
-		display = panel;
+	private void keepSwapped(int newMetric) {
+		metric = newMetric;
+		if (restarts != null) restarts.observe(iterations, newMetric);
+		//keep best state up to date as appropriate
+		if (newMetric > bestMetric) {
+			improved(floor.snapshot(), newMetric);
+		}
 	}
 
 }
@@ -3,16 +3,22 @@
  */
 package gafolgo;
 
+import java.awt.BorderLayout;
 import java.awt.Color;
-import java.awt.GridLayout;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
 
-import javax.swing.BoxLayout;
+import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 /**
  * @author Benjamin Groman
  * This class represents a single solution graphically.
+ * The floor is kept in a BufferedImage with one pixel per cell, which is scaled up when painted,
+ * so showing a floor costs one image draw instead of a component per cell.
+ * Only the cells that changed since the last update are written to the image.
  */
 class FloorPanel extends JPanel {
 	/**
@@ -20,21 +26,36 @@ class FloorPanel extends JPanel {
 	 */
 	private static final long serialVersionUID = -7395829330322543496L;
 	/**
-	 * Allows the size to be used without typing FloorQuadSnapshot repeatedly.
+	 * The most pixels a cell is drawn with, which is about what the old labels took.
 	 */
-	public static final int SIZE = FloorQuadSnapshot.SIZE;
+	private static final int MAX_CELL_PIXELS = 16;
 	/**
-	 * Organizes the solution elements.
+	 * About how many pixels the larger side of a big floor is drawn with.
 	 */
-	private final JPanel gridPanel;
+	private static final int TARGET_PIXELS = 192;
 	/**
-	 * Allows the solution elements to be updated.
-	 * This is done sequentially, so this can be a single-dimension array.
+	 * The shape of the floors this panel displays.
 	 */
-	JLabel[] cells = new JLabel[SIZE*SIZE];
+	private final FloorSpec spec;
+	/**
+	 * The floor, one pixel per cell. Only touched on the GUI thread.
+	 */
+	private final BufferedImage image;
+	/**
+	 * The color of each flavor, ready to be written to the image.
+	 */
+	private final int[] palette;
+	/**
+	 * The flavor index currently shown in each cell, so unchanged cells can be skipped.
+	 */
+	private final byte[] shown;
+	/**
+	 * The layout last passed to update(), so the same one can be skipped without looking at it.
+	 */
+	private FloorQuadSnapshot lastFloor = null;
 	/**
 	 * This is where the affinity metric is displayed.
-	 * It is not in the gridPanel.
+	 * It is not in the image.
 	 */
 	JLabel tag;
 
@@ -42,56 +63,74 @@ class FloorPanel extends JPanel {
 	 * Creates a new FloorPanel that displays the given floor and metric.
 	 */
 	public FloorPanel(FloorQuadSnapshot floor, int metric) {
-		//vertical orientation
-		this.setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
-		//create the grid for the solution
-		gridPanel = new JPanel(new GridLayout(SIZE, SIZE));
-		//ensure the grid is included when drawing
-		this.add(gridPanel);
+		//image above, metric below
+		super(new BorderLayout());
+		//every floor this panel shows will have the same shape as the first one
+		spec = floor.spec;
+		image = new BufferedImage(spec.cols, spec.rows, BufferedImage.TYPE_INT_RGB);
+		palette = new int[spec.flavors];
+		for (int i = 0; i < palette.length; i++) {
+			palette[i] = getColor(i).getRGB();
+		}
+		shown = new byte[spec.cells()];
+		//small floors get big cells, big floors get at least a pixel per cell
+		final int cellPixels = Math.max(1, Math.min(MAX_CELL_PIXELS, TARGET_PIXELS / Math.max(spec.rows, spec.cols)));
+		final Dimension size = new Dimension(spec.cols * cellPixels, spec.rows * cellPixels);
+		//the floor itself is a single component that paints the scaled image
+		final JComponent canvas = new JComponent() {
+			private static final long serialVersionUID = 4718324506321792836L;
+
+			@Override
+			protected void paintComponent(Graphics g) {
+				//default interpolation is nearest neighbor, which keeps the cells crisp
+				g.drawImage(image, 0, 0, getWidth(), getHeight(), null);
+			}
+		};
+		canvas.setPreferredSize(size);
+		this.add(canvas, BorderLayout.CENTER);
 		//the text will be set by the update() method
 		tag = new JLabel();
 		//make sure the tag is included when drawing
-		this.add(tag);
-		
-		//initialize cells (must use index to actually initialize slots)
-		for(int i = 0; i < cells.length; i++) {
-			//the text can be almost anything, but this was reasonably square and pleasing with the default font
-			cells[i] = new JLabel(" O ");
-			//make the background visible - initially forgot to include
-			cells[i].setOpaque(true);
-			//include the cell when drawing
-			gridPanel.add(cells[i]);
+		this.add(tag, BorderLayout.SOUTH);
+		//first painting, with every cell written
+		for (int row = 0; row < spec.rows; row++) {
+			for (int col = 0; col < spec.cols; col++) {
+				shown[(row * spec.cols) + col] = (byte)floor.flavor(row, col);
+				image.setRGB(col, row, palette[floor.flavor(row, col)]);
+			}
 		}
-		//first painting
-		update(floor, metric);
-
+		lastFloor = floor;
+		tag.setText("" + metric);
 	}
 	/**
-	 * Updates the displayed colors and text.
+	 * Updates the displayed colors and text, repainting only if something changed. Must be called on the GUI thread.
 	 * @param floor The solution to be displayed.
 	 * @param metric The value of the solution to be displayed.
 	 */
 	void update(FloorQuadSnapshot floor, int metric) {
-		//keep track of this separately because the cells array has one dimension 
+		//update the metric display, which doesn't repaint unless the text changed
+		tag.setText("" + metric);
+		//nothing to do for the very same layout
+		if (floor == lastFloor) return;
+		lastFloor = floor;
+		boolean changed = false;
+		//keep track of this separately because the shown array has one dimension
 		int index = 0;
 		//update the layout display
-		for(int row = 0; row < SIZE; row++) {
-			for (int col = 0; col < SIZE; col++) {
-				//background should be the color corresponding to the machine at this location
-				cells[index].setBackground(getColor(floor.machine(row, col)));
+		for (int row = 0; row < spec.rows; row++) {
+			for (int col = 0; col < spec.cols; col++) {
+				final int flavor = floor.flavor(row, col);
+				//only cells that changed are written
+				if (shown[index] != flavor) {
+					shown[index] = (byte)flavor;
+					image.setRGB(col, row, palette[flavor]);
+					changed = true;
+				}
 				//keep the cell index on track
 				index++;
 			}
 		}
-		//old code included for reference - this worked when machines was accessible
-		/*for(Flavor[] row : floor.machines) {
-			for (Flavor col : row) {
-				cells[index].setBackground(getColor(col));
-				index++;
-			}
-		}*/
-		//update the metric display
-		tag.setText("" + metric);
+		if (changed) repaint();
 	}
 	/**
 	 * Converts from a Flavor to the associated Color, returning black as a default.
@@ -105,5 +144,17 @@ class FloorPanel extends JPanel {
 		else if (mac == Flavor.Red) return Color.red;
 		else return Color.black;
 	}
+	/**
+	 * Converts from a flavor index to a color. Indices within the Flavor enumeration use its colors;
+	 * any others are spread around the color wheel.
+	 * @param flavor The flavor index to be drawn.
+	 * @return The color of the machine.
+	 */
+	public static Color getColor(int flavor) {
+		final Flavor[] named = Flavor.values();
+		if (flavor < named.length) return getColor(named[flavor]);
+		//the golden ratio keeps successive hues far apart
+		return Color.getHSBColor((flavor * 0.618034f) % 1f, 0.8f, 0.9f);
+	}
 
 }
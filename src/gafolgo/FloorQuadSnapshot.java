@@ -1,71 +1,165 @@
 package gafolgo;
 
+import java.util.Arrays;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 
 /**
  * @author Benjamin Groman
  * This class initially represented each of four quadrants of the floor.
  * It now represents the whole floor, which is still a quadrant.
+ * The dimensions and number of flavors come from a FloorSpec, so floors need not be square.
  */
 final class FloorQuadSnapshot {
 	/**
-	 * Size is the number of rows and the number of columns, not the number of machines.
+	 * Size is the number of rows and the number of columns of the default floor, not the number of machines.
+	 * Other sizes can be requested through a FloorSpec.
 	 */
 	static final int SIZE = 8;
+	/**
+	 * Lookup table for turning stored flavor indices back into the Flavor enumeration.
+	 */
+	private static final Flavor[] FLAVORS = Flavor.values();
+	/**
+	 * The shape of this floor.
+	 */
+	final FloorSpec spec;
 	/**
 	 * The final modifier does not prevent the individual machines from being modified.
 	 * This led to a bug where the same array would be used by all modifications of a FloorQuadSnapshot,
 	 * causing it to eventually become all one color.
 	 * This has been fixed by preventing direct access and performing copying at the appropriate times.
+	 * Machines are stored as flavor indices, one byte per cell, indexed by (row * cols) + col.
+	 */
+	private final byte[] machines;
+	/**
+	 * The number of machines of each flavor. This is the exact version of the exchange signature.
 	 */
-	private final Flavor[][] machines;
+	private final int[] counts;
 	/**
-	 * Two FloorQuadSnapshots may be exchanged without changing the problem space if their exchangeSignatures match.
+	 * Two FloorQuadSnapshots may be exchanged without changing the problem space only if their exchangeSignatures match.
+	 * This is a 64-bit hash of the spec and the flavor counts, so it is a quick way to reject an exchange;
+	 * isExchangeableWith() makes the exact comparison.
+	 * (It used to be an exact sum, but that overflowed an int once the floor was larger than about 14x14.)
 	 */
-	public final int exchangeSignature;
+	public final long exchangeSignature;
+	/**
+	 * The Zobrist hash of the layout, or zero until zobristHash() first needs it.
+	 * It is always computed to the same value, so a race between threads only means computing it twice.
+	 */
+	private volatile long zobrist = 0;
 
 	/**
 	 * This method produces a random quadrant of the floor. It is intended for use when starting the program.
 	 */
 	public FloorQuadSnapshot() {
-		//keep track of the signature as we go
-		int runningSignature = 0;
-		//create a temporary array of the static size
-		Flavor[][] temp = new Flavor[SIZE][SIZE];
-		//for every row
-		for (int i = 0; i < SIZE; i++) {
-			//for every column/slot
-			for (int j = 0; j < SIZE; j++) {
-				//initialize to a random machine
-				temp[i][j] = getRandomMachine();
-				//update the signature with that machine
-				runningSignature += getExchangeValue(temp[i][j]);
-			}
-		}
-		//set the final attributes
-		machines = temp;
-		exchangeSignature = runningSignature;
+		this(FloorSpec.DEFAULT);
+	}
+	/**
+	 * This method produces a random floor of the given shape. It is intended for use when starting the program.
+	 * @param spec The dimensions and flavor count of the floor.
+	 */
+	public FloorQuadSnapshot(FloorSpec spec) {
+		//using ThreadLocalRandom even though we don't expect this to be called during multi-threaded operation
+		this(spec, ThreadLocalRandom.current());
+	}
+	/**
+	 * This method produces a random floor of the given shape, drawing from the given generator.
+	 * The same seeded generator always produces the same floor.
+	 * @param spec The dimensions and flavor count of the floor.
+	 * @param rand The source of randomness.
+	 */
+	public FloorQuadSnapshot(FloorSpec spec, RandomGenerator rand) {
+		this(spec, randomMachines(spec, rand));
 	}
 	/**
 	 * This method produces a quadrant of the floor. It is intended for use when creating a derivative of an existing quadrant.
-	 * @param grid The grid to initialize the machines to.
+	 * The caller must hand over a freshly created array and never touch it again.
+	 * @param spec The shape of the floor.
+	 * @param grid The flavor indices to initialize the machines to, in row-major order.
 	 */
-	private FloorQuadSnapshot(Flavor[][] grid) {
-		//this is allowed only because replace() already handled creating a new array
+	FloorQuadSnapshot(FloorSpec spec, byte[] grid) {
+		if (grid.length != spec.cells()) {
+			throw new IllegalArgumentException("Expected " + spec.cells() + " machines but got " + grid.length);
+		}
+		this.spec = spec;
+		//this is allowed only because the callers already handled creating a new array
 		machines = grid;
-		//keep track of the signature as we go
-		int runningSignature = 0;
-		//for every row that is within the allowed size and the actual given array
-		for (int i = 0; i < grid.length && i < SIZE; i++) {
-			//for every column/slot that is within the allowed size and the actual given array
-			for (int j = 0; j < grid[i].length && j < SIZE; j++)
-			{
-				//update the signature
-				runningSignature += getExchangeValue(grid[i][j]);
+		//count the machines as we go
+		counts = new int[spec.flavors];
+		for (byte machine : grid) {
+			counts[machine]++;
+		}
+		exchangeSignature = signature(spec, counts);
+	}
+	/**
+	 * Like the constructor above, for a caller that already knows the Zobrist hash of the grid,
+	 * such as a WorkingFloor that keeps it up to date as it swaps.
+	 * @param zobrist The value zobristHash() would compute for the grid.
+	 */
+	FloorQuadSnapshot(FloorSpec spec, byte[] grid, long zobrist) {
+		this(spec, grid);
+		this.zobrist = zobrist;
+	}
+	/**
+	 * Fills a new array with random flavors for the given spec.
+	 */
+	private static byte[] randomMachines(FloorSpec spec, RandomGenerator rand) {
+		final byte[] temp = new byte[spec.cells()];
+		for (int i = 0; i < temp.length; i++) {
+			//this is currently set up for equal opportunity
+			temp[i] = (byte)rand.nextInt(spec.flavors);
+		}
+		return temp;
+	}
+	/**
+	 * Hashes the spec and flavor counts into 64 bits. Two floors with the same spec and counts always get the same value.
+	 */
+	private static long signature(FloorSpec spec, int[] counts) {
+		long hash = mix(((long)spec.rows << 32) | spec.cols);
+		for (int count : counts) {
+			hash = mix(hash ^ count);
+		}
+		return hash;
+	}
+	/**
+	 * Returns the Zobrist key of a flavor in a cell. The hash of a layout is the XOR of the keys of all its cells,
+	 * so swapping two machines changes it by four keys. The keys are derived rather than drawn from a table,
+	 * so every thread and every run agrees on them without storing anything.
+	 * @param cell The cell index, (row * cols) + col.
+	 * @param flavor The flavor index, which always fits in a byte.
+	 */
+	static long zobristKey(int cell, int flavor) {
+		return mix(((long)cell << 8) | flavor);
+	}
+	/**
+	 * Returns the 64-bit Zobrist hash of the layout, computing it the first time.
+	 * Equal layouts of the same spec always have equal hashes, and different ones almost never do.
+	 */
+	long zobristHash() {
+		long hash = zobrist;
+		if (hash == 0) {
+			for (int i = 0; i < machines.length; i++) {
+				hash ^= zobristKey(i, machines[i]);
 			}
+			zobrist = hash;
 		}
-		//set the final attribute
-		exchangeSignature = runningSignature;
+		return hash;
+	}
+	/**
+	 * Returns true if the Zobrist hash is already known, so zobristHash() won't have to pass over the floor.
+	 */
+	boolean hasZobristHash() {
+		return zobrist != 0;
+	}
+	/**
+	 * The SplitMix64 finalizer, which spreads every input bit across the whole result.
+	 */
+	private static long mix(long z) {
+		z += 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
 	}
 	/**
 	 * This method produces a new quadrant with the machine at the given position replaced with the given flavor.
@@ -75,102 +169,106 @@ final class FloorQuadSnapshot {
 	 * @return A new FloorQuadSnapshot independent of the original, with one machine tweaked.
 	 */
 	public FloorQuadSnapshot replace(Flavor newMachine, int row, int col) {
-		//create a new array so we don't share the old one
-		Flavor[][] current =  new Flavor[SIZE][SIZE];
-		//for every row that is within the allowed size and the original array
-		for (int i = 0; i < machines.length && i < SIZE; i++) {
-			//for every column/slot that is within the allowed size and the original array
-			for (int j = 0; j < machines[i].length && j < SIZE; j++)
-			{
-				//copy the machine.
-				//machines are enumeration values, so they can't be modified to break our immutability
-				current[i][j] = machines[i][j];
-			}
+		return replace(newMachine.ordinal(), row, col);
+	}
+	/**
+	 * This method produces a new floor with the machine at the given position replaced with the given flavor index.
+	 * @param newFlavor The index of the flavor to insert.
+	 * @param row The row of the machine to replace. Will be modulated by size.
+	 * @param col The column of the machine to replace. Will be modulated by size.
+	 * @return A new FloorQuadSnapshot independent of the original, with one machine tweaked.
+	 */
+	public FloorQuadSnapshot replace(int newFlavor, int row, int col) {
+		if (newFlavor < 0 || newFlavor >= spec.flavors) {
+			throw new IllegalArgumentException("No such flavor on a " + spec + " floor: " + newFlavor);
 		}
+		//create a new array so we don't share the old one
+		final byte[] current = machines.clone();
 		//update that one machine that was requested to be different, modulating by size
-		current[row%SIZE][col%SIZE] = newMachine;
+		current[index(row, col)] = (byte)newFlavor;
 		//use the constructor to establish the exchangeSignature
-		return new FloorQuadSnapshot(current);
+		return new FloorQuadSnapshot(spec, current);
 	}
 	/**
 	 * Now that machines is private, we need a way to access it without modifying it.
+	 * Only works while the floor uses no more flavors than the Flavor enumeration has.
 	 * @param row The row of the machine to retrieve. Will be modulated by size.
 	 * @param col The column of the machine to retrieve. Will be modulated by size.
 	 */
 	public Flavor machine(int row, int col) {
-		return machines[row%SIZE][col%SIZE];
-	}
-	/**
-	 * Provides a value for machines such that the sum of the values for a quadrant is unique.
-	 * This uniqueness can be quantified by stating that two quadrants have the same total exchange value
-	 * if and only if they have the same number of each flavor of machine.
-	 * @param machine The flavor of machine to return the value for.
-	 * @return The exchange value of the given machine.
-	 */
-	private static int getExchangeValue(Flavor machine) {
-		//the formula for calculating what each machine is worth is:
-		//fill the floor solely with the next highest-valued machine, calculate the sum, and add one
-		//a good compiler will probably just substitute the actual values and avoid doing all that multiplication at runtime
-		switch(machine) {
-		case Blue:
-			//start with one rather than zero to prevent two different sizes of blue floors from having the same total exchange value
-			return 1;
-		case Green:
-			return (SIZE * SIZE) + 1;
-		case Red:
-			return (((SIZE * SIZE) + 1) * SIZE * SIZE) + 1;
-		default://Yellow
-			return (((((SIZE * SIZE) + 1) * SIZE * SIZE) + 1) * SIZE * SIZE) + 1;
-		}
+		return FLAVORS[machines[index(row, col)]];
 	}
 	/**
-	 * This method generates a flavor of machine.
-	 * @return A randomly selected flavor of machine.
+	 * Returns the flavor index of the machine at the given position.
+	 * @param row The row of the machine to retrieve. Will be modulated by size.
+	 * @param col The column of the machine to retrieve. Will be modulated by size.
 	 */
-	public static Flavor getRandomMachine() {
-		//using ThreadLocalRandom even though we don't expect this to be called during multi-threaded operation
-		int rand = ThreadLocalRandom.current().nextInt(4);
-		//this is currently set up for equal opportunity
-		//it could be changed later to provide different weightings
-		switch(rand) {
-		case 0:
-			return Flavor.Blue;
-		case 1:
-			return Flavor.Green;
-		case 2:
-			return Flavor.Red;
-		default:
-			return Flavor.Yellow;
-		}
+	public int flavor(int row, int col) {
+		return machines[index(row, col)];
+	}
+	/**
+	 * Converts a position into an index into machines, modulating by size.
+	 */
+	private int index(int row, int col) {
+		return ((row % spec.rows) * spec.cols) + (col % spec.cols);
+	}
+	/**
+	 * Returns how many machines of the given flavor index are on this floor.
+	 */
+	public int flavorCount(int flavor) {
+		return counts[flavor];
+	}
+	/**
+	 * Checks whether the given floor has exactly the same shape and bag of machines as this one.
+	 * Only floors that pass this check may be exchanged.
+	 */
+	public boolean isExchangeableWith(FloorQuadSnapshot other) {
+		return exchangeSignature == other.exchangeSignature && spec.equals(other.spec) && Arrays.equals(counts, other.counts);
+	}
+	/**
+	 * Copies the machines into the given array, which must be at least as long as the number of cells.
+	 */
+	void copyMachines(byte[] target) {
+		System.arraycopy(machines, 0, target, 0, machines.length);
 	}
 	/**
 	 * Calculates the benefit metric from scratch. This method uses the right and down affinities.
-	 * It assumes that either calculateAffinity(X, Y) is the same as calculateAffinity(Y, X)
+	 * It assumes that either the affinity model is symmetric
 	 * or that the benefit derived from a machine is based solely on the neighbors to the right and down.
 	 */
 	public static int calculateFullMetric(FloorQuadSnapshot floorQuad) {
+		return calculateRowsMetric(floorQuad.spec, floorQuad.machines, 0, floorQuad.spec.rows);
+	}
+	/**
+	 * Calculates the part of the benefit metric that belongs to a band of rows: the right affinities within those rows
+	 * and the down affinities from those rows, including the one from the last row of the band into the next band.
+	 * Summing this over bands that cover the floor without overlapping gives the full metric, so each seam between
+	 * bands is counted exactly once, by the band above it.
+	 * @param spec The shape and affinities of the floor.
+	 * @param machines The flavor indices of the floor, in row-major order.
+	 * @param fromRow The first row of the band.
+	 * @param toRow One past the last row of the band.
+	 */
+	static int calculateRowsMetric(FloorSpec spec, byte[] machines, int fromRow, int toRow) {
 		//start our running total
 		int metric = 0;
 		//this is purely for ease of programming
-		//the compiler will probably just substitute the actual value further down
-		final int edge = FloorQuadSnapshot.SIZE - 1;
-		//for every row, not including the bottom
-		for (int i = 0; i < edge; i++) {
-			//main affinities
-			//for each cell within the row, not including the rightmost
-			for (int j = 0; j < edge; j++) {
-				//vertical (down) affinity
-				metric += calculateAffinity(floorQuad.machines[i][j], floorQuad.machines[i+1][j]);
-				//horizontal (right) affinity
-				metric += calculateAffinity(floorQuad.machines[i][j], floorQuad.machines[i][j+1]);
+		final int rows = spec.rows;
+		final int cols = spec.cols;
+		//the affinity of machine m for neighbor n is at affinity[(m * flavors) + n]
+		final int[] affinity = spec.affinity.table;
+		final int flavors = spec.flavors;
+		//for every row in the band
+		for (int i = fromRow; i < toRow; i++) {
+			final int start = i * cols;
+			//for each cell within the row
+			for (int j = 0; j < cols; j++) {
+				final int index = start + j;
+				//vertical (down) affinity, except along the bottom edge
+				if (i + 1 < rows) metric += affinity[(machines[index] * flavors) + machines[index + cols]];
+				//horizontal (right) affinity, except along the right edge
+				if (j + 1 < cols) metric += affinity[(machines[index] * flavors) + machines[index + 1]];
 			}
-			
-			//edge affinities (take advantage of being square)
-			//right edge (down) affinity
-			metric += calculateAffinity(floorQuad.machines[i][edge], floorQuad.machines[i+1][edge]);
-			//bottom edge (right) affinity
-			metric += calculateAffinity(floorQuad.machines[edge][i], floorQuad.machines[edge][i+1]);
-			
 			//corner affinity - no benefit derived from the lower right machine itself, no matter what it is
 			//the neighbors will care about it, though
 		}
@@ -178,42 +276,79 @@ final class FloorQuadSnapshot {
 		return metric;
 	}
 	/**
-	 * This method calculates the affinity for two machines.
-	 * The order of the parameters now makes a difference.
-	 * Expected optimum: red and green checker board with blue edging and yellow low and/or on the right.
-	 * @param machine The machine whose affinity is being queried.
-	 * @param neighbor The machine the first machine is evaluating.
-	 * @return The affinity value.
-	 */
-	private static int calculateAffinity(Flavor machine, Flavor neighbor) {
-		//flat 10 for the same flavor
-		if (machine == neighbor) return 10;
-		//yellow's opinions - the weakest spread
-		else if (machine == Flavor.Yellow) {
-			if (neighbor == Flavor.Red) return -1;
-			else if (neighbor == Flavor.Green) return 8;
-			else if (neighbor == Flavor.Blue) return 1;
-		}
-		//red's opinions
-		else if (machine == Flavor.Red) {
-			if (neighbor == Flavor.Yellow) return -2;
-			else if (neighbor == Flavor.Green) return 50;
-			else if (neighbor == Flavor.Blue) return 25;
+	 * Calculates how much the benefit metric would change if the machines at the two given positions were swapped.
+	 * No new FloorQuadSnapshot is built and only the edges touching the two positions are examined,
+	 * so a rejected swap costs a handful of affinity lookups instead of a full rescan.
+	 * The positions must be within the floor; they are not modulated by size.
+	 * @param row1 The row of the first machine.
+	 * @param col1 The column of the first machine.
+	 * @param row2 The row of the second machine.
+	 * @param col2 The column of the second machine.
+	 * @return The metric of the swapped layout minus the metric of this layout.
+	 */
+	public int swapDelta(int row1, int col1, int row2, int col2) {
+		final int cols = spec.cols;
+		final int first = (row1 * cols) + col1;
+		final int second = (row2 * cols) + col2;
+		//swapping two machines of the same flavor (or a machine with itself) changes nothing
+		if (machines[first] == machines[second]) return 0;
+		//sum the edges around both positions before and after the swap
+		int before = localAffinity(row1, col1, false, first, second)
+				+ localAffinity(row2, col2, false, first, second);
+		int after = localAffinity(row1, col1, true, first, second)
+				+ localAffinity(row2, col2, true, first, second);
+		//adjacent positions share an edge, which was counted once from each side
+		if (row1 == row2 && Math.abs(col1 - col2) == 1) {
+			//horizontal neighbors - the left one is the machine doing the evaluating
+			final int left = Math.min(first, second);
+			before -= affinity(machines[left], machines[left+1]);
+			after -= affinity(machines[left+1], machines[left]);
 		}
-		//green's opinions - the strongest spread
-		else if (machine == Flavor.Green) {
-			if (neighbor == Flavor.Yellow) return 21;
-			else if (neighbor == Flavor.Red) return 50;
-			else if (neighbor == Flavor.Blue) return 20;
+		else if (col1 == col2 && Math.abs(row1 - row2) == 1) {
+			//vertical neighbors - the upper one is the machine doing the evaluating
+			final int up = Math.min(first, second);
+			before -= affinity(machines[up], machines[up+cols]);
+			after -= affinity(machines[up+cols], machines[up]);
 		}
-		//blue's opinions
-		else if (machine == Flavor.Blue) {
-			if (neighbor == Flavor.Yellow) return 11;
-			else if (neighbor == Flavor.Red) return 5;
-			else if (neighbor == Flavor.Green) return 20;
+		return after - before;
+	}
+	/**
+	 * Sums the affinities of the up to four edges touching the given cell, following the same
+	 * right and down convention as calculateFullMetric().
+	 * @param row The row of the cell.
+	 * @param col The column of the cell.
+	 * @param swapped If true, the machines at the two swap indices are read as if they had been exchanged.
+	 */
+	private int localAffinity(int row, int col, boolean swapped, int first, int second) {
+		final int cols = spec.cols;
+		final int index = (row * cols) + col;
+		final int center = swappedMachine(index, swapped, first, second);
+		int total = 0;
+		//the cell above evaluates this one
+		if (row > 0) total += affinity(swappedMachine(index - cols, swapped, first, second), center);
+		//this cell evaluates the one below
+		if (row + 1 < spec.rows) total += affinity(center, swappedMachine(index + cols, swapped, first, second));
+		//the cell to the left evaluates this one
+		if (col > 0) total += affinity(swappedMachine(index - 1, swapped, first, second), center);
+		//this cell evaluates the one to the right
+		if (col + 1 < cols) total += affinity(center, swappedMachine(index + 1, swapped, first, second));
+		return total;
+	}
+	/**
+	 * Looks up the affinity of the machine for its neighbor in this floor's affinity model.
+	 */
+	private int affinity(int machine, int neighbor) {
+		return spec.affinity.table[(machine * spec.flavors) + neighbor];
+	}
+	/**
+	 * Reads a machine, optionally pretending that the machines at the two swap indices have been exchanged.
+	 */
+	private int swappedMachine(int index, boolean swapped, int first, int second) {
+		if (swapped) {
+			if (index == first) return machines[second];
+			if (index == second) return machines[first];
 		}
-		//this should never be reached, but it exists in case Flavor gets modified
-		return 0;
+		return machines[index];
 	}
 
 }
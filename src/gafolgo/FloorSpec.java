@@ -0,0 +1,84 @@
+package gafolgo;
+
+/**
+ * @author Benjamin Groman
+ * This class describes the shape of a floor: how many rows and columns it has and how many flavors of machine can be on it.
+ * It also carries the affinity model used to score the floor.
+ * Floors with different specs can never be exchanged, since they are different problems.
+ */
+final class FloorSpec {
+	/**
+	 * The largest number of flavors supported, since each machine is stored in a single byte.
+	 */
+	static final int MAX_FLAVORS = Byte.MAX_VALUE;
+	/**
+	 * The original problem: a square floor of the default size with one of each Flavor and the default affinities.
+	 */
+	static final FloorSpec DEFAULT = new FloorSpec(FloorQuadSnapshot.SIZE, FloorQuadSnapshot.SIZE, AffinityModel.DEFAULT);
+	/**
+	 * The number of rows on the floor.
+	 */
+	final int rows;
+	/**
+	 * The number of columns on the floor.
+	 */
+	final int cols;
+	/**
+	 * The number of flavors of machine. Flavors are identified by their index, starting at zero.
+	 * The first few line up with the ordinals of the Flavor enumeration.
+	 */
+	final int flavors;
+	/**
+	 * How much each flavor likes each other flavor. Covers exactly the flavors of this spec.
+	 */
+	final AffinityModel affinity;
+
+	/**
+	 * Creates a spec with the given dimensions and the default affinities for that many flavors.
+	 * Fails if any of them are out of range.
+	 */
+	FloorSpec(int rows, int cols, int flavors) {
+		this(rows, cols, AffinityModel.defaultFor(flavors));
+	}
+	/**
+	 * Creates a spec with the given dimensions, taking the number of flavors from the affinity model.
+	 * Fails if the dimensions are out of range.
+	 */
+	FloorSpec(int rows, int cols, AffinityModel affinity) {
+		final int flavors = affinity.flavors;
+		if (rows < 1 || cols < 1) {
+			throw new IllegalArgumentException("Floor must have at least one row and column: " + rows + "x" + cols);
+		}
+		//the flat arrays are indexed with an int
+		if ((long)rows * cols > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Floor is too large: " + rows + "x" + cols);
+		}
+		//the flavor count was already checked by the affinity model
+		this.rows = rows;
+		this.cols = cols;
+		this.flavors = flavors;
+		this.affinity = affinity;
+	}
+	/**
+	 * Returns the number of machines on the floor.
+	 */
+	int cells() {
+		return rows * cols;
+	}
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) return true;
+		if (!(other instanceof FloorSpec)) return false;
+		final FloorSpec spec = (FloorSpec)other;
+		return rows == spec.rows && cols == spec.cols && flavors == spec.flavors && affinity.equals(spec.affinity);
+	}
+	@Override
+	public int hashCode() {
+		return (((rows * 31) + cols) * 31) + flavors;
+	}
+	@Override
+	public String toString() {
+		return rows + "x" + cols + "/" + flavors;
+	}
+
+}
@@ -7,8 +7,12 @@ package gafolgo;
 
 import java.awt.GridLayout;
 import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.swing.JFrame;
+import javax.swing.Timer;
 
 /**
  * @author Benjamin Groman
@@ -20,35 +24,99 @@ public class Gafolgo {
 	 */
 	private static JFrame myFrame;
 	/**
-	 * The number of threads to use for the algorithm. 32 was the minimum.
+	 * Keeps the panels up to date. Exists here so the main thread can stop it.
 	 */
-	private static final int numThreads = 64;
+	private static RenderScheduler renderer;
+	/**
+	 * Shows the overall best in the window title. Exists here so the main thread can stop it.
+	 */
+	private static Timer titleTimer;
 	/**
 	 * The main function handles launching floor manager threads and prints the best results found,
 	 * unless the GUI terminates the program before the command line does.
-	 * @param args not used.
+	 * With --headless, no window is opened and the best layout is printed once the budget runs out.
+	 * With --jobs, a whole stream of headless runs is worked through instead.
+	 * @param args the options described by RunOptions.USAGE.
 	 */
 	public static void main(String[] args) {
-		//declare the array
-		final FloorManager[] fms = new FloorManager[numThreads];
-		//establish an initial floor layout (random because the constructor is random)
-		final FloorQuadSnapshot startingFloor = new FloorQuadSnapshot();
-		//have to use an indexed loop so that the actual array gets initialized
-		//a foreach loop would simply update the temporary variable
-		for (int i = 0; i < fms.length; i++) {
-			//initialize the floor manager
-			fms[i] = new FloorManager(startingFloor);
+		final RunOptions options;
+		try {
+			options = RunOptions.parse(args);
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(RunOptions.USAGE);
+			System.exit(2);
+			return;
+		}
+		if (options.help) {
+			System.out.println(RunOptions.USAGE);
+			return;
+		}
+		if (options.jobs != null) {
+			try {
+				JobRunner.run(args, options, System.out);
+			}
+			catch (IOException e) {
+				System.err.println("Could not read jobs: " + e.getMessage());
+				System.exit(1);
+			}
+			catch (InterruptedException e) {
+				//nothing left to do but leave
+				Thread.currentThread().interrupt();
+			}
+			return;
+		}
+		//opened before anything starts, so a bad path is reported right away
+		final Checkpoint checkpoint;
+		try {
+			checkpoint = options.checkpoint != null ? new Checkpoint(options.checkpoint, options.spec, options.threads) : null;
+		}
+		catch (IOException e) {
+			System.err.println("Could not create checkpoint: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		//likewise a port that is already taken
+		final PeerNetwork network;
+		try {
+			network = options.openNetwork();
+		}
+		catch (IOException e) {
+			System.err.println("Could not listen on port " + options.listenPort + ": " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		if (options.headless) {
+			try {
+				HeadlessRunner.run(options, checkpoint, network, System.out);
+			}
+			catch (InterruptedException e) {
+				//nothing left to do but leave
+				Thread.currentThread().interrupt();
+			}
+			return;
+		}
+		//everyone publishes their improvements here, so the window can show the overall best as it happens
+		final BestRegistry registry = options.createRegistry();
+		final FitnessCache cache = options.createCache();
+		final SearchTelemetry telemetry = options.createTelemetry(registry, cache);
+		//declare and fill the array
+		final SearchWorker[] fms = createManagers(options, checkpoint, network, registry, telemetry, cache);
+		for (SearchWorker fm : fms) {
 			//print the metric. This line should print the same thing for every iteration of the loop
-			System.out.println(fms[i].getBestMetric());
+			System.out.println(fm.getBestMetric());
 		}
 		
 		//set up the GUI with the floor managers
-		initializeGUI(fms);
+		initializeGUI(fms, registry);
 		
-		//start the threads
-		for (FloorManager fm : fms) {
-			fm.start();
-		}
+		//start the workers, on their own threads or on a pool
+		final WorkerGroup group = options.createGroup(fms);
+		//keep the search to its share of the machine, parking the workers it has no room for before they start
+		final LoadController controller = options.createController(fms);
+		if (controller != null) controller.start();
+		group.start();
 		//wait for user input to terminate
 		try {
 			//any input will do, we don't care about the result
@@ -60,47 +128,191 @@ public class Gafolgo {
 		}
 		//ensure this stuff gets run
 		finally {
-			//interrupt all the threads, which will cause them to terminate
-			//since they are daemons, we can afford for the interrupt to fail to terminate any given thread
-			for (FloorManager fm : fms) {
-				fm.interrupt();
+			//let any parked workers go, then cancel all the workers, which will cause them to terminate
+			//since their threads are daemons, we can afford for any given worker to fail to terminate
+			if (controller != null) controller.close();
+			group.stop();
+			//the last checkpoint and counters have to wait for everyone to actually stop
+			try {
+				group.join();
+				closeCheckpoint(checkpoint, fms);
+				closeNetwork(network);
+				telemetry.close();
+			}
+			catch (InterruptedException e) {
+				//give up on the final save, the periodic ones are still there
+				Thread.currentThread().interrupt();
 			}
 			//close the GUI
+			renderer.stop();
+			titleTimer.stop();
 			myFrame.dispose();
 			//print the current and best metrics found by each thread
 			//provides a means of determining that the best metric is being properly tracked
-			for (FloorManager fm : fms) {
+			for (SearchWorker fm : fms) {
 				System.out.println(fm.getLastMetric() + " <= " + fm.getBestMetric());
 			}
+			final BestRegistry.Best best = registry.get();
+			System.out.println("best: " + best.metric + " (thread " + best.worker + ")");
+			saveBest(options, best.layout);
+		}
+	}
+	/**
+	 * Creates the workers for a run, all starting from the same floor and sharing one migration (or one tiled floor).
+	 * When resuming, each worker starts from its own saved state instead.
+	 * @param options The settings for the run.
+	 * @param checkpoint Where the workers save their state, or null for nowhere.
+	 * @param network How layouts reach other processes, or null to keep them within this one.
+	 * @param registry Where the workers publish their improvements.
+	 * @param telemetry Where the workers count what they do.
+	 * @param cache Where the workers remember the metrics of layouts they score from scratch, or null.
+	 * @return The workers, not yet started.
+	 */
+	static SearchWorker[] createManagers(RunOptions options, Checkpoint checkpoint, PeerNetwork network,
+			BestRegistry registry, SearchTelemetry telemetry, FitnessCache cache) {
+		//establish an initial floor layout (random because the constructor is random, unless a seed was given)
+		final long seed = options.seed != null ? options.seed : ThreadLocalRandom.current().nextLong();
+		final SplittableRandom random = new SplittableRandom(seed);
+		final FloorQuadSnapshot startingFloor = options.resume != null
+				? options.resume[0].current
+				: options.layout != null ? options.layout : new FloorQuadSnapshot(options.spec, random);
+		//nothing can beat the upper bound, so there's no point searching once it (or close enough) is reached,
+		//unless the run has to be repeatable: whichever thread reaches it first would stop the others at different iterations
+		if (!options.deterministic) registry.lowerTarget(options.boundTarget(FloorBound.upperBound(startingFloor)));
+		final Migration migration = options.createMigration(seed, network);
+		//processes trading with each other share the seed so they start from the same machines,
+		//but they shouldn't all make the same moves, so each one salts its workers' seeds
+		final long salt = network != null ? ThreadLocalRandom.current().nextLong() : 0;
+		final SearchWorker[] fms = new SearchWorker[options.threads];
+		//the tiled engine has everyone working on one shared floor
+		final TiledFloor tiles = options.engine.equals("tiled")
+				? new TiledFloor(startingFloor, options.bandRows(), ForkJoinPool.commonPool())
+				: null;
+		//have to use an indexed loop so that the actual array gets initialized
+		//a foreach loop would simply update the temporary variable
+		for (int i = 0; i < fms.length; i++) {
+			//a resumed worker picks up its own layout where it left off
+			FloorQuadSnapshot start = options.resume != null ? options.resume[i].current : startingFloor;
+			//restarting climbers are after as many basins as they can find, so they don't all start in the same one
+			if (options.restart != null && options.resume == null && i > 0 && options.engine.equals("climb")) {
+				start = GeneticManager.shuffle(startingFloor, random);
+			}
+			//initialize the floor manager or genetic manager
+			if (tiles != null) {
+				fms[i] = new TiledManager(tiles, startingFloor, options.createPolicy(i), i);
+			}
+			else if (options.engine.equals("genetic")) {
+				fms[i] = new GeneticManager(start, options.population, options.tournament, options.elite,
+						options.mutationSwaps, migration, i);
+			}
+			else {
+				final FloorManager fm = new FloorManager(start, migration, i, options.createPolicy(i));
+				fm.setBatch(options.batch, options.batchFirst);
+				fm.setMoves(options.createMoves());
+				fm.setRestarts(options.createRestarts());
+				fms[i] = fm;
+			}
+			fms[i].setIterationLimit(options.iterationLimit);
+			fms[i].setTarget(options.target);
+			fms[i].setSeed(random.nextLong() ^ salt);
+			if (checkpoint != null) fms[i].setCheckpoint(checkpoint, options.checkpointInterval);
+			if (options.resume != null) fms[i].restore(options.resume[i]);
+			fms[i].setRegistry(registry);
+			fms[i].setTelemetry(telemetry);
+			fms[i].setCache(cache);
+		}
+		if (checkpoint != null) {
+			//the file was just truncated, so put something complete in it before anything else can go wrong
+			for (SearchWorker fm : fms) {
+				fm.saveCheckpoint();
+			}
+			checkpoint.flush();
+		}
+		return fms;
+	}
+	/**
+	 * Saves every worker's final state and closes the checkpoint.
+	 * Precondition: every worker has stopped.
+	 * @param checkpoint The checkpoint to close, or null to do nothing.
+	 * @param fms The workers whose state is saved.
+	 */
+	static void closeCheckpoint(Checkpoint checkpoint, SearchWorker[] fms) {
+		if (checkpoint == null) return;
+		for (SearchWorker fm : fms) {
+			fm.saveCheckpoint();
+		}
+		try {
+			checkpoint.close();
+		}
+		catch (IOException e) {
+			System.err.println("Could not close checkpoint: " + e.getMessage());
+		}
+	}
+	/**
+	 * Writes the best layout where --save-best asked for it, if it did.
+	 * @param options The settings for the run.
+	 * @param best The best layout of the run.
+	 */
+	static void saveBest(RunOptions options, FloorQuadSnapshot best) {
+		if (options.saveBest == null) return;
+		try {
+			LayoutIO.write(best, options.saveBest);
+		}
+		catch (IOException e) {
+			System.err.println("Could not save the best layout: " + e.getMessage());
+		}
+	}
+	/**
+	 * Disconnects from the other processes of a distributed run.
+	 * @param network The network to close, or null to do nothing.
+	 */
+	static void closeNetwork(PeerNetwork network) {
+		if (network == null) return;
+		try {
+			network.close();
+		}
+		catch (IOException e) {
+			System.err.println("Could not close the migration network: " + e.getMessage());
 		}
 	}
 	/**
 	 * Creates the GUI so progress can be seen.
 	 * Precondition: the calling thread is the only thread currently running.
 	 * @param fms The set of floor managers whose statuses need to be displayed.
+	 * @param registry Where to read the overall best for the title bar.
 	 */
-	private static void initializeGUI(FloorManager[] fms) {
+	private static void initializeGUI(SearchWorker[] fms, BestRegistry registry) {
 		//new window with title
 		myFrame = new JFrame("Gafolgo");
 		//make sure closing the GUI terminates the whole program
 		myFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		//create a floor panel for each floor manager with the best layout and metric,
+		//which should be the same as the working layout and metric
+		final FloorPanel[] panels = new FloorPanel[fms.length];
+		for (int i = 0; i < fms.length; i++) {
+			panels[i] = new FloorPanel(fms[i].getBestLayout(), fms[i].getBestMetric());
+		}
 		//calculate a reasonably optimal number of rows for the given number of threads
 		//try to make a square, but explicitly round down because the floor panels are vertically-oriented
-		//cap at (64 / (FloorPanel.SIZE + 1)) because that's the approximate max my screen can handle without squeezing the tags 
-		final int rows = (int)Math.min((64 / (FloorPanel.SIZE + 1)), Math.floor(Math.sqrt(numThreads)));
+		//cap at about 900 pixels of panels because that's the approximate max my screen can handle
+		//always allow at least one row, even when the floors are huge
+		final int panelHeight = panels[0].getPreferredSize().height;
+		final int rows = (int)Math.max(1, Math.min((900 / panelHeight), Math.floor(Math.sqrt(fms.length))));
 		//create a layout with the number of rows from above, any number of columns, 20 pixels horizontal gap, and no vertical gap
 		myFrame.setLayout(new GridLayout(rows, 0, 20, 0));
-		
-		//for each floor manager
-		for (FloorManager fm : fms) {
-			//create a floor panel with the best layout and metric,
-			//which should be the same as the working layout and metric
-			FloorPanel panel = new FloorPanel(fm.getBestLayout(), fm.getBestMetric());
+		for (FloorPanel panel : panels) {
 			//add the panel to the frame
 			myFrame.getContentPane().add(panel);
-			//make sure the floor manager knows which panel to update
-			fm.setPanel(panel);
 		}
+		//one timer brings every panel up to date with what its floor manager last published
+		renderer = new RenderScheduler(fms, panels);
+		renderer.start();
+		//show the overall best in the title, read without stopping anybody
+		titleTimer = new Timer(1000, event -> {
+			final BestRegistry.Best best = registry.get();
+			myFrame.setTitle("Gafolgo - best " + best.metric + " (thread " + best.worker + ")");
+		});
+		titleTimer.start();
 		//ensure the window shows everything without excess space
 		myFrame.pack();
 		//show the window
@@ -0,0 +1,365 @@
+package gafolgo;
+
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * This class runs an actual genetic algorithm on its own population of floors,
+ * as an alternative to the single-floor hill climbing in FloorManager.
+ * Every child keeps the same bag of machines as its parents, so any member of the population
+ * can still be exchanged with the other threads.
+ */
+public class GeneticManager extends SearchWorker {
+	/**
+	 * The chance that a child comes from crossover rather than being a copy of its first parent.
+	 */
+	private static final double CROSSOVER_RATE = 0.9;
+	/**
+	 * The current generation.
+	 */
+	private FloorQuadSnapshot[] population;
+	/**
+	 * The metric of each member of the current generation.
+	 */
+	private int[] fitness;
+	/**
+	 * Where the next generation is assembled, swapped with population after every generation.
+	 */
+	private FloorQuadSnapshot[] offspring;
+	/**
+	 * The metric of each member of the next generation.
+	 */
+	private int[] offspringFitness;
+	/**
+	 * Which members of the next generation are their mother plus mutation swaps, so that their hash follows
+	 * from hers without a pass over the floor. Only those are looked up in the fitness cache; hashing a child
+	 * from scratch costs about as much as scoring it.
+	 */
+	private final boolean[] cloned;
+	/**
+	 * How many members are compared in each tournament.
+	 */
+	private final int tournament;
+	/**
+	 * How many of the best members are carried over unchanged to the next generation.
+	 */
+	private final int elite;
+	/**
+	 * How many random swaps are applied to every child.
+	 */
+	private final int mutationSwaps;
+	/**
+	 * The Zobrist hash of the last layout received through migration, so the same one isn't taken in twice.
+	 */
+	private long lastMigrant = 0;
+	/**
+	 * Seeded from the worker's seed when the search begins.
+	 */
+	private SplittableRandom rand;
+	/**
+	 * The number of generations bred so far, which is what the migration counts by.
+	 */
+	private long generation = 0;
+	/**
+	 * Scratch space for counting machines during crossover repair.
+	 */
+	private final int[] counts;
+
+	/**
+	 * Creates a genetic manager whose population is the starting floor plus shuffles of it.
+	 * @param start The starting layout. Every member of the population has its bag of machines.
+	 * @param populationSize The number of members in each generation. Must be at least two.
+	 * @param tournament How many members are compared in each tournament. Must be at least one.
+	 * @param elite How many of the best members survive unchanged. Must be less than the population size.
+	 * @param mutationSwaps How many random swaps are applied to every child.
+	 * @param migration How to trade layouts with the other threads.
+	 * @param island This thread's index among the islands of the migration.
+	 */
+	GeneticManager(FloorQuadSnapshot start, int populationSize, int tournament, int elite, int mutationSwaps,
+			Migration migration, int island) {
+		super(start, FloorQuadSnapshot.calculateFullMetric(start), migration, island);
+		if (populationSize < 2) throw new IllegalArgumentException("Population must be at least 2: " + populationSize);
+		if (tournament < 1) throw new IllegalArgumentException("Tournament must be at least 1: " + tournament);
+		if (elite < 0 || elite >= populationSize) {
+			throw new IllegalArgumentException("Elite count must be between 0 and " + (populationSize - 1) + ": " + elite);
+		}
+		this.tournament = tournament;
+		this.elite = elite;
+		this.mutationSwaps = mutationSwaps;
+		counts = new int[start.spec.flavors];
+		population = new FloorQuadSnapshot[populationSize];
+		fitness = new int[populationSize];
+		offspring = new FloorQuadSnapshot[populationSize];
+		offspringFitness = new int[populationSize];
+		cloned = new boolean[populationSize];
+		//every member is the starting floor until the search begins and the rest are shuffled
+		for (int i = 0; i < populationSize; i++) {
+			population[i] = start;
+			fitness[i] = bestMetric;
+		}
+	}
+
+	/**
+	 * Seeds the random number generator, so a checkpoint can record where the random choices came from,
+	 * and fills the population.
+	 */
+	@Override
+	void begin() {
+		rand = new SplittableRandom(seed);
+		//the starting floor is the first member, the rest are random arrangements of the same machines
+		//shuffled here rather than in the constructor, so they come from this worker's seed
+		for (int i = 1; i < population.length; i++) {
+			population[i] = shuffle(population[0], rand);
+		}
+		evaluate(population, fitness, 1);
+		recordBest(population, fitness);
+	}
+	/**
+	 * One generation of the main loop of the genetic algorithm.
+	 * 1) Carry the elite over.
+	 * 2) Fill the rest of the next generation with mutated children of tournament winners.
+	 * 3) Score all the children at once.
+	 * 4) Trade the best member with another worker when the migration says so; a newcomer replaces the worst member.
+	 * 5) Publish the best member for the GUI about ten times a second, if anyone is watching.
+	 * 6) Go back to 1 unless cancelled, out of iterations, or on target. (The loop is in SearchWorker.)
+	 * Every child counts as one iteration.
+	 */
+	@Override
+	void step() {
+		//1 elitism
+		final int[] order = rank(fitness);
+		for (int i = 0; i < elite; i++) {
+			offspring[i] = population[order[i]];
+			offspringFitness[i] = fitness[order[i]];
+		}
+		//2 breed the rest
+		for (int i = elite; i < offspring.length; i++) {
+			final FloorQuadSnapshot mother = population[select(rand)];
+			final FloorQuadSnapshot father = population[select(rand)];
+			final byte[] child = new byte[mother.spec.cells()];
+			if (rand.nextDouble() < CROSSOVER_RATE) {
+				crossover(mother, father, child, rand);
+				mutate(child, 0, rand);
+				offspring[i] = new FloorQuadSnapshot(mother.spec, child);
+				cloned[i] = false;
+			}
+			else {
+				mother.copyMachines(child);
+				//only worth it if there is somewhere to look the hash up, and the mother's hash is already known
+				if (cache != null && mother.hasZobristHash()) {
+					offspring[i] = new FloorQuadSnapshot(mother.spec, child, mutate(child, mother.zobristHash(), rand));
+					cloned[i] = true;
+				}
+				else {
+					mutate(child, 0, rand);
+					offspring[i] = new FloorQuadSnapshot(mother.spec, child);
+					cloned[i] = false;
+				}
+			}
+		}
+		//3 batch evaluation of everyone who isn't an elite
+		evaluateOffspring();
+		iterations += offspring.length - elite;
+		//the new generation replaces the old one, and the old arrays are reused next time
+		final FloorQuadSnapshot[] tempPopulation = population;
+		population = offspring;
+		offspring = tempPopulation;
+		final int[] tempFitness = fitness;
+		fitness = offspringFitness;
+		offspringFitness = tempFitness;
+		recordBest(population, fitness);
+		//4 migration
+		if (migration.isDue(generation, rand)) {
+			migrate(rand);
+		}
+		//5 publish the best member for the GUI
+		if (isPublishDue()) {
+			publish(bestFloor, bestMetric);
+		}
+		generation++;
+		housekeeping();
+	}
+	/**
+	 * Trades the best layout for one from another island, replacing the worst member if it is new and compatible.
+	 */
+	private void migrate(RandomGenerator rand) {
+		try {
+			final long waitStart = System.nanoTime();
+			final FloorQuadSnapshot offer = migration.migrate(island, bestFloor, rand);
+			final boolean exchangeable = offer != null && offer.isExchangeableWith(bestFloor);
+			countExchange(System.nanoTime() - waitStart, offer, !exchangeable);
+			//a neighbor's best can be the very layout that is already our best, and then it adds nothing
+			if (exchangeable && offer.zobristHash() != lastMigrant && offer.zobristHash() != bestFloor.zobristHash()) {
+				lastMigrant = offer.zobristHash();
+				int worst = 0;
+				for (int i = 1; i < fitness.length; i++) {
+					if (fitness[i] < fitness[worst]) worst = i;
+				}
+				population[worst] = offer;
+				fitness[worst] = evaluate(offer);
+				recordBest(population, fitness);
+			}
+		}
+		catch (InterruptedException e) {
+			//make sure we properly terminate the loop
+			cancel();
+		}
+	}
+	/**
+	 * Scores every child of the next generation, looking the clones up in the fitness cache.
+	 */
+	private void evaluateOffspring() {
+		for (int i = elite; i < offspring.length; i++) {
+			offspringFitness[i] = cloned[i] ? evaluate(offspring[i]) : FloorQuadSnapshot.calculateFullMetric(offspring[i]);
+		}
+	}
+	/**
+	 * Scores every member from the given index onward, in one tight loop.
+	 */
+	private static void evaluate(FloorQuadSnapshot[] members, int[] scores, int from) {
+		for (int i = from; i < members.length; i++) {
+			scores[i] = FloorQuadSnapshot.calculateFullMetric(members[i]);
+		}
+	}
+	/**
+	 * Keeps the best state up to date with the given generation.
+	 */
+	private void recordBest(FloorQuadSnapshot[] members, int[] scores) {
+		for (int i = 0; i < members.length; i++) {
+			if (scores[i] > bestMetric) {
+				improved(members[i], scores[i]);
+			}
+		}
+	}
+	/**
+	 * Returns the indices of the members ordered from best to worst.
+	 * Only the first elite positions are guaranteed to be in order, which is all that's needed.
+	 */
+	private int[] rank(int[] scores) {
+		final int[] order = new int[scores.length];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		//partial selection sort, since the elite is usually tiny
+		for (int i = 0; i < elite; i++) {
+			int best = i;
+			for (int j = i + 1; j < order.length; j++) {
+				if (scores[order[j]] > scores[order[best]]) best = j;
+			}
+			final int temp = order[i];
+			order[i] = order[best];
+			order[best] = temp;
+		}
+		return order;
+	}
+	/**
+	 * Picks a member by tournament: the best of a few picked at random.
+	 * @return The index of the winner.
+	 */
+	private int select(RandomGenerator rand) {
+		int winner = rand.nextInt(population.length);
+		for (int i = 1; i < tournament; i++) {
+			final int challenger = rand.nextInt(population.length);
+			if (fitness[challenger] > fitness[winner]) winner = challenger;
+		}
+		return winner;
+	}
+	/**
+	 * Block crossover with repair. The child takes a random rectangle from the mother and everything else
+	 * from the father. That usually leaves some flavors over-represented and others short, so machines
+	 * outside the rectangle whose flavor is in surplus are replaced with short flavors until the counts match.
+	 * The rectangle is left alone, so the mother's block survives intact.
+	 * @param mother The parent that contributes the block.
+	 * @param father The parent that contributes the rest. Must have the same bag of machines as the mother.
+	 * @param child Where the child is written.
+	 */
+	private void crossover(FloorQuadSnapshot mother, FloorQuadSnapshot father, byte[] child, RandomGenerator rand) {
+		final int rows = mother.spec.rows;
+		final int cols = mother.spec.cols;
+		//pick the rectangle [top, bottom) x [left, right)
+		final int top = rand.nextInt(rows);
+		final int bottom = top + 1 + rand.nextInt(rows - top);
+		final int left = rand.nextInt(cols);
+		final int right = left + 1 + rand.nextInt(cols - left);
+		father.copyMachines(child);
+		//counts[f] ends up as (machines of f in the child) - (machines of f in a parent)
+		for (int f = 0; f < counts.length; f++) counts[f] = 0;
+		for (int row = top; row < bottom; row++) {
+			for (int col = left; col < right; col++) {
+				final int index = (row * cols) + col;
+				counts[child[index]]--;
+				child[index] = (byte)mother.flavor(row, col);
+				counts[child[index]]++;
+			}
+		}
+		//walk the cells outside the rectangle from a random start, trading surplus flavors for short ones
+		//there are always enough surplus machines outside the block, since the block came from a parent with the same bag
+		final int cells = child.length;
+		final int offset = rand.nextInt(cells);
+		int shortFlavor = 0;
+		for (int step = 0; step < cells; step++) {
+			final int index = (offset + step) % cells;
+			final int row = index / cols;
+			final int col = index % cols;
+			if (row >= top && row < bottom && col >= left && col < right) continue;
+			if (counts[child[index]] > 0) {
+				//find a flavor that is still short
+				while (shortFlavor < counts.length && counts[shortFlavor] >= 0) shortFlavor++;
+				//nothing is short, so nothing is in surplus either
+				if (shortFlavor == counts.length) break;
+				counts[child[index]]--;
+				child[index] = (byte)shortFlavor;
+				counts[shortFlavor]++;
+			}
+		}
+	}
+	/**
+	 * Applies the configured number of random swaps to a child, keeping its Zobrist hash up to date.
+	 * @param hash The hash of the child before the swaps. Meaningless in, meaningless out.
+	 * @return The hash of the child after the swaps.
+	 */
+	private long mutate(byte[] child, long hash, RandomGenerator rand) {
+		for (int i = 0; i < mutationSwaps; i++) {
+			final int first = rand.nextInt(child.length);
+			final int second = rand.nextInt(child.length);
+			final byte a = child[first];
+			final byte b = child[second];
+			if (a == b) continue;
+			hash ^= FloorQuadSnapshot.zobristKey(first, a) ^ FloorQuadSnapshot.zobristKey(first, b)
+					^ FloorQuadSnapshot.zobristKey(second, b) ^ FloorQuadSnapshot.zobristKey(second, a);
+			child[first] = b;
+			child[second] = a;
+		}
+		return hash;
+	}
+	/**
+	 * Produces a random arrangement of the same machines as the given floor.
+	 */
+	static FloorQuadSnapshot shuffle(FloorQuadSnapshot floor, RandomGenerator rand) {
+		final byte[] machines = new byte[floor.spec.cells()];
+		floor.copyMachines(machines);
+		//Fisher-Yates
+		for (int i = machines.length - 1; i > 0; i--) {
+			final int j = rand.nextInt(i + 1);
+			final byte temp = machines[i];
+			machines[i] = machines[j];
+			machines[j] = temp;
+		}
+		return new FloorQuadSnapshot(floor.spec, machines);
+	}
+	@Override
+	public int getLastMetric() {
+		//the population doesn't have a single current layout, so report its best
+		int best = fitness[0];
+		for (int score : fitness) best = Math.max(best, score);
+		return best;
+	}
+	@Override
+	public FloorQuadSnapshot getLastLayout() {
+		int best = 0;
+		for (int i = 1; i < fitness.length; i++) {
+			if (fitness[i] > fitness[best]) best = i;
+		}
+		return population[best];
+	}
+
+}
@@ -0,0 +1,197 @@
+package gafolgo;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * @author Benjamin Groman
+ * This class runs the floor managers without a GUI until their budget runs out,
+ * then prints the best layout found in a machine-readable form, along with how far it might be from optimal.
+ */
+final class HeadlessRunner {
+	/**
+	 * How often the main thread checks whether the run is over, in milliseconds.
+	 */
+	private static final long POLL_INTERVAL = 10;
+
+	/**
+	 * What a headless run found.
+	 */
+	static final class Result {
+		/**
+		 * The best layout, and the worker that found it (-1 for the exact solver).
+		 */
+		final BestRegistry.Best best;
+		/**
+		 * An upper bound on the metric, which is the optimum if the exact solver finished.
+		 */
+		final int bound;
+		/**
+		 * The iterations run by every worker together.
+		 */
+		final long iterations;
+		/**
+		 * How long the run took, in milliseconds.
+		 */
+		final long elapsed;
+
+		Result(BestRegistry.Best best, int bound, long iterations, long elapsed) {
+			this.best = best;
+			this.bound = bound;
+			this.iterations = iterations;
+			this.elapsed = elapsed;
+		}
+	}
+
+	/**
+	 * This class is never instantiated.
+	 */
+	private HeadlessRunner() {
+	}
+	/**
+	 * Runs the search described by the options and prints the result.
+	 * @param options The settings for the run. Must have at least one budget or target.
+	 * @param checkpoint Where the workers save their state, or null for nowhere. Closed once the run is over.
+	 * @param network How layouts reach other processes, or null to keep them within this one. Closed once the run is over.
+	 * @param out Where to print the result.
+	 * @throws InterruptedException If the main thread is interrupted while waiting.
+	 */
+	static void run(RunOptions options, Checkpoint checkpoint, PeerNetwork network, PrintStream out) throws InterruptedException {
+		final Result result = search(options, checkpoint, network, options::createGroup);
+		if (options.format.equals("csv")) {
+			out.println(csvHeader(false));
+			out.println(csvRecord(options, result, -1));
+		}
+		else {
+			out.println(json(options, result, -1));
+		}
+		out.flush();
+	}
+	/**
+	 * Runs the search described by the options until its budget runs out, on the calling thread's watch.
+	 * @param options The settings for the run. Must have at least one budget or target.
+	 * @param checkpoint Where the workers save their state, or null for nowhere. Closed once the run is over.
+	 * @param network How layouts reach other processes, or null to keep them within this one. Closed once the run is over.
+	 * @param groups Builds the group that runs the workers.
+	 * @return The best layout found and how good it is.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting.
+	 */
+	static Result search(RunOptions options, Checkpoint checkpoint, PeerNetwork network,
+			Function<SearchWorker[], WorkerGroup> groups) throws InterruptedException {
+		final BestRegistry registry = options.createRegistry();
+		final FitnessCache cache = options.createCache();
+		final SearchTelemetry telemetry = options.createTelemetry(registry, cache);
+		final SearchWorker[] fms = Gafolgo.createManagers(options, checkpoint, network, registry, telemetry, cache);
+		for (SearchWorker fm : fms) {
+			//nobody is watching, so there's no reason to hold back
+			fm.setThrottle(0);
+		}
+		final long start = System.nanoTime();
+		final long deadline = options.timeLimit > 0 ? start + (options.timeLimit * 1_000_000L) : Long.MAX_VALUE;
+		final WorkerGroup group = groups.apply(fms);
+		//keep to the CPU budget if there is one, parking the workers it has no room for before they start
+		final LoadController controller = options.createController(fms);
+		if (controller != null) controller.start();
+		group.start();
+		//wait until time runs out, every worker finishes its iterations, or the registry ends the run (target or stagnation)
+		while (!registry.checkStagnation() && !group.isFinished() && System.nanoTime() < deadline) {
+			Thread.sleep(POLL_INTERVAL);
+		}
+		//stop anybody still running and wait for them, so their fields are safe to read
+		if (controller != null) controller.close();
+		group.stop();
+		group.join();
+		//everyone has stopped, so the final state can be saved
+		Gafolgo.closeCheckpoint(checkpoint, fms);
+		Gafolgo.closeNetwork(network);
+		telemetry.close();
+		//the first thread (by index, not by time, so seeded runs report the same one) with the highest metric wins
+		int winner = 0;
+		long iterations = 0;
+		for (int i = 0; i < fms.length; i++) {
+			if (fms[i].getBestMetric() > fms[winner].getBestMetric()) winner = i;
+			iterations += fms[i].getIterations();
+		}
+		BestRegistry.Best best = new BestRegistry.Best(fms[winner].getBestLayout(), fms[winner].getBestMetric(),
+				winner, System.nanoTime());
+		int bound = FloorBound.upperBound(best.layout);
+		if (options.exactTime >= 0 && best.metric < bound) {
+			//the best so far prunes most of the tree, and the solver only reports something strictly better
+			final ExactSolver.Result exact = new ExactSolver(best.layout).solve(best.layout, ForkJoinPool.commonPool(), options.exactTime);
+			if (exact.metric > best.metric) best = new BestRegistry.Best(exact.layout, exact.metric, -1, System.nanoTime());
+			if (exact.optimal) bound = exact.metric;
+		}
+		Gafolgo.saveBest(options, best.layout);
+		return new Result(best, bound, iterations, (System.nanoTime() - start) / 1_000_000L);
+	}
+	/**
+	 * Returns how far the best is below the bound, as a fraction of the bound.
+	 */
+	private static String gap(int metric, int bound) {
+		return String.format(Locale.ROOT, "%.6f", (bound - metric) / (double)Math.max(1, Math.abs(bound)));
+	}
+	/**
+	 * Returns the result as a single line of JSON. The layout is an array of rows of flavor indices.
+	 * @param job The number of the job the result belongs to, or -1 if it isn't part of a job stream.
+	 */
+	static String json(RunOptions options, Result result, int job) {
+		final BestRegistry.Best best = result.best;
+		final FloorQuadSnapshot layout = best.layout;
+		final StringBuilder json = new StringBuilder("{");
+		if (job >= 0) json.append("\"job\":").append(job).append(',');
+		json.append("\"rows\":").append(layout.spec.rows)
+			.append(",\"cols\":").append(layout.spec.cols)
+			.append(",\"flavors\":").append(layout.spec.flavors)
+			.append(",\"threads\":").append(options.threads)
+			.append(",\"seed\":").append(options.seed)
+			.append(",\"iterations\":").append(result.iterations)
+			.append(",\"elapsedMillis\":").append(result.elapsed)
+			.append(",\"bestThread\":").append(best.worker)
+			.append(",\"bestMetric\":").append(best.metric)
+			.append(",\"upperBound\":").append(result.bound)
+			.append(",\"gap\":").append(gap(best.metric, result.bound))
+			.append(",\"optimal\":").append(best.metric >= result.bound)
+			.append(",\"layout\":[");
+		for (int row = 0; row < layout.spec.rows; row++) {
+			if (row > 0) json.append(',');
+			json.append('[');
+			for (int col = 0; col < layout.spec.cols; col++) {
+				if (col > 0) json.append(',');
+				json.append(layout.flavor(row, col));
+			}
+			json.append(']');
+		}
+		return json.append("]}").toString();
+	}
+	/**
+	 * Returns the CSV header for csvRecord.
+	 * @param job True to start with a job column.
+	 */
+	static String csvHeader(boolean job) {
+		return (job ? "job," : "") + "rows,cols,flavors,threads,seed,iterations,elapsedMillis,bestThread,bestMetric,upperBound,gap,optimal,layout";
+	}
+	/**
+	 * Returns the result as one CSV record.
+	 * The layout is quoted, with rows separated by '/' and flavor indices by spaces.
+	 * @param job The number of the job the result belongs to, or -1 if it isn't part of a job stream.
+	 */
+	static String csvRecord(RunOptions options, Result result, int job) {
+		final BestRegistry.Best best = result.best;
+		final FloorQuadSnapshot layout = best.layout;
+		final StringBuilder grid = new StringBuilder();
+		for (int row = 0; row < layout.spec.rows; row++) {
+			if (row > 0) grid.append('/');
+			for (int col = 0; col < layout.spec.cols; col++) {
+				if (col > 0) grid.append(' ');
+				grid.append(layout.flavor(row, col));
+			}
+		}
+		return (job >= 0 ? job + "," : "") + layout.spec.rows + "," + layout.spec.cols + "," + layout.spec.flavors
+				+ "," + options.threads + "," + (options.seed != null ? options.seed : "") + "," + result.iterations
+				+ "," + result.elapsed + "," + best.worker + "," + best.metric + "," + result.bound
+				+ "," + gap(best.metric, result.bound) + "," + (best.metric >= result.bound) + ",\"" + grid + "\"";
+	}
+
+}
@@ -0,0 +1,63 @@
+package gafolgo;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * Non-blocking migration between islands. Every island publishes its best layout to its own slot
+ * and reads whatever is currently in a neighbor's slot, so nobody ever waits for anybody else.
+ * Which slots an island reads is decided by the topology.
+ */
+final class IslandMigration implements Migration {
+	/**
+	 * Slots are spaced this many references apart so that neighboring islands don't write to the same cache line.
+	 */
+	private static final int PADDING = 16;
+	/**
+	 * The latest layout published by each island, at index island * PADDING.
+	 */
+	private final AtomicReferenceArray<FloorQuadSnapshot> slots;
+	/**
+	 * For each island, the islands it reads from.
+	 */
+	private final int[][] neighbors;
+	/**
+	 * The number of iterations between migrations.
+	 */
+	private final int interval;
+
+	/**
+	 * Creates the slots and wiring for the given number of islands.
+	 * @param islands The number of islands.
+	 * @param topology How the islands are connected.
+	 * @param k The number of neighbors for a random topology.
+	 * @param interval The number of iterations between migrations. Must be at least one.
+	 * @param seed Used to wire a random topology, so the same seed gives the same wiring.
+	 */
+	IslandMigration(int islands, Topology topology, int k, int interval, long seed) {
+		if (interval < 1) throw new IllegalArgumentException("Migration interval must be at least 1: " + interval);
+		slots = new AtomicReferenceArray<FloorQuadSnapshot>(islands * PADDING);
+		neighbors = topology.neighbors(islands, k, new SplittableRandom(seed));
+		this.interval = interval;
+	}
+	@Override
+	public boolean isDue(long iteration, RandomGenerator rand) {
+		return iteration % interval == 0;
+	}
+	@Override
+	public FloorQuadSnapshot migrate(int island, FloorQuadSnapshot outgoing, RandomGenerator rand) {
+		//publish ours; readers only need to see it eventually, so a release store is enough
+		slots.setRelease(island * PADDING, outgoing);
+		final int[] mine = neighbors[island];
+		if (mine.length == 0) return null;
+		//sample one neighbor; it may not have published anything yet
+		return slots.getAcquire(mine[rand.nextInt(mine.length)] * PADDING);
+	}
+	@Override
+	public boolean sendsBest() {
+		return true;
+	}
+
+}
@@ -0,0 +1,180 @@
+package gafolgo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Benjamin Groman
+ * This class runs a stream of headless jobs in one JVM, so that hundreds of floors don't each pay for
+ * starting a JVM and warming up the JIT.
+ * <p>
+ * Every line of the stream is one job, given as options on top of the command line's: its floor, affinity file,
+ * seed, budget and so on. Blank lines and lines starting with '#' are skipped. Every job's workers run time-sliced
+ * on one ForkJoinPool shared by the whole stream, up to --job-slots jobs at a time, and the stream is only read
+ * as fast as slots free up. Each result is printed as one line, tagged with the job's line number, as soon as
+ * the job is done, so results can come out of order when several jobs run at once. A job that can't be parsed
+ * prints an error line instead, and the stream carries on.
+ */
+final class JobRunner {
+	/**
+	 * This class is never instantiated.
+	 */
+	private JobRunner() {
+	}
+	/**
+	 * Runs every job in the stream named by the options, then returns once the last one is printed.
+	 * @param args The command line, whose options every job starts from.
+	 * @param options The command line, parsed. Its jobs field names the stream.
+	 * @param out Where to print the results.
+	 * @throws IOException If the stream can't be read.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for a slot or the last job.
+	 */
+	static void run(String[] args, RunOptions options, PrintStream out) throws IOException, InterruptedException {
+		final List<String> base = baseArgs(args);
+		final ForkJoinPool pool = WorkerGroup.createPool(options.parallelism);
+		final ScheduledExecutorService timer = WorkerGroup.createTimer();
+		//each job is watched by a thread of its own, which mostly sleeps while the pool does the work
+		final AtomicInteger watchers = new AtomicInteger();
+		final ExecutorService jobs = Executors.newFixedThreadPool(options.jobSlots, runnable -> {
+			final Thread thread = new Thread(runnable, "job-" + watchers.incrementAndGet());
+			//don't let these threads keep the program from terminating
+			thread.setDaemon(true);
+			return thread;
+		});
+		final Semaphore slots = new Semaphore(options.jobSlots);
+		final boolean csv = options.format.equals("csv");
+		if (csv) out.println(HeadlessRunner.csvHeader(true));
+		try (BufferedReader in = options.jobs.equals("-")
+				? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+				: Files.newBufferedReader(Paths.get(options.jobs), StandardCharsets.UTF_8)) {
+			int number = 0;
+			String line;
+			while ((line = in.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				final int job = number;
+				final RunOptions jobOptions;
+				try {
+					jobOptions = parse(base, line);
+				}
+				catch (IllegalArgumentException e) {
+					print(out, error(job, e.getMessage(), csv));
+					continue;
+				}
+				//wait for a slot before reading on, so a long stream isn't all parsed and queued up front
+				slots.acquire();
+				jobs.execute(() -> {
+					try {
+						final HeadlessRunner.Result result = HeadlessRunner.search(jobOptions, null, null,
+								fms -> new WorkerGroup(fms, pool, timer));
+						print(out, csv ? HeadlessRunner.csvRecord(jobOptions, result, job) : HeadlessRunner.json(jobOptions, result, job));
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					catch (RuntimeException e) {
+						//one bad job shouldn't take the others down with it
+						print(out, error(job, String.valueOf(e), csv));
+					}
+					finally {
+						slots.release();
+					}
+				});
+			}
+		}
+		finally {
+			jobs.shutdown();
+			jobs.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			timer.shutdownNow();
+			pool.shutdown();
+		}
+	}
+	/**
+	 * Returns the command line without the options that only make sense for the whole stream.
+	 */
+	private static List<String> baseArgs(String[] args) {
+		final List<String> base = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--jobs") || args[i].equals("--job-slots")) {
+				i++;
+				continue;
+			}
+			base.add(args[i]);
+		}
+		return base;
+	}
+	/**
+	 * Parses one job: the command line, then the job's own options, run headless on the shared pool.
+	 * @throws IllegalArgumentException If the options are invalid, or ask for something a job can't do.
+	 */
+	private static RunOptions parse(List<String> base, String line) {
+		final List<String> args = new ArrayList<>(base);
+		args.add("--headless");
+		args.add("--executor");
+		args.add("pool");
+		args.addAll(Arrays.asList(line.split("\\s+")));
+		final RunOptions options = RunOptions.parse(args.toArray(new String[0]));
+		if (options.help || options.jobs != null) throw new IllegalArgumentException("A job can't ask for --help or more --jobs");
+		if (options.checkpoint != null || options.resume != null || options.isDistributed()) {
+			throw new IllegalArgumentException("A job can't save checkpoints or trade with other processes");
+		}
+		//every job runs in the same process, so a budget of its own would fight the others'
+		if (options.cpuBudget > 0) throw new IllegalArgumentException("A job can't set a --cpu-budget; use --parallelism and --job-slots");
+		return options;
+	}
+	/**
+	 * Returns the line printed for a job that failed.
+	 */
+	static String error(int job, String message, boolean csv) {
+		if (csv) return job + ",error,\"" + message.replace("\"", "\"\"") + "\"";
+		return "{\"job\":" + job + ",\"error\":\"" + escapeJson(message) + "\"}";
+	}
+	/**
+	 * Escapes a string for use between the quotes of a JSON string, so that a message spanning several lines
+	 * (an IOException's, say) still makes a single line of output.
+	 */
+	private static String escapeJson(String text) {
+		final StringBuilder escaped = new StringBuilder(text.length() + 16);
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			switch (c) {
+			case '"': escaped.append("\\\""); break;
+			case '\\': escaped.append("\\\\"); break;
+			case '\n': escaped.append("\\n"); break;
+			case '\r': escaped.append("\\r"); break;
+			case '\t': escaped.append("\\t"); break;
+			default:
+				//the other control characters have no short form
+				if (c < 0x20) escaped.append(String.format("\\u%04x", (int)c));
+				else escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+	/**
+	 * Prints one result line. Jobs finish on their own threads, so the lines are kept whole.
+	 */
+	private static void print(PrintStream out, String line) {
+		synchronized (out) {
+			out.println(line);
+			out.flush();
+		}
+	}
+
+}
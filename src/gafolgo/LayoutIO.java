@@ -0,0 +1,224 @@
+package gafolgo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Benjamin Groman
+ * This class reads and writes single layouts, so runs can be seeded from known-good layouts and their results archived.
+ * <p>
+ * The binary format is a header (magic "GFLY", version, rows, cols, flavors, then the number of machines of each
+ * flavor) followed by the cells packed by PackedLayout, two bits each for the four default flavors. Everything is
+ * big-endian. It is written through a FileChannel and read from a memory-mapped buffer, so even a very large
+ * floor is unpacked straight from the page cache into the layout's array.
+ * <p>
+ * The text format is a grid of flavor indices, one row per line, separated by whitespace. Blank lines and anything
+ * after a '#' are ignored, the same as in an affinity file. Files whose names end in ".txt" are written as text;
+ * reading tells the two apart by the magic number.
+ */
+final class LayoutIO {
+	/**
+	 * "GFLY", at the start of every binary layout.
+	 */
+	private static final int MAGIC = 0x47464C59;
+	/**
+	 * The version of the binary format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * This class is never instantiated.
+	 */
+	private LayoutIO() {
+	}
+	/**
+	 * Returns true if the file should be written as text, judging by its name.
+	 */
+	static boolean isText(Path file) {
+		return file.getFileName().toString().toLowerCase().endsWith(".txt");
+	}
+	/**
+	 * Writes the layout to the file, as text if its name ends in ".txt" and in the binary format otherwise.
+	 * @throws IOException If the file can't be written.
+	 */
+	static void write(FloorQuadSnapshot layout, Path file) throws IOException {
+		if (isText(file)) {
+			writeText(layout, file);
+		}
+		else {
+			writeBinary(layout, file);
+		}
+	}
+	/**
+	 * Returns the size of the binary encoding of a layout of the given spec.
+	 */
+	static int encodedBytes(FloorSpec spec) {
+		return ((5 + spec.flavors) * Integer.BYTES) + PackedLayout.packedBytes(spec);
+	}
+	/**
+	 * Writes the binary encoding of the layout at the buffer's position, which must have encodedBytes() remaining.
+	 */
+	static void encode(FloorQuadSnapshot layout, ByteBuffer target) {
+		final FloorSpec spec = layout.spec;
+		target.putInt(MAGIC).putInt(VERSION).putInt(spec.rows).putInt(spec.cols).putInt(spec.flavors);
+		for (int f = 0; f < spec.flavors; f++) {
+			target.putInt(layout.flavorCount(f));
+		}
+		final byte[] cells = new byte[spec.cells()];
+		layout.copyMachines(cells);
+		PackedLayout.pack(cells, spec.flavors, target);
+	}
+	/**
+	 * Reads a binary layout at the buffer's position.
+	 * @param source The encoded layout.
+	 * @param affinity The affinities to score it with, or null for the defaults for its number of flavors.
+	 * @throws IOException If the buffer doesn't hold a complete layout, or its flavors don't fit the affinities.
+	 */
+	static FloorQuadSnapshot decode(ByteBuffer source, AffinityModel affinity) throws IOException {
+		try {
+			if (source.getInt() != MAGIC) throw new IOException("Not a layout");
+			final int version = source.getInt();
+			if (version != VERSION) throw new IOException("Unsupported layout version " + version);
+			final int rows = source.getInt();
+			final int cols = source.getInt();
+			final int flavors = source.getInt();
+			if (flavors < 1 || flavors > FloorSpec.MAX_FLAVORS) throw new IOException("Layout has " + flavors + " flavors");
+			if (affinity != null && affinity.flavors != flavors) {
+				throw new IOException("Layout has " + flavors + " flavors, but the affinities cover " + affinity.flavors);
+			}
+			final FloorSpec spec = new FloorSpec(rows, cols, affinity != null ? affinity : AffinityModel.defaultFor(flavors));
+			final int[] counts = new int[flavors];
+			for (int f = 0; f < flavors; f++) counts[f] = source.getInt();
+			if (source.remaining() < PackedLayout.packedBytes(spec)) throw new IOException("Layout is cut short");
+			final byte[] cells = new byte[spec.cells()];
+			PackedLayout.unpack(source, flavors, cells);
+			final FloorQuadSnapshot layout = new FloorQuadSnapshot(spec, cells);
+			//the counts are there so a damaged file doesn't pass for a different bag of machines
+			for (int f = 0; f < flavors; f++) {
+				if (layout.flavorCount(f) != counts[f]) throw new IOException("Layout doesn't match its flavor counts");
+			}
+			return layout;
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("Layout is cut short", e);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException("Malformed layout: " + e.getMessage(), e);
+		}
+	}
+	/**
+	 * Writes the layout in the binary format.
+	 * @throws IOException If the file can't be written.
+	 */
+	static void writeBinary(FloorQuadSnapshot layout, Path file) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(encodedBytes(layout.spec));
+		encode(layout, buffer);
+		buffer.flip();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) channel.write(buffer);
+		}
+	}
+	/**
+	 * Writes the layout as a text grid, with a comment saying what it is.
+	 * @throws IOException If the file can't be written.
+	 */
+	static void writeText(FloorQuadSnapshot layout, Path file) throws IOException {
+		final FloorSpec spec = layout.spec;
+		try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			out.write("# gafolgo layout: " + spec + ", metric " + FloorQuadSnapshot.calculateFullMetric(layout));
+			out.newLine();
+			final StringBuilder line = new StringBuilder();
+			for (int row = 0; row < spec.rows; row++) {
+				line.setLength(0);
+				for (int col = 0; col < spec.cols; col++) {
+					if (col > 0) line.append(' ');
+					line.append(layout.flavor(row, col));
+				}
+				out.write(line.toString());
+				out.newLine();
+			}
+		}
+	}
+	/**
+	 * Reads a layout in either format.
+	 * @param file The file to read.
+	 * @param affinity The affinities to score it with, or null for the defaults (for a binary layout's own
+	 * number of flavors, or for the four default flavors in a text one).
+	 * @throws IOException If the file can't be read or isn't a layout that fits the affinities.
+	 */
+	static FloorQuadSnapshot read(Path file, AffinityModel affinity) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (size >= Integer.BYTES) {
+				final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				if (map.getInt(0) == MAGIC) {
+					try {
+						return decode(map, affinity);
+					}
+					catch (IOException e) {
+						throw new IOException(file + ": " + e.getMessage(), e);
+					}
+				}
+			}
+		}
+		return readText(file, affinity != null ? affinity : AffinityModel.DEFAULT);
+	}
+	/**
+	 * Reads a text grid.
+	 * @throws IOException If the file can't be read, the rows differ in length, or a flavor is out of range.
+	 */
+	static FloorQuadSnapshot readText(Path file, AffinityModel affinity) throws IOException {
+		final List<byte[]> rows = new ArrayList<>();
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				//strip comments
+				final int hash = line.indexOf('#');
+				if (hash >= 0) line = line.substring(0, hash);
+				line = line.trim();
+				if (line.isEmpty()) continue;
+				final String[] fields = line.split("\\s+");
+				if (!rows.isEmpty() && fields.length != rows.get(0).length) {
+					throw new IOException(file + ":" + lineNumber + ": row has " + fields.length + " cells, expected " + rows.get(0).length);
+				}
+				final byte[] row = new byte[fields.length];
+				for (int i = 0; i < fields.length; i++) {
+					final int flavor;
+					try {
+						flavor = Integer.parseInt(fields[i]);
+					}
+					catch (NumberFormatException e) {
+						throw new IOException(file + ":" + lineNumber + ": not a flavor index: " + fields[i], e);
+					}
+					if (flavor < 0 || flavor >= affinity.flavors) {
+						throw new IOException(file + ":" + lineNumber + ": flavor " + flavor + " is out of range for " + affinity.flavors + " flavors");
+					}
+					row[i] = (byte)flavor;
+				}
+				rows.add(row);
+			}
+		}
+		if (rows.isEmpty()) throw new IOException(file + ": no rows");
+		final FloorSpec spec = new FloorSpec(rows.size(), rows.get(0).length, affinity);
+		final byte[] cells = new byte[spec.cells()];
+		for (int r = 0; r < spec.rows; r++) {
+			System.arraycopy(rows.get(r), 0, cells, r * spec.cols, spec.cols);
+		}
+		return new FloorQuadSnapshot(spec, cells);
+	}
+
+}
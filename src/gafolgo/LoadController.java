@@ -0,0 +1,409 @@
+package gafolgo;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Benjamin Groman
+ * This class keeps a run within a share of the machine's CPU by parking and unparking its workers,
+ * instead of having every worker sleep a fixed time after every step.
+ * <p>
+ * Every tick it measures the CPU used by the process, how busy the machine is as a whole, and the moves per second
+ * and improvement per second of every running worker. The allowance is the budget, cut down when other processes
+ * are using more than the budget leaves them. The capacity (how many workers' worth of running is allowed) shrinks
+ * as soon as the CPU used goes over the allowance, by at most half per tick. It grows, by at most double, only on
+ * trial: a growth that doesn't buy more moves per second over the next few ticks is taken back and not tried again
+ * for a while, since past the number of cores extra workers only take turns.
+ * <p>
+ * The capacity rounded up is the number of workers that run. Below one worker, or between whole workers, they run
+ * for that fraction of each tick and are parked for the rest. The workers improving the least are parked first,
+ * and every tick a quarter of the running workers, the least productive, hand their turns to the ones parked the
+ * longest. On a few cores that keeps every island moving, taking turns like tasks on a pool, without the cost of
+ * the operating system switching between far more busy threads than cores.
+ */
+final class LoadController {
+	/**
+	 * Milliseconds between measurements.
+	 */
+	private static final long TICK_MILLIS = 100;
+	/**
+	 * The least capacity, so the search slows to a crawl on a busy machine but never stops.
+	 */
+	private static final double MIN_CAPACITY = 0.05;
+	/**
+	 * The capacity only grows while the CPU used is below this fraction of the allowance, so it doesn't flap.
+	 */
+	private static final double GROW_BELOW = 0.9;
+	/**
+	 * The capacity only shrinks once the CPU used is above this multiple of the allowance, so noise doesn't shrink it.
+	 */
+	private static final double SHRINK_ABOVE = 1.1;
+	/**
+	 * Ticks over which moves are counted before and after a growth, to tell whether it paid.
+	 */
+	private static final int TRIAL_TICKS = 5;
+	/**
+	 * The least relative gain in moves per second that makes a growth worth keeping.
+	 */
+	private static final double MIN_GAIN = 0.05;
+	/**
+	 * Ticks to wait after a growth didn't pay before trying again.
+	 */
+	private static final int HOLD_TICKS = 50;
+	/**
+	 * The share of the running workers that hand their turn to a parked one every tick.
+	 */
+	private static final double ROTATE_SHARE = 0.25;
+	/**
+	 * How much of a worker's rates each new measurement replaces.
+	 */
+	private static final double RATE_WEIGHT = 0.2;
+	/**
+	 * How much of the CPU used, by the run and by everyone else, each new measurement replaces.
+	 */
+	private static final double LOAD_WEIGHT = 0.5;
+	/**
+	 * The workers being kept in check.
+	 */
+	private final SearchWorker[] workers;
+	/**
+	 * The share of the machine's CPU the run may use, above zero and at most one.
+	 */
+	private final double budget;
+	/**
+	 * The number of workers that can actually run at once, for estimating the CPU used when the JVM can't measure it.
+	 */
+	private final int slots;
+	/**
+	 * The number of cores of the machine.
+	 */
+	private final int cores = Runtime.getRuntime().availableProcessors();
+	/**
+	 * Measures the CPU used by the process and the machine, or null if the JVM doesn't offer that.
+	 */
+	private final com.sun.management.OperatingSystemMXBean os;
+	/**
+	 * True for the workers chosen to run this tick. Only touched by the timer thread, like everything below.
+	 */
+	private final boolean[] running;
+	/**
+	 * The tick at which each worker was last parked.
+	 */
+	private final long[] parkedAt;
+	/**
+	 * Each worker's iteration count at the last tick.
+	 */
+	private final long[] lastIterations;
+	/**
+	 * Each worker's best metric at the last tick.
+	 */
+	private final int[] lastBest;
+	/**
+	 * Each worker's recent moves per second, while it runs.
+	 */
+	private final double[] moveRate;
+	/**
+	 * Each worker's recent improvement of its best metric per second, while it runs.
+	 */
+	private final double[] gainRate;
+	/**
+	 * The number of workers' worth of running allowed. May be a fraction.
+	 */
+	private double capacity;
+	/**
+	 * The recent share of the machine's CPU used by the run, or negative before the first tick.
+	 */
+	private double load = -1;
+	/**
+	 * The recent share of the machine's CPU used by other processes.
+	 */
+	private double others = 0;
+	/**
+	 * The moves made so far in the current period of TRIAL_TICKS ticks.
+	 */
+	private long periodMoves = 0;
+	/**
+	 * The seconds so far in the current period.
+	 */
+	private double periodSeconds = 0;
+	/**
+	 * The ticks so far in the current period.
+	 */
+	private int periodTicks = 0;
+	/**
+	 * The capacity before the last growth while it is on trial, otherwise NaN.
+	 */
+	private double grownFrom = Double.NaN;
+	/**
+	 * The moves per second in the period before the last growth.
+	 */
+	private double baseline = 0;
+	/**
+	 * No growth is tried before this tick.
+	 */
+	private long holdUntil = 0;
+	/**
+	 * The number of ticks so far.
+	 */
+	private long ticks = 0;
+	/**
+	 * The process CPU time at the last tick, in nanoseconds, or negative if unknown.
+	 */
+	private long lastCpu;
+	/**
+	 * The time of the last tick, as given by System.nanoTime().
+	 */
+	private long lastNanos;
+	/**
+	 * Fires the ticks, and the parking at the end of a partial tick. Null until started.
+	 */
+	private ScheduledExecutorService timer = null;
+
+	/**
+	 * Creates a controller that starts by letting every worker run.
+	 * @param workers The workers to keep in check.
+	 * @param budget The share of the machine's CPU the run may use, above zero and at most one.
+	 * @param slots The number of workers that can actually run at once (the pool's parallelism, or the number of workers).
+	 */
+	LoadController(SearchWorker[] workers, double budget, int slots) {
+		if (!(budget > 0 && budget <= 1)) throw new IllegalArgumentException("The CPU budget must be above 0 and at most 1: " + budget);
+		this.workers = workers;
+		this.budget = budget;
+		this.slots = slots;
+		os = ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean bean ? bean : null;
+		final int n = workers.length;
+		running = new boolean[n];
+		parkedAt = new long[n];
+		lastIterations = new long[n];
+		lastBest = new int[n];
+		moveRate = new double[n];
+		gainRate = new double[n];
+		//start as if every worker kept a core busy, and let the measurements take it from there
+		capacity = Math.min(n, Math.max(MIN_CAPACITY, budget * Math.min(cores, slots)));
+	}
+	/**
+	 * Turns off the workers' throttles, parks the workers beyond the starting capacity and starts measuring and steering.
+	 * Call before the workers start, so that the ones parked never crowd out the others.
+	 */
+	void start() {
+		timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "load-controller");
+			//don't let this thread keep the program from terminating
+			thread.setDaemon(true);
+			return thread;
+		});
+		Arrays.fill(running, true);
+		for (int i = 0; i < workers.length; i++) {
+			//parking takes the place of sleeping after every step
+			workers[i].setThrottle(0);
+			lastIterations[i] = workers[i].reportedIterations();
+			lastBest[i] = workers[i].reportedBest();
+		}
+		assign();
+		lastCpu = processCpu();
+		lastNanos = System.nanoTime();
+		timer.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+	/**
+	 * Stops steering and lets every worker run again, so none is left parked when the run ends.
+	 */
+	void close() {
+		if (timer != null) {
+			timer.shutdownNow();
+			try {
+				//a tick in progress could park someone after the unparking below
+				timer.awaitTermination(1, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (SearchWorker worker : workers) {
+			worker.unpark();
+		}
+	}
+	/**
+	 * Returns the CPU time used by the process so far in nanoseconds, or -1 if the JVM can't tell.
+	 */
+	private long processCpu() {
+		return os != null ? os.getProcessCpuTime() : -1;
+	}
+	/**
+	 * Measures the last tick, adjusts the capacity and picks the workers to run in the next one.
+	 */
+	private void tick() {
+		final long now = System.nanoTime();
+		//a tick that comes right on the heels of a late one measures next to nothing
+		if (now - lastNanos < TICK_MILLIS * 500_000L) return;
+		ticks++;
+		final double seconds = (now - lastNanos) / 1e9;
+		final long cpu = processCpu();
+		//the share of the machine the run used, measured if possible and estimated otherwise
+		final double used = cpu >= 0 && lastCpu >= 0
+				? (cpu - lastCpu) / (seconds * 1e9 * cores)
+				: Math.min(capacity, slots) / cores;
+		lastCpu = cpu;
+		lastNanos = now;
+		long moves = 0;
+		for (int i = 0; i < workers.length; i++) {
+			final long iterations = workers[i].reportedIterations();
+			final int best = workers[i].reportedBest();
+			if (running[i]) {
+				moves += iterations - lastIterations[i];
+				moveRate[i] += RATE_WEIGHT * (((iterations - lastIterations[i]) / seconds) - moveRate[i]);
+				gainRate[i] += RATE_WEIGHT * (((best - lastBest[i]) / seconds) - gainRate[i]);
+			}
+			lastIterations[i] = iterations;
+			lastBest[i] = best;
+		}
+		//other processes get what they are using, as long as that leaves the budget short
+		final double machine = os != null ? os.getCpuLoad() : -1;
+		if (load < 0) load = used;
+		load += LOAD_WEIGHT * (used - load);
+		if (machine >= 0) others += LOAD_WEIGHT * (Math.max(0, machine - used) - others);
+		final double allowance = Math.min(budget, 1 - others);
+		if (load > allowance * SHRINK_ABOVE) {
+			final double shrunk = Math.max(MIN_CAPACITY, capacity * Math.max(0.5, allowance / load));
+			//assume the load follows the capacity down, so the next tick doesn't shrink it again for the same reason
+			load *= shrunk / capacity;
+			capacity = shrunk;
+			//whatever was on trial is over, and the moves so far were made at another capacity
+			grownFrom = Double.NaN;
+			periodMoves = 0;
+			periodSeconds = 0;
+			periodTicks = 0;
+		}
+		else {
+			periodMoves += moves;
+			periodSeconds += seconds;
+			if (++periodTicks == TRIAL_TICKS) {
+				final double throughput = periodMoves / periodSeconds;
+				if (!Double.isNaN(grownFrom)) {
+					//the capacity grew at the start of this period; keep it only if that bought more moves
+					if (throughput < baseline * (1 + MIN_GAIN)) {
+						capacity = grownFrom;
+						holdUntil = ticks + HOLD_TICKS;
+					}
+					grownFrom = Double.NaN;
+				}
+				//a growth that paid is the baseline for the next one
+				if (load < allowance * GROW_BELOW && ticks >= holdUntil && capacity < workers.length) {
+					grownFrom = capacity;
+					baseline = throughput;
+					capacity = Math.min(workers.length, capacity * (load > 0 ? Math.min(2, allowance / load) : 2));
+				}
+				periodMoves = 0;
+				periodSeconds = 0;
+				periodTicks = 0;
+			}
+		}
+		assign();
+	}
+	/**
+	 * Parks and unparks workers to match the capacity, and schedules the parking for the rest of a partial tick.
+	 */
+	private void assign() {
+		final int wanted = Math.min(workers.length, (int)Math.ceil(capacity));
+		int active = countRunning();
+		while (active > wanted) {
+			stop(leastProductive());
+			active--;
+		}
+		while (active < wanted) {
+			resume(longestParked());
+			active++;
+		}
+		//the least productive hand their turns to whoever has waited longest, so every island keeps moving
+		final int rotate = Math.min(workers.length - active, (int)Math.ceil(active * ROTATE_SHARE));
+		for (int i = 0; i < rotate; i++) {
+			stop(leastProductive());
+		}
+		for (int i = 0; i < rotate; i++) {
+			resume(longestParked());
+		}
+		for (int i = 0; i < workers.length; i++) {
+			if (running[i]) workers[i].unpark();
+		}
+		final double duty = capacity / active;
+		if (duty < 1) {
+			timer.schedule(this::parkRunning, Math.max(1, Math.round(duty * TICK_MILLIS)), TimeUnit.MILLISECONDS);
+		}
+	}
+	/**
+	 * Parks every running worker until the next tick.
+	 */
+	private void parkRunning() {
+		for (int i = 0; i < workers.length; i++) {
+			if (running[i]) workers[i].park();
+		}
+	}
+	/**
+	 * Takes a worker out of the running set and parks it.
+	 */
+	private void stop(int worker) {
+		running[worker] = false;
+		parkedAt[worker] = ticks;
+		workers[worker].park();
+	}
+	/**
+	 * Puts a worker back in the running set. It is unparked by assign().
+	 */
+	private void resume(int worker) {
+		running[worker] = true;
+		//its rates are from before it was parked, so it starts from the average of the others
+		double moves = 0;
+		double gain = 0;
+		int others = 0;
+		for (int i = 0; i < workers.length; i++) {
+			if (running[i] && i != worker) {
+				moves += moveRate[i];
+				gain += gainRate[i];
+				others++;
+			}
+		}
+		if (others > 0) {
+			moveRate[worker] = moves / others;
+			gainRate[worker] = gain / others;
+		}
+		lastIterations[worker] = workers[worker].reportedIterations();
+		lastBest[worker] = workers[worker].reportedBest();
+	}
+	/**
+	 * Returns the number of workers in the running set.
+	 */
+	private int countRunning() {
+		int count = 0;
+		for (boolean r : running) {
+			if (r) count++;
+		}
+		return count;
+	}
+	/**
+	 * Returns the running worker improving the least, and of those the one making the fewest moves
+	 * (the last one, on a tie, so that the first workers keep running when there is nothing to go by).
+	 */
+	private int leastProductive() {
+		int worst = -1;
+		for (int i = 0; i < workers.length; i++) {
+			if (!running[i]) continue;
+			if (worst < 0 || gainRate[i] < gainRate[worst] || (gainRate[i] == gainRate[worst] && moveRate[i] <= moveRate[worst])) {
+				worst = i;
+			}
+		}
+		return worst;
+	}
+	/**
+	 * Returns the parked worker that has waited the longest.
+	 */
+	private int longestParked() {
+		int longest = -1;
+		for (int i = 0; i < workers.length; i++) {
+			if (!running[i] && (longest < 0 || parkedAt[i] < parkedAt[longest])) longest = i;
+		}
+		return longest;
+	}
+
+}
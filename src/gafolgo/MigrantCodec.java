@@ -0,0 +1,110 @@
+package gafolgo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * @author Benjamin Groman
+ * This class is the wire format for migrants sent between processes.
+ * A frame is a length (of everything after it), a header (magic, version, rows, cols, flavors,
+ * a hash of the affinity table, layout count) and then each layout as its metric, its exchange signature
+ * and its cells packed by PackedLayout. Everything is big-endian, so a 64x64 floor of four flavors
+ * takes about a kilobyte per layout.
+ */
+final class MigrantCodec {
+	/**
+	 * "GFMG", at the start of every frame after the length.
+	 */
+	private static final int MAGIC = 0x47464D47;
+	/**
+	 * The version of the wire format.
+	 */
+	private static final int VERSION = 1;
+	/**
+	 * The size of the header, after the length.
+	 */
+	private static final int HEADER_BYTES = 7 * Integer.BYTES;
+
+	/**
+	 * This class is never instantiated.
+	 */
+	private MigrantCodec() {
+	}
+	/**
+	 * Returns the size of one encoded layout of the given spec.
+	 */
+	private static int entryBytes(FloorSpec spec) {
+		return Integer.BYTES + Long.BYTES + PackedLayout.packedBytes(spec);
+	}
+	/**
+	 * Returns the size of a whole frame of the given number of layouts, including the length.
+	 */
+	static int frameBytes(FloorSpec spec, int count) {
+		return Integer.BYTES + HEADER_BYTES + (count * entryBytes(spec));
+	}
+	/**
+	 * Writes a frame at the buffer's position, which must have frameBytes(spec, count) remaining.
+	 * @param spec The shape of every layout.
+	 * @param layouts The layouts to send.
+	 * @param metrics The metric of each layout.
+	 * @param count How many of the layouts to send.
+	 * @param target Where to write.
+	 */
+	static void encode(FloorSpec spec, FloorQuadSnapshot[] layouts, int[] metrics, int count, ByteBuffer target) {
+		target.putInt(frameBytes(spec, count) - Integer.BYTES);
+		target.putInt(MAGIC).putInt(VERSION).putInt(spec.rows).putInt(spec.cols).putInt(spec.flavors)
+			.putInt(affinityHash(spec)).putInt(count);
+		final byte[] cells = new byte[spec.cells()];
+		for (int i = 0; i < count; i++) {
+			layouts[i].copyMachines(cells);
+			target.putInt(metrics[i]).putLong(layouts[i].exchangeSignature);
+			PackedLayout.pack(cells, spec.flavors, target);
+		}
+	}
+	/**
+	 * Reads the layouts of a frame whose length has already been read.
+	 * @param spec The spec this process runs. Frames for any other spec are refused.
+	 * @param frame The rest of the frame, exactly as long as its length said.
+	 * @return The layouts in the frame.
+	 * @throws IOException If the frame is malformed, or is for another spec or version.
+	 */
+	static FloorQuadSnapshot[] decode(FloorSpec spec, ByteBuffer frame) throws IOException {
+		if (frame.remaining() < HEADER_BYTES || frame.getInt() != MAGIC) throw new IOException("Not a migrant frame");
+		final int version = frame.getInt();
+		if (version != VERSION) throw new IOException("Unsupported migrant frame version " + version);
+		final int rows = frame.getInt();
+		final int cols = frame.getInt();
+		final int flavors = frame.getInt();
+		final int affinity = frame.getInt();
+		if (rows != spec.rows || cols != spec.cols || flavors != spec.flavors) {
+			throw new IOException("Peer runs a " + rows + "x" + cols + "/" + flavors + " floor, not " + spec);
+		}
+		if (affinity != affinityHash(spec)) throw new IOException("Peer runs a " + spec + " floor with other affinities");
+		final int count = frame.getInt();
+		if (count < 0 || frame.remaining() != (long)count * entryBytes(spec)) throw new IOException("Migrant frame has the wrong length");
+		final FloorQuadSnapshot[] layouts = new FloorQuadSnapshot[count];
+		for (int i = 0; i < count; i++) {
+			//the metric is informational; the receiver scores the layout itself rather than trust it
+			frame.getInt();
+			final long signature = frame.getLong();
+			final byte[] cells = new byte[spec.cells()];
+			try {
+				PackedLayout.unpack(frame, flavors, cells);
+			}
+			catch (IllegalArgumentException e) {
+				throw new IOException("Migrant " + i + ": " + e.getMessage(), e);
+			}
+			layouts[i] = new FloorQuadSnapshot(spec, cells);
+			if (layouts[i].exchangeSignature != signature) throw new IOException("Migrant " + i + " doesn't match its signature");
+		}
+		return layouts;
+	}
+	/**
+	 * Hashes the affinity table, so peers with the same shape but different affinities don't mix.
+	 */
+	private static int affinityHash(FloorSpec spec) {
+		return Arrays.hashCode(spec.affinity.table);
+	}
+
+}
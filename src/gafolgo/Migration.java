@@ -0,0 +1,41 @@
+package gafolgo;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * This interface is how floor managers trade layouts with each other.
+ * Each floor manager is an island identified by its index, and asks its migration when to trade and what it gets back.
+ */
+interface Migration {
+	/**
+	 * Decides whether the island should migrate on this iteration.
+	 * @param iteration The number of iterations the island has completed.
+	 * @param rand The random number generator of the calling thread.
+	 */
+	boolean isDue(long iteration, RandomGenerator rand);
+	/**
+	 * Sends a layout out and returns one that came in, if any.
+	 * @param island The index of the calling island.
+	 * @param outgoing The layout to send. Never modified, so it may be shared.
+	 * @param rand The random number generator of the calling thread.
+	 * @return A layout from another island, or null if there is nothing to receive right now.
+	 * The caller still has to check that it is exchangeable.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting.
+	 */
+	FloorQuadSnapshot migrate(int island, FloorQuadSnapshot outgoing, RandomGenerator rand) throws InterruptedException;
+	/**
+	 * If true, the island sends its best layout rather than its current one.
+	 * The best layout is already immutable, so sending it costs no snapshot.
+	 */
+	default boolean sendsBest() {
+		return false;
+	}
+	/**
+	 * Called once by an island that has stopped for good, so that migrations that wait for everyone don't wait for it.
+	 * @param island The index of the island that stopped.
+	 */
+	default void leave(int island) {
+	}
+
+}
@@ -0,0 +1,88 @@
+package gafolgo;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * This class draws a batch of candidate swaps at once and scores them all before picking one.
+ * The candidates are kept as parallel arrays of cell indices and deltas rather than as objects, so drawing,
+ * scoring and picking are each a short loop over plain ints, and nothing is allocated after construction.
+ * <p>
+ * A batch trades some randomness for a better move per step: the best of M swaps is much more often an
+ * improvement than a single random one, and the acceptance policy, migration check and bookkeeping
+ * are only paid once for all of them.
+ * Only used by the thread that owns it.
+ */
+final class MoveBatch {
+	/**
+	 * The number of candidates drawn per batch.
+	 */
+	final int size;
+	/**
+	 * The first cell index of each candidate.
+	 */
+	private final int[] first;
+	/**
+	 * The second cell index of each candidate.
+	 */
+	private final int[] second;
+	/**
+	 * The metric change of each candidate, filled in by pick().
+	 */
+	private final int[] delta;
+
+	/**
+	 * Creates an empty batch.
+	 * @param size The number of candidates drawn per batch. Must be positive.
+	 */
+	MoveBatch(int size) {
+		if (size < 1) throw new IllegalArgumentException("A batch needs at least one candidate: " + size);
+		this.size = size;
+		first = new int[size];
+		second = new int[size];
+		delta = new int[size];
+	}
+	/**
+	 * Draws a fresh batch of candidates and scores them against the floor, which is left unchanged.
+	 * @param floor The floor the swaps would be applied to.
+	 * @param rand The random number generator of the calling thread.
+	 * @param firstImproving If true, stop scoring at the first candidate that improves the metric.
+	 * @return The index of the chosen candidate: the first improving one if asked for and there is one,
+	 * otherwise the one with the largest delta (the earliest of them on a tie).
+	 */
+	int pick(WorkingFloor floor, RandomGenerator rand, boolean firstImproving) {
+		//one draw per cell instead of one per row and one per column
+		final int cells = floor.spec.cells();
+		for (int i = 0; i < size; i++) {
+			first[i] = rand.nextInt(cells);
+			second[i] = rand.nextInt(cells);
+		}
+		int best = 0;
+		for (int i = 0; i < size; i++) {
+			final int d = floor.swapDelta(first[i], second[i]);
+			delta[i] = d;
+			if (d > delta[best]) best = i;
+			if (firstImproving && d > 0) return i;
+		}
+		return best;
+	}
+	/**
+	 * Returns the first cell index of the given candidate.
+	 */
+	int first(int candidate) {
+		return first[candidate];
+	}
+	/**
+	 * Returns the second cell index of the given candidate.
+	 */
+	int second(int candidate) {
+		return second[candidate];
+	}
+	/**
+	 * Returns the metric change of the given candidate, as scored by the last pick().
+	 */
+	int delta(int candidate) {
+		return delta[candidate];
+	}
+
+}
@@ -0,0 +1,165 @@
+package gafolgo;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * The kinds of move a FloorManager can make, besides swapping two random machines.
+ * Every move is written out as a short sequence of swaps, so the floor can score it one swap at a time
+ * with the usual O(1) delta, and undo it by running the swaps backwards.
+ * Moves that stay within a neighborhood (adjacent swaps, block swaps, shifts) keep more of the structure around
+ * them than a swap of two distant cells, so on large floors they are rejected far less often.
+ */
+enum MoveOperator {
+	/**
+	 * Swaps two random machines, the original move.
+	 */
+	SWAP,
+	/**
+	 * Swaps a random machine with its right or lower neighbor.
+	 */
+	ADJACENT,
+	/**
+	 * Swaps two random, non-overlapping k by k blocks, with k from 2 to MAX_BLOCK.
+	 */
+	BLOCK,
+	/**
+	 * Rotates a random stretch of up to MAX_SHIFT machines along a row or a column by one place.
+	 */
+	SHIFT,
+	/**
+	 * Moves three random machines around in a cycle.
+	 */
+	CYCLE,
+	/**
+	 * Swaps two of the worst placed machines: the ones with the most slack (see WorkingFloor.slack())
+	 * out of a few random samples each. The floor has to track slack.
+	 */
+	GUIDED;
+
+	/**
+	 * The largest block side for BLOCK.
+	 */
+	static final int MAX_BLOCK = 3;
+	/**
+	 * The longest stretch rotated by SHIFT.
+	 */
+	static final int MAX_SHIFT = 8;
+	/**
+	 * The most swaps any move takes.
+	 */
+	static final int MAX_SWAPS = Math.max(MAX_BLOCK * MAX_BLOCK, MAX_SHIFT - 1);
+	/**
+	 * The number of random cells GUIDED looks at for each of its two machines.
+	 */
+	private static final int GUIDE_SAMPLES = 4;
+
+	/**
+	 * Draws a random move of this kind, without touching the floor.
+	 * @param floor The floor the move is for.
+	 * @param rand The random number generator of the calling thread.
+	 * @param swaps Where to write the move, as pairs of cell indices in the order they are applied.
+	 * Must hold at least 2 * MAX_SWAPS ints.
+	 * @return The number of swaps written. Zero if the floor is too small for this kind of move.
+	 */
+	int propose(WorkingFloor floor, RandomGenerator rand, int[] swaps) {
+		final int rows = floor.spec.rows;
+		final int cols = floor.spec.cols;
+		final int cells = rows * cols;
+		switch (this) {
+		case SWAP:
+			swaps[0] = rand.nextInt(cells);
+			swaps[1] = rand.nextInt(cells);
+			return 1;
+		case ADJACENT: {
+			final int cell = rand.nextInt(cells);
+			final int row = cell / cols;
+			final int col = cell - (row * cols);
+			swaps[0] = cell;
+			if (rand.nextBoolean() ? cols > 1 : rows == 1) {
+				swaps[1] = col + 1 < cols ? cell + 1 : cell - 1;
+			}
+			else {
+				swaps[1] = row + 1 < rows ? cell + cols : cell - cols;
+			}
+			return 1;
+		}
+		case BLOCK:
+			return block(rows, cols, rand, swaps);
+		case SHIFT:
+			return shift(rows, cols, rand, swaps);
+		case CYCLE:
+			//(a b) then (b c) sends a's machine to b, b's to c and c's to a
+			swaps[0] = rand.nextInt(cells);
+			swaps[1] = rand.nextInt(cells);
+			swaps[2] = swaps[1];
+			swaps[3] = rand.nextInt(cells);
+			return 2;
+		default:
+			swaps[0] = worst(floor, cells, rand);
+			swaps[1] = worst(floor, cells, rand);
+			return 1;
+		}
+	}
+	/**
+	 * Writes the swaps that exchange two k by k blocks, cell by cell.
+	 */
+	private static int block(int rows, int cols, RandomGenerator rand, int[] swaps) {
+		final int side = Math.min(2 + rand.nextInt(MAX_BLOCK - 1), Math.min(rows, cols));
+		final int row1 = rand.nextInt(rows - side + 1);
+		final int col1 = rand.nextInt(cols - side + 1);
+		final int row2 = rand.nextInt(rows - side + 1);
+		final int col2 = rand.nextInt(cols - side + 1);
+		//overlapping blocks would tangle the swaps into something else entirely
+		if (Math.abs(row1 - row2) < side && Math.abs(col1 - col2) < side) return 0;
+		int count = 0;
+		for (int r = 0; r < side; r++) {
+			for (int c = 0; c < side; c++) {
+				swaps[2 * count] = ((row1 + r) * cols) + col1 + c;
+				swaps[(2 * count) + 1] = ((row2 + r) * cols) + col2 + c;
+				count++;
+			}
+		}
+		return count;
+	}
+	/**
+	 * Writes the swaps that rotate a stretch of a row or column by one place, as a chain of adjacent swaps.
+	 */
+	private static int shift(int rows, int cols, RandomGenerator rand, int[] swaps) {
+		final boolean alongRow = rand.nextBoolean() ? cols > 1 : rows == 1;
+		final int line = alongRow ? cols : rows;
+		if (line < 2) return 0;
+		final int length = 2 + rand.nextInt(Math.min(MAX_SHIFT, line) - 1);
+		//the first cell of the stretch, and the distance from one cell of it to the next
+		final int start;
+		final int step;
+		if (alongRow) {
+			start = (rand.nextInt(rows) * cols) + rand.nextInt(cols - length + 1);
+			step = 1;
+		}
+		else {
+			start = (rand.nextInt(rows - length + 1) * cols) + rand.nextInt(cols);
+			step = cols;
+		}
+		//forwards the first machine bubbles to the end, backwards the last one bubbles to the front
+		final boolean forwards = rand.nextBoolean();
+		for (int i = 0; i < length - 1; i++) {
+			final int at = forwards ? i : length - 2 - i;
+			swaps[2 * i] = start + (at * step);
+			swaps[(2 * i) + 1] = start + ((at + 1) * step);
+		}
+		return length - 1;
+	}
+	/**
+	 * Returns the cell with the most slack out of a few random ones.
+	 */
+	private static int worst(WorkingFloor floor, int cells, RandomGenerator rand) {
+		int worst = rand.nextInt(cells);
+		for (int i = 1; i < GUIDE_SAMPLES; i++) {
+			final int cell = rand.nextInt(cells);
+			if (floor.slack(cell) > floor.slack(worst)) worst = cell;
+		}
+		return worst;
+	}
+
+}
@@ -0,0 +1,132 @@
+package gafolgo;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * This class holds the move operators one FloorManager draws from, and learns which of them are paying off.
+ * Each operator earns credit when one of its moves is kept, in proportion to the improvement per swap it took,
+ * as an exponentially weighted average so that the credit follows the search as it changes. Operators are picked
+ * with probability in proportion to their credit (probability matching), except that a fixed share of the picks
+ * is spread evenly so that an operator that is out of favor can still win it back.
+ * <p>
+ * The swaps of the move last drawn are kept here, in a buffer that is reused for every move.
+ * Only used by the thread that owns it.
+ */
+final class MoveSet {
+	/**
+	 * How much of an operator's credit each new result replaces.
+	 */
+	private static final double DECAY = 0.01;
+	/**
+	 * The share of picks spread evenly over every operator, whatever their credit.
+	 */
+	private static final double EXPLORE = 0.1;
+	/**
+	 * The operators to pick from.
+	 */
+	final MoveOperator[] operators;
+	/**
+	 * True to pick by credit, false to pick uniformly.
+	 */
+	private final boolean adaptive;
+	/**
+	 * The credit of each operator: the recent average improvement per swap of its moves.
+	 */
+	private final double[] credit;
+	/**
+	 * The swaps of the last move drawn, as pairs of cell indices.
+	 */
+	private final int[] swaps = new int[2 * MoveOperator.MAX_SWAPS];
+	/**
+	 * The number of swaps in the last move drawn.
+	 */
+	private int count = 0;
+
+	/**
+	 * Creates a set with no credit for anyone yet.
+	 * @param operators The operators to pick from. Must not be empty.
+	 * @param adaptive True to favor the operators that are paying off, false to always pick uniformly.
+	 */
+	MoveSet(MoveOperator[] operators, boolean adaptive) {
+		if (operators.length == 0) throw new IllegalArgumentException("A move set needs at least one operator");
+		this.operators = operators.clone();
+		this.adaptive = adaptive;
+		credit = new double[operators.length];
+	}
+	/**
+	 * Returns true if the set has the given operator.
+	 */
+	boolean contains(MoveOperator operator) {
+		for (MoveOperator o : operators) {
+			if (o == operator) return true;
+		}
+		return false;
+	}
+	/**
+	 * Picks the operator for the next move.
+	 * @param rand The random number generator of the calling thread.
+	 * @return The index of the operator.
+	 */
+	int choose(RandomGenerator rand) {
+		final int n = operators.length;
+		if (n == 1) return 0;
+		double total = 0;
+		for (double c : credit) total += c;
+		if (!adaptive || total <= 0) return rand.nextInt(n);
+		double pick = rand.nextDouble();
+		for (int i = 0; i < n - 1; i++) {
+			pick -= share(i, total);
+			if (pick < 0) return i;
+		}
+		return n - 1;
+	}
+	/**
+	 * Returns the chance of picking the given operator right now.
+	 */
+	double share(int operator) {
+		double total = 0;
+		for (double c : credit) total += c;
+		return !adaptive || total <= 0 ? 1.0 / operators.length : share(operator, total);
+	}
+	/**
+	 * Returns the chance of picking the given operator, given the total credit of every operator.
+	 */
+	private double share(int operator, double total) {
+		return (EXPLORE / operators.length) + ((1 - EXPLORE) * credit[operator] / total);
+	}
+	/**
+	 * Draws a move of the given operator. Its swaps can then be read with first() and second().
+	 * @param operator The index of the operator, from choose().
+	 * @param floor The floor the move is for, which is left unchanged.
+	 * @param rand The random number generator of the calling thread.
+	 * @return The number of swaps in the move. Zero if the operator can't make a move on this floor.
+	 */
+	int propose(int operator, WorkingFloor floor, RandomGenerator rand) {
+		count = operators[operator].propose(floor, rand, swaps);
+		return count;
+	}
+	/**
+	 * Returns the first cell index of the given swap of the last move.
+	 */
+	int first(int swap) {
+		return swaps[2 * swap];
+	}
+	/**
+	 * Returns the second cell index of the given swap of the last move.
+	 */
+	int second(int swap) {
+		return swaps[(2 * swap) + 1];
+	}
+	/**
+	 * Credits an operator with the outcome of its last move.
+	 * @param operator The index of the operator.
+	 * @param delta The metric change of the move.
+	 * @param kept True if the move was kept.
+	 */
+	void credit(int operator, int delta, boolean kept) {
+		final double reward = kept && delta > 0 ? (double)delta / Math.max(1, count) : 0;
+		credit[operator] += DECAY * (reward - credit[operator]);
+	}
+
+}
@@ -0,0 +1,79 @@
+package gafolgo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Benjamin Groman
+ * This class packs flavor indices into as few bits as the flavor count allows (two bits for the four default flavors),
+ * written as one continuous bit stream, lowest bits first.
+ */
+final class PackedLayout {
+	/**
+	 * This class is never instantiated.
+	 */
+	private PackedLayout() {
+	}
+	/**
+	 * Returns how many bits each cell needs for the given number of flavors. Always at least one.
+	 */
+	static int bitsPerCell(int flavors) {
+		return Math.max(1, 32 - Integer.numberOfLeadingZeros(flavors - 1));
+	}
+	/**
+	 * Returns how many bytes a packed floor of the given spec takes up.
+	 */
+	static int packedBytes(FloorSpec spec) {
+		return (int)(((long)spec.cells() * bitsPerCell(spec.flavors) + 7) / 8);
+	}
+	/**
+	 * Packs the given cells into the buffer at its current position, advancing it by packedBytes().
+	 * @param cells The flavor indices, in row-major order.
+	 * @param flavors The number of flavors, which decides the bits per cell.
+	 * @param target Where to write.
+	 */
+	static void pack(byte[] cells, int flavors, ByteBuffer target) {
+		final int bits = bitsPerCell(flavors);
+		long buffer = 0;
+		int buffered = 0;
+		for (byte cell : cells) {
+			buffer |= (long)cell << buffered;
+			buffered += bits;
+			//flush whole bytes as they fill up
+			while (buffered >= 8) {
+				target.put((byte)buffer);
+				buffer >>>= 8;
+				buffered -= 8;
+			}
+		}
+		//whatever is left over goes in one last partial byte
+		if (buffered > 0) target.put((byte)buffer);
+	}
+	/**
+	 * Unpacks cells from the buffer at its current position, advancing it by packedBytes().
+	 * @param source Where to read.
+	 * @param flavors The number of flavors, which decides the bits per cell.
+	 * @param cells Where to put the flavor indices. Its length decides how many are read.
+	 * @throws IllegalArgumentException If a flavor index is out of range.
+	 */
+	static void unpack(ByteBuffer source, int flavors, byte[] cells) {
+		final int bits = bitsPerCell(flavors);
+		final int mask = (1 << bits) - 1;
+		long buffer = 0;
+		int buffered = 0;
+		for (int i = 0; i < cells.length; i++) {
+			//top up with whole bytes until there is a full cell's worth
+			while (buffered < bits) {
+				buffer |= (long)(source.get() & 0xFF) << buffered;
+				buffered += 8;
+			}
+			final int flavor = (int)buffer & mask;
+			if (flavor >= flavors) {
+				throw new IllegalArgumentException("Cell " + i + " has flavor " + flavor + " but there are only " + flavors);
+			}
+			cells[i] = (byte)flavor;
+			buffer >>>= bits;
+			buffered -= bits;
+		}
+	}
+
+}
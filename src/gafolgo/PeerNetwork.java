@@ -0,0 +1,390 @@
+package gafolgo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * This class trades layouts with other gafolgo processes over TCP, so islands can run on several JVMs and hosts.
+ * It listens for migrants from any process, and sends this process's best layouts to the peers it was given.
+ * <p>
+ * Workers never touch a socket. They leave their outgoing layout in a slot of the outbox and pick up
+ * whatever is in a random slot of the inbox, both plain atomic reads and writes. A single network thread
+ * does everything else with one non-blocking selector: every FLUSH_INTERVAL it scores the outbox, sends
+ * the best few layouts that have changed as one frame (see MigrantCodec) to every peer, and it drops
+ * a peer's frame rather than queueing it if the previous one hasn't drained yet, so a slow peer only misses
+ * migrants instead of holding anyone up. Peers that aren't up yet, or go away, are retried now and then.
+ */
+final class PeerNetwork implements AutoCloseable {
+	/**
+	 * How often a batch of migrants is sent, in milliseconds.
+	 */
+	private static final long FLUSH_INTERVAL = 100;
+	/**
+	 * How long to wait before connecting to a peer again after failing to, in milliseconds.
+	 */
+	private static final long RECONNECT_INTERVAL = 2000;
+	/**
+	 * The most layouts sent in one frame.
+	 */
+	static final int BATCH = 4;
+	/**
+	 * The number of recent arrivals kept for the workers to pick from.
+	 */
+	private static final int INBOX = 8;
+
+	/**
+	 * A process to send migrants to, and the connection to it if there is one.
+	 */
+	private static final class Peer {
+		/**
+		 * Where the peer listens.
+		 */
+		final InetSocketAddress address;
+		/**
+		 * The connection, or null while disconnected.
+		 */
+		SocketChannel channel = null;
+		/**
+		 * The frame still being written, or null if the last one has been sent.
+		 */
+		ByteBuffer pending = null;
+		/**
+		 * When to try connecting again, as given by System.nanoTime().
+		 */
+		long retryNanos = 0;
+		/**
+		 * A hash of the last batch sent to this peer, so an unchanged batch isn't sent again.
+		 */
+		long sent = 0;
+
+		Peer(InetSocketAddress address) {
+			this.address = address;
+		}
+	}
+
+	/**
+	 * The shape of the floors being traded. Frames for any other shape are refused.
+	 */
+	private final FloorSpec spec;
+	/**
+	 * The latest outgoing layout of each island.
+	 */
+	private final AtomicReferenceArray<FloorQuadSnapshot> outbox;
+	/**
+	 * The most recent arrivals, overwritten in turn by the network thread.
+	 */
+	private final AtomicReferenceArray<FloorQuadSnapshot> inbox = new AtomicReferenceArray<>(INBOX);
+	/**
+	 * Where the next arrival goes in the inbox. Only touched by the network thread.
+	 */
+	private int inboxNext = 0;
+	/**
+	 * Multiplexes every channel onto the network thread.
+	 */
+	private final Selector selector;
+	/**
+	 * Accepts connections from other processes, or null if this process doesn't listen.
+	 */
+	private final ServerSocketChannel server;
+	/**
+	 * The processes this one sends to.
+	 */
+	private final List<Peer> peers = new ArrayList<>();
+	/**
+	 * The largest frame a peer may send, which is a full batch.
+	 */
+	private final int maxFrame;
+	/**
+	 * Runs the selector loop.
+	 */
+	private final Thread network;
+	/**
+	 * Set once the network should shut down.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Starts listening and connecting.
+	 * @param spec The shape of the floors being traded.
+	 * @param islands The number of islands in this process.
+	 * @param port The port to listen on for migrants, or -1 to not listen.
+	 * @param peers The processes to send migrants to, as host:port.
+	 * @throws IOException If the port can't be listened on.
+	 */
+	PeerNetwork(FloorSpec spec, int islands, int port, List<InetSocketAddress> peers) throws IOException {
+		this.spec = spec;
+		outbox = new AtomicReferenceArray<>(islands);
+		maxFrame = MigrantCodec.frameBytes(spec, BATCH);
+		selector = Selector.open();
+		if (port >= 0) {
+			server = ServerSocketChannel.open();
+			try {
+				server.bind(new InetSocketAddress(port));
+			}
+			catch (IOException e) {
+				server.close();
+				selector.close();
+				throw e;
+			}
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		}
+		else {
+			server = null;
+		}
+		for (InetSocketAddress address : peers) {
+			this.peers.add(new Peer(address));
+		}
+		network = new Thread(this::loop, "migration-network");
+		//don't let this thread keep the program from terminating
+		network.setDaemon(true);
+		network.start();
+	}
+	/**
+	 * Leaves an island's outgoing layout to be considered for the next batch. Safe to call from any thread.
+	 */
+	void offer(int island, FloorQuadSnapshot layout) {
+		outbox.setRelease(island, layout);
+	}
+	/**
+	 * Returns one of the recent arrivals at random, or null if nothing has arrived yet. Safe to call from any thread.
+	 */
+	FloorQuadSnapshot poll(RandomGenerator rand) {
+		return inbox.getAcquire(rand.nextInt(INBOX));
+	}
+	/**
+	 * The network thread: waits on the selector, handles what is ready, and sends a batch every FLUSH_INTERVAL.
+	 */
+	private void loop() {
+		long nextFlush = System.nanoTime();
+		while (!closed) {
+			try {
+				final long wait = TimeUnit.NANOSECONDS.toMillis(nextFlush - System.nanoTime());
+				//select(0) would mean forever
+				if (wait > 0) selector.select(wait);
+				else selector.selectNow();
+				for (SelectionKey key : selector.selectedKeys()) {
+					handle(key);
+				}
+				selector.selectedKeys().clear();
+				if (System.nanoTime() - nextFlush >= 0) {
+					connectPeers();
+					flush();
+					nextFlush = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL);
+				}
+			}
+			catch (IOException e) {
+				//only the selector itself gets here; the channels handle their own trouble
+				if (!closed) System.err.println("Migration network failed: " + e.getMessage());
+				return;
+			}
+		}
+	}
+	/**
+	 * Handles one ready channel. A channel that fails is closed; a peer is retried later.
+	 */
+	private void handle(SelectionKey key) {
+		if (!key.isValid()) return;
+		try {
+			if (key.isAcceptable()) {
+				final SocketChannel channel = server.accept();
+				if (channel == null) return;
+				channel.configureBlocking(false);
+				//each incoming connection buffers up to one whole frame
+				channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(Integer.BYTES + maxFrame));
+			}
+			else if (key.attachment() instanceof Peer) {
+				final Peer peer = (Peer)key.attachment();
+				if (key.isConnectable() && peer.channel.finishConnect()) {
+					key.interestOps(0);
+				}
+				if (key.isValid() && key.isWritable()) write(peer);
+			}
+			else if (key.isReadable() && !read((SocketChannel)key.channel(), (ByteBuffer)key.attachment())) {
+				//the other process went away, which is its business
+				close(key);
+			}
+		}
+		catch (IOException e) {
+			if (key.attachment() instanceof Peer) {
+				disconnect((Peer)key.attachment());
+			}
+			else {
+				System.err.println("Dropped a migrant connection: " + e.getMessage());
+				close(key);
+			}
+		}
+	}
+	/**
+	 * Reads what has arrived on an incoming connection and takes every complete frame out of it.
+	 * @return False if the other end has closed the connection.
+	 * @throws IOException If the connection failed or sent something that isn't a frame for this spec.
+	 */
+	private boolean read(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		if (channel.read(buffer) < 0) return false;
+		buffer.flip();
+		while (buffer.remaining() >= Integer.BYTES) {
+			final int length = buffer.getInt(buffer.position());
+			if (length < 0 || length > maxFrame) throw new IOException("Migrant frame of " + length + " bytes");
+			if (buffer.remaining() < Integer.BYTES + length) break;
+			final ByteBuffer frame = buffer.slice(buffer.position() + Integer.BYTES, length);
+			buffer.position(buffer.position() + Integer.BYTES + length);
+			for (FloorQuadSnapshot layout : MigrantCodec.decode(spec, frame)) {
+				inbox.setRelease(inboxNext, layout);
+				inboxNext = (inboxNext + 1) % INBOX;
+			}
+		}
+		//keep the start of an incomplete frame for next time
+		buffer.compact();
+		return true;
+	}
+	/**
+	 * Starts connecting to every peer that isn't connected and is due for another try.
+	 */
+	private void connectPeers() {
+		final long now = System.nanoTime();
+		for (Peer peer : peers) {
+			if (peer.channel != null || now - peer.retryNanos < 0) continue;
+			try {
+				peer.channel = SocketChannel.open();
+				peer.channel.configureBlocking(false);
+				final int interest = peer.channel.connect(peer.address) ? 0 : SelectionKey.OP_CONNECT;
+				peer.channel.register(selector, interest, peer);
+			}
+			catch (IOException e) {
+				disconnect(peer);
+			}
+		}
+	}
+	/**
+	 * Sends the best few outgoing layouts to every connected peer that hasn't been sent the same ones already.
+	 */
+	private void flush() {
+		//score everything in the outbox, dropping repeats (neighbors often hold the same layout)
+		final FloorQuadSnapshot[] layouts = new FloorQuadSnapshot[BATCH];
+		final int[] metrics = new int[BATCH];
+		int count = 0;
+		for (int i = 0; i < outbox.length(); i++) {
+			final FloorQuadSnapshot layout = outbox.getAcquire(i);
+			if (layout == null || contains(layouts, count, layout)) continue;
+			final int metric = FloorQuadSnapshot.calculateFullMetric(layout);
+			//insertion into the top BATCH, best first
+			int at = count < BATCH ? count++ : BATCH;
+			while (at > 0 && metrics[at - 1] < metric) {
+				if (at < BATCH) {
+					layouts[at] = layouts[at - 1];
+					metrics[at] = metrics[at - 1];
+				}
+				at--;
+			}
+			if (at < BATCH) {
+				layouts[at] = layout;
+				metrics[at] = metric;
+			}
+		}
+		if (count == 0) return;
+		long batch = 0;
+		for (int i = 0; i < count; i++) batch = (batch * 31) + layouts[i].zobristHash();
+		//encoded once for everyone, and only if someone needs it
+		ByteBuffer frame = null;
+		for (Peer peer : peers) {
+			//a peer still chewing on the last frame misses this one; the next batch is newer anyway
+			if (peer.channel == null || !peer.channel.isConnected() || peer.pending != null || peer.sent == batch) continue;
+			if (frame == null) {
+				frame = ByteBuffer.allocate(MigrantCodec.frameBytes(spec, count));
+				MigrantCodec.encode(spec, layouts, metrics, count, frame);
+				frame.flip();
+			}
+			peer.pending = frame.duplicate();
+			peer.sent = batch;
+			try {
+				write(peer);
+			}
+			catch (IOException e) {
+				disconnect(peer);
+			}
+		}
+	}
+	/**
+	 * Returns true if the first count layouts include one equal to the given layout.
+	 */
+	private static boolean contains(FloorQuadSnapshot[] layouts, int count, FloorQuadSnapshot layout) {
+		for (int i = 0; i < count; i++) {
+			if (layouts[i] == layout || layouts[i].zobristHash() == layout.zobristHash()) return true;
+		}
+		return false;
+	}
+	/**
+	 * Writes as much of a peer's pending frame as the socket takes, and waits for it to be writable if that's not all.
+	 */
+	private void write(Peer peer) throws IOException {
+		final SelectionKey key = peer.channel.keyFor(selector);
+		if (peer.pending != null) {
+			peer.channel.write(peer.pending);
+			if (!peer.pending.hasRemaining()) peer.pending = null;
+		}
+		key.interestOps(peer.pending != null ? SelectionKey.OP_WRITE : 0);
+	}
+	/**
+	 * Drops the connection to a peer and schedules another try.
+	 */
+	private void disconnect(Peer peer) {
+		if (peer.channel != null) {
+			close(peer.channel.keyFor(selector));
+			try {
+				peer.channel.close();
+			}
+			catch (IOException e) {
+				//it's gone either way
+			}
+		}
+		peer.channel = null;
+		peer.pending = null;
+		//whoever answers next time may not have seen anything yet
+		peer.sent = 0;
+		peer.retryNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RECONNECT_INTERVAL);
+	}
+	/**
+	 * Cancels a key and closes its channel.
+	 */
+	private static void close(SelectionKey key) {
+		if (key == null) return;
+		key.cancel();
+		try {
+			key.channel().close();
+		}
+		catch (IOException e) {
+			//it's gone either way
+		}
+	}
+	/**
+	 * Stops the network thread and closes every connection. Migrants still in flight are lost.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		selector.wakeup();
+		try {
+			network.join(1000);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (SelectionKey key : selector.keys()) {
+			close(key);
+		}
+		selector.close();
+	}
+
+}
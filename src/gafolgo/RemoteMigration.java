@@ -0,0 +1,51 @@
+package gafolgo;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * Migration that spans processes. Islands in this process keep trading through the local migration,
+ * and every migration also leaves the outgoing layout with the peer network for other processes.
+ * When migrants from other processes have arrived, half the migrations take one of those instead of a local one.
+ * Never blocks on the network, so it is as non-blocking as the local migration it wraps.
+ */
+final class RemoteMigration implements Migration {
+	/**
+	 * How islands in this process trade with each other.
+	 */
+	private final Migration local;
+	/**
+	 * How layouts reach other processes.
+	 */
+	private final PeerNetwork network;
+
+	/**
+	 * Wraps a local migration.
+	 * @param local How islands in this process trade with each other.
+	 * @param network How layouts reach other processes. Must have a slot for every island.
+	 */
+	RemoteMigration(Migration local, PeerNetwork network) {
+		this.local = local;
+		this.network = network;
+	}
+	@Override
+	public boolean isDue(long iteration, RandomGenerator rand) {
+		return local.isDue(iteration, rand);
+	}
+	@Override
+	public FloorQuadSnapshot migrate(int island, FloorQuadSnapshot outgoing, RandomGenerator rand) throws InterruptedException {
+		network.offer(island, outgoing);
+		final FloorQuadSnapshot remote = network.poll(rand);
+		if (remote != null && rand.nextBoolean()) return remote;
+		return local.migrate(island, outgoing, rand);
+	}
+	@Override
+	public boolean sendsBest() {
+		return local.sendsBest();
+	}
+	@Override
+	public void leave(int island) {
+		local.leave(island);
+	}
+
+}
@@ -0,0 +1,81 @@
+package gafolgo;
+
+import javax.swing.Timer;
+
+/**
+ * @author Benjamin Groman
+ * This class updates every FloorPanel from a single Swing timer, so the search threads never touch the GUI.
+ * Workers publish an immutable frame now and then; on every tick the scheduler picks up the latest frame
+ * of each worker and skips the panels whose frame hasn't changed since the last tick.
+ * However fast the workers publish, the GUI thread does at most one update per panel per tick.
+ */
+final class RenderScheduler {
+	/**
+	 * Milliseconds between ticks, about ten frames a second.
+	 */
+	static final int FRAME_INTERVAL = (int)SearchWorker.PUBLISH_INTERVAL;
+	/**
+	 * The workers whose frames are shown.
+	 */
+	private final SearchWorker[] workers;
+	/**
+	 * The panel for each worker.
+	 */
+	private final FloorPanel[] panels;
+	/**
+	 * The frame each panel last showed. Only touched on the GUI thread.
+	 */
+	private final SearchWorker.Frame[] shown;
+	/**
+	 * Fires the ticks on the GUI thread.
+	 */
+	private final Timer timer;
+
+	/**
+	 * Creates a scheduler that keeps each panel up to date with the worker at the same index.
+	 * @param workers The workers whose frames are shown.
+	 * @param panels The panel for each worker.
+	 */
+	RenderScheduler(SearchWorker[] workers, FloorPanel[] panels) {
+		if (workers.length != panels.length) {
+			throw new IllegalArgumentException(workers.length + " workers but " + panels.length + " panels");
+		}
+		this.workers = workers;
+		this.panels = panels;
+		shown = new SearchWorker.Frame[workers.length];
+		timer = new Timer(FRAME_INTERVAL, event -> tick());
+		//if the GUI thread falls behind, skip ticks instead of piling them up
+		timer.setCoalesce(true);
+	}
+	/**
+	 * Tells the workers to start publishing and starts the ticks.
+	 */
+	void start() {
+		for (SearchWorker worker : workers) {
+			worker.setWatched(true);
+		}
+		timer.start();
+	}
+	/**
+	 * Stops the ticks and tells the workers they needn't publish any more.
+	 */
+	void stop() {
+		timer.stop();
+		for (SearchWorker worker : workers) {
+			worker.setWatched(false);
+		}
+	}
+	/**
+	 * Brings every panel up to date with the latest frame of its worker. Runs on the GUI thread.
+	 */
+	private void tick() {
+		for (int i = 0; i < workers.length; i++) {
+			final SearchWorker.Frame frame = workers[i].getPublished();
+			//nothing new since the last tick
+			if (frame == shown[i]) continue;
+			shown[i] = frame;
+			panels[i].update(frame.layout, frame.metric);
+		}
+	}
+
+}
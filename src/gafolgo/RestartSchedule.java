@@ -0,0 +1,52 @@
+package gafolgo;
+
+/**
+ * @author Benjamin Groman
+ * This enumeration represents the ways the patience of a restarting worker can grow from one restart to the next.
+ */
+enum RestartSchedule {
+	/**
+	 * The Luby sequence (1, 1, 2, 1, 1, 2, 4, 1, ...) times the base: mostly short runs with the occasional long one,
+	 * which is within a constant factor of the best fixed schedule without knowing what that is.
+	 */
+	LUBY,
+	/**
+	 * The base times 1.5 to the power of the restart count, so each run gets a little longer than the last.
+	 */
+	GEOMETRIC;
+
+	/**
+	 * How much longer each geometric run is than the one before.
+	 */
+	private static final double GROWTH = 1.5;
+
+	/**
+	 * Works out how many iterations without an improvement to allow before the next restart.
+	 * @param restarts How many restarts there have been so far.
+	 * @param base The patience before the first restart.
+	 */
+	long patience(int restarts, long base) {
+		switch (this) {
+		case LUBY: {
+			final long factor = luby(restarts + 1L);
+			//saturate rather than overflow for absurd bases
+			return factor > Long.MAX_VALUE / base ? Long.MAX_VALUE : base * factor;
+		}
+		default:
+			return (long)Math.min(Long.MAX_VALUE, base * Math.pow(GROWTH, restarts));
+		}
+	}
+	/**
+	 * Returns the i-th term of the Luby sequence, counting from one.
+	 */
+	static long luby(long i) {
+		while (true) {
+			//the smallest k with 2^k - 1 >= i
+			final int k = 64 - Long.numberOfLeadingZeros(i);
+			if (i == (1L << k) - 1) return 1L << (k - 1);
+			//otherwise the sequence repeats itself from the start
+			i -= (1L << (k - 1)) - 1;
+		}
+	}
+
+}
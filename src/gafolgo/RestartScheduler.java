@@ -0,0 +1,118 @@
+package gafolgo;
+
+/**
+ * @author Benjamin Groman
+ * This class decides when a worker has stopped getting anywhere and should start over somewhere else.
+ * It counts the iterations since the worker last improved on the best of its current run,
+ * and calls for a restart once that passes the patience given by the schedule, which grows with every restart.
+ * It also says where to restart from: a fresh shuffle of the same machines, to explore a new basin,
+ * or a perturbed copy of the global best, to dig further around the best basin found so far.
+ * Each worker needs its own.
+ */
+final class RestartScheduler {
+	/**
+	 * Restart from a random arrangement of the same machines.
+	 */
+	static final int SHUFFLE = 0;
+	/**
+	 * Restart from the best layout found so far, with a few random swaps.
+	 */
+	static final int PERTURB = 1;
+	/**
+	 * Alternate between the two, starting with a shuffle.
+	 */
+	static final int MIX = 2;
+	/**
+	 * How the patience grows.
+	 */
+	private final RestartSchedule schedule;
+	/**
+	 * The patience before the first restart, in iterations.
+	 */
+	private final long base;
+	/**
+	 * SHUFFLE, PERTURB or MIX.
+	 */
+	private final int source;
+	/**
+	 * The number of random swaps applied to a perturbed restart.
+	 */
+	final int perturbation;
+	/**
+	 * If true, perturbed restarts start from the best of the whole run rather than the worker's own best.
+	 * The global best depends on timing, so deterministic runs use their own.
+	 */
+	final boolean global;
+	/**
+	 * The number of restarts so far.
+	 */
+	private int restarts = 0;
+	/**
+	 * The iteration at which the current run last improved, or started.
+	 */
+	private long lastImprovement;
+	/**
+	 * The best metric of the current run.
+	 */
+	private int runBest;
+	/**
+	 * The iterations without an improvement allowed in the current run.
+	 */
+	private long patience;
+
+	/**
+	 * Creates a scheduler for one worker.
+	 * @param schedule How the patience grows.
+	 * @param base The patience before the first restart, in iterations. Must be positive.
+	 * @param source SHUFFLE, PERTURB or MIX.
+	 * @param perturbation The number of random swaps applied to a perturbed restart.
+	 * @param global If true, perturbed restarts start from the global best rather than the worker's own.
+	 */
+	RestartScheduler(RestartSchedule schedule, long base, int source, int perturbation, boolean global) {
+		if (base < 1) throw new IllegalArgumentException("Restart patience must be at least 1: " + base);
+		this.schedule = schedule;
+		this.base = base;
+		this.source = source;
+		this.perturbation = perturbation;
+		this.global = global;
+	}
+	/**
+	 * Starts counting from the given iteration and metric. Called when the worker begins, and after each restart.
+	 */
+	void started(long iteration, int metric) {
+		lastImprovement = iteration;
+		runBest = metric;
+		patience = schedule.patience(restarts, base);
+	}
+	/**
+	 * Tells the scheduler the worker's current metric, which resets the count if it beats the best of this run.
+	 * Cheap enough to call on every accepted move.
+	 */
+	void observe(long iteration, int metric) {
+		if (metric > runBest) {
+			runBest = metric;
+			lastImprovement = iteration;
+		}
+	}
+	/**
+	 * Returns true once the worker has gone long enough without an improvement.
+	 */
+	boolean isDue(long iteration) {
+		return iteration - lastImprovement >= patience;
+	}
+	/**
+	 * Counts a restart and returns true if it should start from a perturbed best, false for a shuffle.
+	 */
+	boolean restart() {
+		final boolean perturb = source == PERTURB || (source == MIX && (restarts & 1) == 1);
+		restarts++;
+		return perturb;
+	}
+	/**
+	 * Returns the number of restarts so far.
+	 */
+	int getRestarts() {
+		return restarts;
+	}
+
+}
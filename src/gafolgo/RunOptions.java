@@ -0,0 +1,944 @@
+package gafolgo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author Benjamin Groman
+ * This class holds the settings for a run, as read from the command line.
+ * Unrecognized or malformed options are reported with an IllegalArgumentException.
+ */
+final class RunOptions {
+	/**
+	 * Printed when the command line can't be understood.
+	 */
+	static final String USAGE = String.join(System.lineSeparator(),
+			"usage: gafolgo [options] [rows [cols [flavors|affinity-file]]]",
+			"  --help              print this message and exit",
+			"  --headless          run without the GUI and print the result on exit",
+			"  --jobs FILE         run one headless job per line of FILE (- for stdin), each line holding that job's",
+			"                      options on top of these, and print each result as a line as soon as it is done",
+			"  --job-slots N       jobs run at once on the shared pool of --jobs (default 1)",
+			"  --threads N         number of floor managers (default 64)",
+			"  --executor KIND     threads (a platform thread per manager) or pool (time-sliced on a pool) (default threads)",
+			"  --parallelism N     threads in the pool for --executor pool (default: one per core)",
+			"  --cpu-budget PCT    use at most PCT percent of the machine's CPU, less whatever other processes need,",
+			"                      by parking threads as needed (default 50 with the GUI, no limit with --headless;",
+			"                      not with --deterministic or --migration exchanger)",
+			"  --size N            rows and columns of a square floor",
+			"  --rows N            rows of the floor",
+			"  --cols N            columns of the floor",
+			"  --flavors N         number of machine flavors, with the default affinities",
+			"  --affinity FILE     affinity table to use (see AffinityModel.load)",
+			"  --seed N            master seed for the starting floor and every thread's random numbers",
+			"  --layout FILE       start every thread from this layout (binary, or a text grid); the floor comes from FILE",
+			"  --save-best FILE    write the best layout to FILE at the end (as a text grid if FILE ends in .txt;",
+			"                      with --jobs, only on a job's own line)",
+			"  --deterministic     migrate at synchronized epochs so that the same seed, threads and --iterations",
+			"                      give a bit-identical result (island migrations only, not with tiled or pool;",
+			"                      --iterations is its only budget)",
+			"  --time MS           wall-clock budget in milliseconds",
+			"  --iterations N      iteration budget per thread",
+			"  --target M          stop as soon as any thread reaches this metric",
+			"  --stagnation MS     stop once the best metric hasn't improved for this many milliseconds",
+			"  --gap PCT           stop once the best is within PCT percent of the upper bound on the metric",
+			"                      (default 0: stop only at the bound, where the best is provably optimal)",
+			"  --exact MS          after a headless run, search up to MS milliseconds (0 for no limit) for a proven",
+			"                      optimum by branch and bound, starting from the best found (floors of up to 64 cells)",
+			"  --format json|csv   how to print the headless result (default json)",
+			"  --migration KIND    exchanger, ring, torus or random (default ring)",
+			"  --migration-interval N  iterations between island migrations (default 10, or 1000 with --deterministic)",
+			"  --neighbors K       neighbors per island for --migration random (default 3)",
+			"  --engine KIND       climb (one floor per thread), genetic (a population per thread)",
+			"                      or tiled (every thread swapping on one shared floor)",
+			"  --batch M           candidate swaps scored per step for --engine climb (default 1)",
+			"  --batch-pick KIND   best (the best of the batch) or first (the first improving one) (default best)",
+			"  --moves LIST        move operators for --engine climb, from swap, adjacent, block, shift, cycle and guided,",
+			"                      as a comma-separated list or all (default swap)",
+			"  --move-select KIND  adaptive (favor the operators that pay off) or uniform (default adaptive)",
+			"  --restart KIND      luby or geometric: restart a climbing thread that stops improving, and start",
+			"                      every thread from its own shuffle (default: never restart)",
+			"  --restart-base N    iterations without improvement before the first restart (default 100000)",
+			"  --restart-from KIND shuffle, best (a perturbed copy of the best so far) or mix (alternate) (default mix)",
+			"  --perturbation N    random swaps applied to the best for a perturbed restart (default: cells / 32)",
+			"  --band-rows N       rows per locked band for --engine tiled (default: about four bands per thread)",
+			"  --population N      members per genetic population (default 32)",
+			"  --tournament K      members per selection tournament (default 3)",
+			"  --elite E           best members carried over unchanged (default 2)",
+			"  --mutation-swaps M  random swaps applied to every child (default 1)",
+			"  --policy KIND       flat, anneal, tabu or portfolio (a mix across threads) (default flat)",
+			"  --accept-odds N     flat and tabu take a move that is no better 1 time in N (default 20)",
+			"  --cooling KIND      geometric, linear or logarithmic (default geometric)",
+			"  --temperature T     initial annealing temperature (default 50)",
+			"  --final-temperature T  annealing temperature at the end of cooling (default 0.5)",
+			"  --cooling-steps N   iterations over which to cool (default: --iterations, or 10000000)",
+			"  --tabu-tenure N     iterations a moved cell stays tabu (default 50)",
+			"  --cache N           layouts whose metrics are remembered across threads, 0 for none (default 65536)",
+			"  --stats MS          print a CSV line of search counters to stderr every MS milliseconds",
+			"  --checkpoint FILE   save every thread's state to FILE now and then (memory-mapped)",
+			"  --checkpoint-interval N  iterations between saves (default 1000000)",
+			"  --resume FILE       start every thread from a checkpoint; the floor and thread count come from FILE",
+			"  --listen PORT       take migrants from other gafolgo processes on this TCP port",
+			"  --peers LIST        send the best layouts to these processes, as host:port[,host:port...]",
+			"                      (every process needs the same floor and --seed)");
+	/**
+	 * The number of threads used when none is requested. 32 was the minimum.
+	 */
+	static final int DEFAULT_THREADS = 64;
+	/**
+	 * The share of the machine's CPU a GUI run uses when none is requested, leaving the rest for the desktop.
+	 */
+	static final double DEFAULT_GUI_BUDGET = 0.5;
+	/**
+	 * If true, only the usage message is printed.
+	 */
+	boolean help = false;
+	/**
+	 * Where to read jobs from ("-" for stdin), or null to run once.
+	 */
+	String jobs = null;
+	/**
+	 * The number of jobs run at once.
+	 */
+	int jobSlots = 1;
+	/**
+	 * If true, no window is opened and the result is printed when the budget runs out.
+	 */
+	boolean headless = false;
+	/**
+	 * The number of floor managers to run.
+	 */
+	int threads = DEFAULT_THREADS;
+	/**
+	 * Either "threads" for a platform thread per worker, or "pool" for time slices on a shared pool.
+	 */
+	String executor = "threads";
+	/**
+	 * The number of pool threads for the pool executor.
+	 */
+	int parallelism = Runtime.getRuntime().availableProcessors();
+	/**
+	 * The share of the machine's CPU the run may use, or zero to run flat out without a LoadController.
+	 */
+	double cpuBudget = 0;
+	/**
+	 * The shape of the floor and its affinities.
+	 */
+	FloorSpec spec = FloorSpec.DEFAULT;
+	/**
+	 * The seed for the starting floor, or null for a random one.
+	 */
+	Long seed = null;
+	/**
+	 * If true, migrations happen at synchronized epochs so that a seeded run is repeatable.
+	 */
+	boolean deterministic = false;
+	/**
+	 * The wall-clock budget in milliseconds, or zero for none.
+	 */
+	long timeLimit = 0;
+	/**
+	 * The number of iterations each thread may run.
+	 */
+	long iterationLimit = Long.MAX_VALUE;
+	/**
+	 * The metric at which the run stops early.
+	 */
+	int target = Integer.MAX_VALUE;
+	/**
+	 * Milliseconds without an improvement after which the run stops, or zero for no limit.
+	 */
+	long stagnationLimit = 0;
+	/**
+	 * The run stops once the best is within this fraction of the upper bound.
+	 */
+	double gapTolerance = 0;
+	/**
+	 * Milliseconds the exact solver may run after a headless run, zero for no limit, or -1 to not run it.
+	 */
+	long exactTime = -1;
+	/**
+	 * Either "json" or "csv".
+	 */
+	String format = "json";
+	/**
+	 * How the threads trade layouts: "exchanger" for the shared rendezvous, or the name of a Topology.
+	 */
+	String migration = "ring";
+	/**
+	 * The number of iterations between island migrations.
+	 */
+	int migrationInterval = 10;
+	/**
+	 * The number of neighbors per island for a random topology.
+	 */
+	int neighbors = 3;
+	/**
+	 * Either "climb" for FloorManager or "genetic" for GeneticManager.
+	 */
+	String engine = "climb";
+	/**
+	 * The number of candidate swaps the climb engine scores per step.
+	 */
+	int batch = 1;
+	/**
+	 * If true, a batch takes its first improving candidate instead of its best.
+	 */
+	boolean batchFirst = false;
+	/**
+	 * The move operators climbers draw from, or null for plain random swaps.
+	 */
+	MoveOperator[] moves = null;
+	/**
+	 * If true, climbers favor the move operators that are paying off.
+	 */
+	boolean adaptiveMoves = true;
+	/**
+	 * How the patience of restarting climbers grows, or null to never restart.
+	 */
+	RestartSchedule restart = null;
+	/**
+	 * The iterations without improvement before the first restart.
+	 */
+	long restartBase = 100_000L;
+	/**
+	 * Where restarts start from: RestartScheduler.SHUFFLE, PERTURB or MIX.
+	 */
+	int restartFrom = RestartScheduler.MIX;
+	/**
+	 * The number of random swaps applied to a perturbed restart, or zero to pick one from the floor size.
+	 */
+	int perturbation = 0;
+	/**
+	 * The number of members per genetic population.
+	 */
+	int population = 32;
+	/**
+	 * The number of rows per locked band for the tiled engine, or zero to pick automatically.
+	 */
+	int bandRows = 0;
+	/**
+	 * The number of members per selection tournament.
+	 */
+	int tournament = 3;
+	/**
+	 * The number of best members carried over unchanged.
+	 */
+	int elite = 2;
+	/**
+	 * The number of random swaps applied to every child.
+	 */
+	int mutationSwaps = 1;
+	/**
+	 * One of "flat", "anneal", "tabu" or "portfolio".
+	 */
+	String policy = "flat";
+	/**
+	 * One over the chance that flat and tabu take a move that is no better.
+	 */
+	int acceptOdds = 20;
+	/**
+	 * How the annealing temperature falls.
+	 */
+	CoolingSchedule cooling = CoolingSchedule.GEOMETRIC;
+	/**
+	 * The initial annealing temperature.
+	 */
+	double temperature = 50;
+	/**
+	 * The annealing temperature at the end of cooling.
+	 */
+	double finalTemperature = 0.5;
+	/**
+	 * The number of iterations over which to cool, or zero to use the iteration budget.
+	 */
+	long coolingSteps = 0;
+	/**
+	 * How many iterations a moved cell stays tabu.
+	 */
+	int tabuTenure = 50;
+	/**
+	 * The number of entries in the shared fitness cache, or zero for no cache.
+	 */
+	int cacheSize = 1 << 16;
+	/**
+	 * Milliseconds between telemetry lines on stderr, or zero for none.
+	 */
+	long statsInterval = 0;
+	/**
+	 * Where to save checkpoints, or null for none.
+	 */
+	Path checkpoint = null;
+	/**
+	 * The number of iterations each thread runs between checkpoints.
+	 */
+	long checkpointInterval = 1_000_000L;
+	/**
+	 * The layout every thread starts from, or null for a random one.
+	 */
+	FloorQuadSnapshot layout = null;
+	/**
+	 * Where to write the best layout at the end, or null for nowhere.
+	 */
+	Path saveBest = null;
+	/**
+	 * The saved state of every thread when resuming, or null for a fresh start.
+	 */
+	Checkpoint.WorkerState[] resume = null;
+	/**
+	 * The TCP port to take migrants from other processes on, or -1 to not listen.
+	 */
+	int listenPort = -1;
+	/**
+	 * The processes to send migrants to.
+	 */
+	List<InetSocketAddress> peers = new ArrayList<>();
+
+	/**
+	 * Only parse() creates these.
+	 */
+	private RunOptions() {
+	}
+	/**
+	 * Reads the options from the command line.
+	 * The old positional form (rows, cols, flavors or affinity file) is still accepted.
+	 * @param args The command line arguments.
+	 * @return The settings for the run.
+	 */
+	static RunOptions parse(String[] args) {
+		final RunOptions options = new RunOptions();
+		//the floor is assembled at the end, since its pieces can come in any order
+		Integer rows = null;
+		Integer cols = null;
+		Integer flavors = null;
+		String affinityFile = null;
+		String layoutFile = null;
+		boolean threadsGiven = false;
+		boolean budgetGiven = false;
+		boolean intervalGiven = false;
+		boolean gapGiven = false;
+		int positional = 0;
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			switch (arg) {
+			case "--help":
+				options.help = true;
+				//nothing else matters
+				return options;
+			case "--headless":
+				options.headless = true;
+				break;
+			case "--jobs":
+				options.jobs = value(args, ++i, arg);
+				break;
+			case "--job-slots":
+				options.jobSlots = positive(arg, value(args, ++i, arg));
+				break;
+			case "--threads":
+				options.threads = positive(arg, value(args, ++i, arg));
+				threadsGiven = true;
+				break;
+			case "--executor":
+				options.executor = value(args, ++i, arg).toLowerCase();
+				if (!options.executor.equals("threads") && !options.executor.equals("pool")) {
+					throw new IllegalArgumentException("--executor must be threads or pool: " + options.executor);
+				}
+				break;
+			case "--parallelism":
+				options.parallelism = positive(arg, value(args, ++i, arg));
+				break;
+			case "--cpu-budget":
+				options.cpuBudget = parseDouble(arg, value(args, ++i, arg)) / 100;
+				if (!(options.cpuBudget > 0 && options.cpuBudget <= 1)) throw new IllegalArgumentException("--cpu-budget must be above 0 and at most 100");
+				budgetGiven = true;
+				break;
+			case "--size":
+				rows = positive(arg, value(args, ++i, arg));
+				cols = rows;
+				break;
+			case "--rows":
+				rows = positive(arg, value(args, ++i, arg));
+				break;
+			case "--cols":
+				cols = positive(arg, value(args, ++i, arg));
+				break;
+			case "--flavors":
+				flavors = positive(arg, value(args, ++i, arg));
+				break;
+			case "--affinity":
+				affinityFile = value(args, ++i, arg);
+				break;
+			case "--seed":
+				options.seed = parseLong(arg, value(args, ++i, arg));
+				break;
+			case "--deterministic":
+				options.deterministic = true;
+				break;
+			case "--time":
+				options.timeLimit = positiveLong(arg, value(args, ++i, arg));
+				break;
+			case "--iterations":
+				options.iterationLimit = positiveLong(arg, value(args, ++i, arg));
+				break;
+			case "--target":
+				options.target = parseInt(arg, value(args, ++i, arg));
+				break;
+			case "--stagnation":
+				options.stagnationLimit = positiveLong(arg, value(args, ++i, arg));
+				break;
+			case "--gap":
+				options.gapTolerance = parseDouble(arg, value(args, ++i, arg)) / 100;
+				gapGiven = true;
+				if (!(options.gapTolerance >= 0 && options.gapTolerance < 1)) throw new IllegalArgumentException("--gap must be at least 0 and below 100");
+				break;
+			case "--exact":
+				options.exactTime = parseLong(arg, value(args, ++i, arg));
+				if (options.exactTime < 0) throw new IllegalArgumentException("--exact must not be negative");
+				break;
+			case "--format":
+				options.format = value(args, ++i, arg);
+				if (!options.format.equals("json") && !options.format.equals("csv")) {
+					throw new IllegalArgumentException("--format must be json or csv: " + options.format);
+				}
+				break;
+			case "--migration":
+				options.migration = value(args, ++i, arg).toLowerCase();
+				if (!options.migration.equals("exchanger")) {
+					//fails early on a bad name
+					topology(options.migration);
+				}
+				break;
+			case "--migration-interval":
+				options.migrationInterval = positive(arg, value(args, ++i, arg));
+				intervalGiven = true;
+				break;
+			case "--neighbors":
+				options.neighbors = positive(arg, value(args, ++i, arg));
+				break;
+			case "--engine":
+				options.engine = value(args, ++i, arg).toLowerCase();
+				if (!options.engine.equals("climb") && !options.engine.equals("genetic") && !options.engine.equals("tiled")) {
+					throw new IllegalArgumentException("--engine must be climb, genetic or tiled: " + options.engine);
+				}
+				break;
+			case "--batch":
+				options.batch = positive(arg, value(args, ++i, arg));
+				break;
+			case "--batch-pick": {
+				final String pick = value(args, ++i, arg).toLowerCase();
+				if (!pick.equals("best") && !pick.equals("first")) {
+					throw new IllegalArgumentException("--batch-pick must be best or first: " + pick);
+				}
+				options.batchFirst = pick.equals("first");
+				break;
+			}
+			case "--moves":
+				options.moves = moveOperators(value(args, ++i, arg));
+				break;
+			case "--move-select": {
+				final String select = value(args, ++i, arg).toLowerCase();
+				if (!select.equals("adaptive") && !select.equals("uniform")) {
+					throw new IllegalArgumentException("--move-select must be adaptive or uniform: " + select);
+				}
+				options.adaptiveMoves = select.equals("adaptive");
+				break;
+			}
+			case "--restart": {
+				final String name = value(args, ++i, arg);
+				try {
+					options.restart = RestartSchedule.valueOf(name.toUpperCase());
+				}
+				catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("--restart must be luby or geometric: " + name, e);
+				}
+				break;
+			}
+			case "--restart-base":
+				options.restartBase = parseLong(arg, value(args, ++i, arg));
+				if (options.restartBase < 1) throw new IllegalArgumentException("--restart-base must be at least 1");
+				break;
+			case "--restart-from": {
+				final String from = value(args, ++i, arg).toLowerCase();
+				switch (from) {
+				case "shuffle":
+					options.restartFrom = RestartScheduler.SHUFFLE;
+					break;
+				case "best":
+					options.restartFrom = RestartScheduler.PERTURB;
+					break;
+				case "mix":
+					options.restartFrom = RestartScheduler.MIX;
+					break;
+				default:
+					throw new IllegalArgumentException("--restart-from must be shuffle, best or mix: " + from);
+				}
+				break;
+			}
+			case "--perturbation":
+				options.perturbation = positive(arg, value(args, ++i, arg));
+				break;
+			case "--band-rows":
+				options.bandRows = positive(arg, value(args, ++i, arg));
+				break;
+			case "--population":
+				options.population = parseInt(arg, value(args, ++i, arg));
+				if (options.population < 2) throw new IllegalArgumentException("--population must be at least 2");
+				break;
+			case "--tournament":
+				options.tournament = positive(arg, value(args, ++i, arg));
+				break;
+			case "--elite":
+				options.elite = parseInt(arg, value(args, ++i, arg));
+				break;
+			case "--mutation-swaps":
+				options.mutationSwaps = parseInt(arg, value(args, ++i, arg));
+				if (options.mutationSwaps < 0) throw new IllegalArgumentException("--mutation-swaps must not be negative");
+				break;
+			case "--policy":
+				options.policy = value(args, ++i, arg).toLowerCase();
+				switch (options.policy) {
+				case "flat": case "anneal": case "tabu": case "portfolio":
+					break;
+				default:
+					throw new IllegalArgumentException("--policy must be flat, anneal, tabu or portfolio: " + options.policy);
+				}
+				break;
+			case "--accept-odds":
+				options.acceptOdds = parseInt(arg, value(args, ++i, arg));
+				if (options.acceptOdds < 2) throw new IllegalArgumentException("--accept-odds must be at least 2");
+				break;
+			case "--cooling": {
+				final String name = value(args, ++i, arg);
+				try {
+					options.cooling = CoolingSchedule.valueOf(name.toUpperCase());
+				}
+				catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("--cooling must be geometric, linear or logarithmic: " + name, e);
+				}
+				break;
+			}
+			case "--temperature":
+				options.temperature = positiveDouble(arg, value(args, ++i, arg));
+				break;
+			case "--final-temperature":
+				options.finalTemperature = positiveDouble(arg, value(args, ++i, arg));
+				break;
+			case "--cooling-steps":
+				options.coolingSteps = parseLong(arg, value(args, ++i, arg));
+				break;
+			case "--tabu-tenure":
+				options.tabuTenure = positive(arg, value(args, ++i, arg));
+				break;
+			case "--cache":
+				options.cacheSize = parseInt(arg, value(args, ++i, arg));
+				if (options.cacheSize < 0) throw new IllegalArgumentException("--cache must not be negative");
+				break;
+			case "--stats":
+				options.statsInterval = positiveLong(arg, value(args, ++i, arg));
+				break;
+			case "--checkpoint":
+				options.checkpoint = Paths.get(value(args, ++i, arg));
+				break;
+			case "--checkpoint-interval":
+				options.checkpointInterval = parseLong(arg, value(args, ++i, arg));
+				if (options.checkpointInterval < 1) throw new IllegalArgumentException("--checkpoint-interval must be at least 1");
+				break;
+			case "--layout":
+				layoutFile = value(args, ++i, arg);
+				break;
+			case "--save-best":
+				options.saveBest = Paths.get(value(args, ++i, arg));
+				break;
+			case "--resume": {
+				final String file = value(args, ++i, arg);
+				try {
+					options.resume = Checkpoint.load(Paths.get(file));
+				}
+				catch (IOException e) {
+					throw new IllegalArgumentException("Could not read checkpoint: " + e.getMessage(), e);
+				}
+				break;
+			}
+			case "--listen":
+				options.listenPort = parseInt(arg, value(args, ++i, arg));
+				if (options.listenPort < 0 || options.listenPort > 65535) {
+					throw new IllegalArgumentException("--listen must be a port between 0 and 65535: " + options.listenPort);
+				}
+				break;
+			case "--peers":
+				for (String peer : value(args, ++i, arg).split(",")) {
+					options.peers.add(address(peer.trim()));
+				}
+				break;
+			default:
+				if (arg.startsWith("--")) throw new IllegalArgumentException("Unknown option: " + arg);
+				//the original positional arguments
+				switch (positional++) {
+				case 0:
+					rows = positive("rows", arg);
+					break;
+				case 1:
+					cols = positive("cols", arg);
+					break;
+				case 2:
+					//a number is a flavor count, anything else must be an affinity file
+					try {
+						flavors = Integer.parseInt(arg);
+					}
+					catch (NumberFormatException e) {
+						affinityFile = arg;
+					}
+					break;
+				default:
+					throw new IllegalArgumentException("Too many arguments: " + arg);
+				}
+			}
+		}
+		if (options.resume != null) {
+			//the checkpoint already says what the floor looks like and how many threads there were
+			if (rows != null || cols != null || flavors != null || affinityFile != null) {
+				throw new IllegalArgumentException("--resume takes the floor from the checkpoint and can't be combined with another");
+			}
+			if (threadsGiven && options.threads != options.resume.length) {
+				throw new IllegalArgumentException("The checkpoint has " + options.resume.length + " threads, not " + options.threads);
+			}
+			options.threads = options.resume.length;
+			options.spec = options.resume[0].current.spec;
+			if (layoutFile != null) throw new IllegalArgumentException("--resume and --layout both say where to start");
+		}
+		else if (layoutFile != null) {
+			//the layout says what the floor looks like; the affinities can still be chosen
+			final AffinityModel affinity = flavors != null || affinityFile != null ? buildSpec(1, 1, flavors, affinityFile).affinity : null;
+			try {
+				options.layout = LayoutIO.read(Paths.get(layoutFile), affinity);
+			}
+			catch (IOException e) {
+				throw new IllegalArgumentException("Could not read layout: " + e.getMessage(), e);
+			}
+			options.spec = options.layout.spec;
+			if ((rows != null && rows != options.spec.rows) || (cols != null && cols != options.spec.cols)) {
+				throw new IllegalArgumentException("--layout takes the floor from the file, which is " + options.spec);
+			}
+		}
+		else {
+			options.spec = buildSpec(rows, cols, flavors, affinityFile);
+		}
+		if (options.deterministic) {
+			//anything that depends on timing would make the run unrepeatable
+			if (options.migration.equals("exchanger")) {
+				throw new IllegalArgumentException("--deterministic needs an island --migration (ring, torus or random)");
+			}
+			if (options.engine.equals("tiled")) {
+				throw new IllegalArgumentException("--deterministic doesn't work with --engine tiled, where threads share a floor");
+			}
+			if (options.executor.equals("pool")) {
+				throw new IllegalArgumentException("--deterministic needs --executor threads, since every thread waits at each epoch");
+			}
+			if (options.isDistributed()) {
+				throw new IllegalArgumentException("--deterministic can't take migrants from other processes");
+			}
+			//these are checked against the clock or by whichever thread gets there first, so the threads would stop at different iterations
+			if (options.timeLimit != 0 || options.stagnationLimit != 0 || options.target != Integer.MAX_VALUE || gapGiven) {
+				throw new IllegalArgumentException("--deterministic stops on --iterations only, not --time, --target, --stagnation or --gap");
+			}
+			//everyone waits for everyone at each epoch, so they shouldn't come too often
+			if (!intervalGiven) options.migrationInterval = 1000;
+			//pick the seed now so it can be reported and used again
+			if (options.seed == null) options.seed = ThreadLocalRandom.current().nextLong();
+		}
+		if (options.isDistributed() && options.engine.equals("tiled")) {
+			throw new IllegalArgumentException("--listen and --peers need islands to trade, which --engine tiled doesn't have");
+		}
+		if (options.isDistributed() && options.seed == null && options.resume == null) {
+			//otherwise every process draws its own bag of machines and every migrant is refused
+			throw new IllegalArgumentException("--listen and --peers need a --seed shared by every process, so they start from the same machines");
+		}
+		if (options.executor.equals("pool") && options.migration.equals("exchanger")) {
+			//a worker waiting at the exchanger would hold a pool thread while its partner may not even be scheduled
+			throw new IllegalArgumentException("--executor pool needs a non-blocking --migration (ring, torus or random)");
+		}
+		if (options.exactTime >= 0 && !options.headless) {
+			throw new IllegalArgumentException("--exact only works with --headless, where there's a result to improve on");
+		}
+		if (options.exactTime >= 0 && options.spec.cells() > ExactSolver.MAX_CELLS) {
+			throw new IllegalArgumentException("--exact only handles floors of up to " + ExactSolver.MAX_CELLS + " cells, not " + options.spec);
+		}
+		if (options.elite < 0 || options.elite >= options.population) {
+			//the rest of every generation is bred, so at least one member has to be left over for it
+			throw new IllegalArgumentException("--elite must be at least 0 and below --population (" + options.population + "): " + options.elite);
+		}
+		if (options.moves != null && options.batch > 1) {
+			throw new IllegalArgumentException("--batch scores random swaps only, so it can't be combined with --moves");
+		}
+		if (options.jobs != null && (options.checkpoint != null || options.resume != null || options.isDistributed())) {
+			throw new IllegalArgumentException("--jobs can't save checkpoints or trade with other processes");
+		}
+		if (options.jobs != null && options.saveBest != null) {
+			//every job would write the same file; a job's own line can still name one
+			throw new IllegalArgumentException("--save-best can't be combined with --jobs; put it on each job's line instead");
+		}
+		if (budgetGiven && (options.jobs != null || options.deterministic)) {
+			//jobs would each steer the same process, and an epoch would wait forever for a parked thread
+			throw new IllegalArgumentException("--cpu-budget can't be combined with --jobs or --deterministic");
+		}
+		if (budgetGiven && options.migration.equals("exchanger")) {
+			//a thread at the exchanger would mostly wait out the timeout for a partner that is parked
+			throw new IllegalArgumentException("--cpu-budget needs a non-blocking --migration (ring, torus or random)");
+		}
+		//the GUI used to sleep after every swap to leave the machine usable; now it keeps to a budget instead
+		if (!budgetGiven && !options.headless && options.jobs == null && !options.deterministic && !options.migration.equals("exchanger")) {
+			options.cpuBudget = DEFAULT_GUI_BUDGET;
+		}
+		//with --jobs, every line can bring its own budget
+		if (options.headless && options.jobs == null && options.timeLimit <= 0 && options.iterationLimit == Long.MAX_VALUE
+				&& options.target == Integer.MAX_VALUE && options.stagnationLimit <= 0) {
+			throw new IllegalArgumentException("--headless needs a --time, --iterations, --target or --stagnation to know when to stop");
+		}
+		return options;
+	}
+	/**
+	 * Builds the registry that the threads of this run publish their improvements to, which also ends the run.
+	 */
+	BestRegistry createRegistry() {
+		return new BestRegistry(target, stagnationLimit);
+	}
+	/**
+	 * Returns the metric at which the run may stop because it is close enough to optimal.
+	 * @param bound An upper bound on the metric, from FloorBound.
+	 */
+	int boundTarget(int bound) {
+		return (int)Math.ceil(bound - (gapTolerance * Math.abs(bound)));
+	}
+	/**
+	 * Builds the fitness cache the threads of this run share, or returns null if it is turned off.
+	 */
+	FitnessCache createCache() {
+		return cacheSize > 0 ? new FitnessCache(cacheSize) : null;
+	}
+	/**
+	 * Builds and starts the telemetry for this run. It samples the best once a second unless --stats asks for more often.
+	 * @param registry Where the telemetry reads the global best.
+	 * @param cache The fitness cache whose hit rate is reported, or null.
+	 */
+	SearchTelemetry createTelemetry(BestRegistry registry, FitnessCache cache) {
+		final SearchTelemetry telemetry = new SearchTelemetry(registry, threads, cache);
+		telemetry.start(statsInterval > 0 ? statsInterval : 1000, statsInterval > 0 ? System.err : null);
+		return telemetry;
+	}
+	/**
+	 * Builds the group that runs the given workers, on a thread each or on a pool as requested.
+	 */
+	WorkerGroup createGroup(SearchWorker[] workers) {
+		return new WorkerGroup(workers, executor.equals("pool") ? parallelism : 0);
+	}
+	/**
+	 * Builds the controller that keeps the given workers within the CPU budget, or returns null if there is none.
+	 */
+	LoadController createController(SearchWorker[] workers) {
+		return cpuBudget > 0 ? new LoadController(workers, cpuBudget, executor.equals("pool") ? parallelism : workers.length) : null;
+	}
+	/**
+	 * Returns true if this run trades layouts with other processes.
+	 */
+	boolean isDistributed() {
+		return listenPort >= 0 || !peers.isEmpty();
+	}
+	/**
+	 * Starts listening for and connecting to other processes, or returns null if this run doesn't trade with any.
+	 * @throws IOException If the port can't be listened on.
+	 */
+	PeerNetwork openNetwork() throws IOException {
+		return isDistributed() ? new PeerNetwork(spec, threads, listenPort, peers) : null;
+	}
+	/**
+	 * Builds the migration that the threads of this run share.
+	 * @param seed Used to wire a random topology.
+	 * @param network How layouts reach other processes, or null to keep them within this one.
+	 */
+	Migration createMigration(long seed, PeerNetwork network) {
+		final Migration local;
+		if (migration.equals("exchanger")) local = ExchangerMigration.SWAP_SPOT;
+		else if (deterministic) local = new EpochMigration(threads, topology(migration), neighbors, migrationInterval, seed);
+		else local = new IslandMigration(threads, topology(migration), neighbors, migrationInterval, seed);
+		return network != null ? new RemoteMigration(local, network) : local;
+	}
+	/**
+	 * Returns the number of rows per band for the tiled engine: as given, or enough for about four bands per thread.
+	 */
+	int bandRows() {
+		if (bandRows > 0) return bandRows;
+		return Math.max(1, spec.rows / (threads * 4));
+	}
+	/**
+	 * Builds the acceptance policy for one worker. A portfolio cycles through flat, anneal and tabu by worker index.
+	 * @param worker The index of the worker.
+	 */
+	AcceptancePolicy createPolicy(int worker) {
+		String kind = policy;
+		if (kind.equals("portfolio")) {
+			kind = new String[] {"flat", "anneal", "tabu"}[worker % 3];
+		}
+		switch (kind) {
+		case "anneal": {
+			//cool over the whole budget if there is one
+			long steps = coolingSteps;
+			if (steps <= 0) steps = iterationLimit != Long.MAX_VALUE ? iterationLimit : 10_000_000L;
+			return new AnnealingAcceptance(cooling, temperature, finalTemperature, steps);
+		}
+		case "tabu":
+			return new TabuAcceptance(spec.cells(), tabuTenure, acceptOdds);
+		default:
+			//the default is stateless and can be shared
+			return acceptOdds == 20 ? FlatChanceAcceptance.DEFAULT : new FlatChanceAcceptance(acceptOdds);
+		}
+	}
+	/**
+	 * Builds the restart scheduler for one climbing worker, or returns null if restarts are off.
+	 */
+	RestartScheduler createRestarts() {
+		if (restart == null) return null;
+		final int swaps = perturbation > 0 ? perturbation : Math.max(2, spec.cells() / 32);
+		//the global best depends on which thread got there first, which would make a deterministic run unrepeatable
+		return new RestartScheduler(restart, restartBase, restartFrom, swaps, !deterministic);
+	}
+	/**
+	 * Builds the move set for one climbing worker, or returns null if it only swaps at random.
+	 */
+	MoveSet createMoves() {
+		return moves != null ? new MoveSet(moves, adaptiveMoves) : null;
+	}
+	/**
+	 * Reads a comma-separated list of move operator names, or all of them for "all".
+	 */
+	private static MoveOperator[] moveOperators(String list) {
+		if (list.equalsIgnoreCase("all")) return MoveOperator.values();
+		final String[] names = list.split(",");
+		final MoveOperator[] operators = new MoveOperator[names.length];
+		for (int i = 0; i < names.length; i++) {
+			try {
+				operators[i] = MoveOperator.valueOf(names[i].trim().toUpperCase());
+			}
+			catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("--moves takes swap, adjacent, block, shift, cycle, guided or all: " + names[i], e);
+			}
+		}
+		return operators;
+	}
+	/**
+	 * Looks up a topology by its lower-case name.
+	 */
+	private static Topology topology(String name) {
+		try {
+			return Topology.valueOf(name.toUpperCase());
+		}
+		catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("--migration must be exchanger, ring, torus or random: " + name, e);
+		}
+	}
+	/**
+	 * Parses a host:port, resolving the host right away so a typo is reported before the run starts.
+	 */
+	private static InetSocketAddress address(String peer) {
+		final int colon = peer.lastIndexOf(':');
+		if (colon <= 0) throw new IllegalArgumentException("--peers expects host:port: " + peer);
+		final int port = parseInt("--peers", peer.substring(colon + 1));
+		if (port < 1 || port > 65535) throw new IllegalArgumentException("--peers port must be between 1 and 65535: " + peer);
+		final InetSocketAddress address = new InetSocketAddress(peer.substring(0, colon), port);
+		if (address.isUnresolved()) throw new IllegalArgumentException("--peers has an unknown host: " + peer);
+		return address;
+	}
+	/**
+	 * Puts together the floor from whichever pieces were given.
+	 * The columns default to the rows, and everything defaults to the original problem.
+	 */
+	private static FloorSpec buildSpec(Integer rows, Integer cols, Integer flavors, String affinityFile) {
+		final FloorSpec fallback = FloorSpec.DEFAULT;
+		final int r = rows != null ? rows : fallback.rows;
+		final int c = cols != null ? cols : r;
+		if (affinityFile != null) {
+			final AffinityModel model;
+			try {
+				model = AffinityModel.load(Paths.get(affinityFile));
+			}
+			catch (IOException e) {
+				throw new IllegalArgumentException("Could not read affinity file: " + e.getMessage(), e);
+			}
+			if (flavors != null && flavors != model.flavors) {
+				throw new IllegalArgumentException("Affinity file has " + model.flavors + " flavors, not " + flavors);
+			}
+			return new FloorSpec(r, c, model);
+		}
+		if (flavors != null) return new FloorSpec(r, c, flavors);
+		return new FloorSpec(r, c, fallback.affinity);
+	}
+	/**
+	 * Returns the value following an option, failing if there isn't one.
+	 */
+	private static String value(String[] args, int index, String option) {
+		if (index >= args.length) throw new IllegalArgumentException(option + " needs a value");
+		return args[index];
+	}
+	/**
+	 * Parses a number that must be at least one.
+	 */
+	private static int positive(String option, String value) {
+		final int parsed = parseInt(option, value);
+		if (parsed < 1) throw new IllegalArgumentException(option + " must be at least 1: " + value);
+		return parsed;
+	}
+	/**
+	 * Parses a long that must be at least one, for budgets and intervals where zero or less would mean nothing.
+	 */
+	private static long positiveLong(String option, String value) {
+		final long parsed = parseLong(option, value);
+		if (parsed < 1) throw new IllegalArgumentException(option + " must be at least 1: " + value);
+		return parsed;
+	}
+	/**
+	 * Parses a number that must be greater than zero.
+	 */
+	private static double positiveDouble(String option, String value) {
+		final double parsed = parseDouble(option, value);
+		if (!(parsed > 0)) throw new IllegalArgumentException(option + " must be greater than zero: " + value);
+		return parsed;
+	}
+	/**
+	 * Parses a double, naming the option if it isn't one.
+	 */
+	private static double parseDouble(String option, String value) {
+		try {
+			return Double.parseDouble(value);
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException(option + " expects a number: " + value, e);
+		}
+	}
+	/**
+	 * Parses an int, naming the option if it isn't one.
+	 */
+	private static int parseInt(String option, String value) {
+		try {
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException(option + " expects a number: " + value, e);
+		}
+	}
+	/**
+	 * Parses a long, naming the option if it isn't one.
+	 */
+	private static long parseLong(String option, String value) {
+		try {
+			return Long.parseLong(value);
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException(option + " expects a number: " + value, e);
+		}
+	}
+
+}
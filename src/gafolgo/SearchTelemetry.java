@@ -0,0 +1,357 @@
+package gafolgo;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * @author Benjamin Groman
+ * This class collects counters from every worker of a run so we can see what they are doing.
+ * Workers count in plain fields of their own and add them here every few thousand iterations,
+ * so the hot loop never touches shared memory. The totals are LongAdders, so even 64 threads flushing
+ * at once don't fight over one cache line.
+ * <p>
+ * A background thread samples the global best once per period to build a best-over-time series,
+ * and optionally prints a CSV line with the totals so far. Everything is also visible over JMX.
+ */
+final class SearchTelemetry implements SearchTelemetryMBean {
+	/**
+	 * Index of the iteration count in a worker's pending counters.
+	 */
+	static final int ITERATIONS = 0;
+	/**
+	 * Index of the accepted move count in a worker's pending counters.
+	 */
+	static final int ACCEPTED = 1;
+	/**
+	 * Index of the rejected move count in a worker's pending counters.
+	 */
+	static final int REJECTED = 2;
+	/**
+	 * Index of the count of layouts that arrived through migration.
+	 */
+	static final int EXCHANGES = 3;
+	/**
+	 * Index of the count of arrived layouts that had a different bag of machines.
+	 */
+	static final int REFUSED = 4;
+	/**
+	 * Index of the count of migrations where nothing arrived.
+	 */
+	static final int EMPTY = 5;
+	/**
+	 * Index of the nanoseconds spent waiting in migration.
+	 */
+	static final int WAIT_NANOS = 6;
+	/**
+	 * Index of the count of restarts from a new layout.
+	 */
+	static final int RESTARTS = 7;
+	/**
+	 * The number of counters each worker keeps.
+	 */
+	static final int COUNTERS = 8;
+	/**
+	 * The number of power-of-two buckets in the wait histogram, enough for any long.
+	 */
+	static final int BUCKETS = 64;
+	/**
+	 * The longest the best-over-time series gets before it is thinned out.
+	 */
+	private static final int MAX_SERIES = 4096;
+	/**
+	 * Used to give every run in this JVM its own JMX name.
+	 */
+	private static final AtomicInteger RUNS = new AtomicInteger();
+	/**
+	 * The column names of the periodic CSV line.
+	 */
+	private static final String CSV_HEADER = "elapsedMillis,iterations,accepted,rejected,exchanges,refused,empty,"
+			+ "waitP50Nanos,waitP99Nanos,bestMetric,cacheHits,cacheMisses,restarts";
+	/**
+	 * The totals, indexed like the workers' pending counters.
+	 */
+	private final LongAdder[] totals = new LongAdder[COUNTERS];
+	/**
+	 * The wait histogram, bucketed by the bit length of the wait in nanoseconds.
+	 */
+	private final AtomicLongArray waits = new AtomicLongArray(BUCKETS);
+	/**
+	 * The iterations flushed by each worker. Each slot only has one writer.
+	 */
+	private final AtomicLongArray workerIterations;
+	/**
+	 * Where the global best is read from.
+	 */
+	private final BestRegistry registry;
+	/**
+	 * The fitness cache of the run, or null if it has none.
+	 */
+	private final FitnessCache cache;
+	/**
+	 * When the run started, as given by System.nanoTime().
+	 */
+	private final long startNanos = System.nanoTime();
+	/**
+	 * Sample times of the best-over-time series. Guarded by this.
+	 */
+	private final long[] seriesMillis = new long[MAX_SERIES];
+	/**
+	 * Best metrics of the best-over-time series. Guarded by this.
+	 */
+	private final int[] seriesMetrics = new int[MAX_SERIES];
+	/**
+	 * The number of points in the series. Guarded by this.
+	 */
+	private int seriesLength = 0;
+	/**
+	 * Only every stride-th sample is kept, doubling every time the series fills up. Guarded by this.
+	 */
+	private int stride = 1;
+	/**
+	 * The number of samples taken, kept or not. Guarded by this.
+	 */
+	private long samples = 0;
+	/**
+	 * Runs the sampling and logging. Null until started.
+	 */
+	private ScheduledExecutorService sampler = null;
+	/**
+	 * Where the periodic CSV line goes, or null for nowhere.
+	 */
+	private PrintStream log = null;
+	/**
+	 * The name this was registered under, or null if it wasn't.
+	 */
+	private ObjectName name = null;
+
+	/**
+	 * Creates empty telemetry for a run.
+	 * @param registry Where the global best is read from.
+	 * @param workers The number of workers.
+	 * @param cache The fitness cache whose hit rate is reported, or null if there is none.
+	 */
+	SearchTelemetry(BestRegistry registry, int workers, FitnessCache cache) {
+		this.registry = registry;
+		this.cache = cache;
+		for (int i = 0; i < COUNTERS; i++) {
+			totals[i] = new LongAdder();
+		}
+		workerIterations = new AtomicLongArray(workers);
+	}
+	/**
+	 * Registers with JMX and starts sampling the best metric.
+	 * @param periodMillis Milliseconds between samples (and log lines).
+	 * @param log Where to print a CSV line every period, or null for nowhere.
+	 */
+	void start(long periodMillis, PrintStream log) {
+		this.log = log;
+		try {
+			name = new ObjectName("gafolgo:type=SearchTelemetry,run=" + RUNS.incrementAndGet());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		}
+		catch (JMException e) {
+			//not being able to watch the run is no reason to stop it
+			System.err.println("Could not register telemetry with JMX: " + e.getMessage());
+			name = null;
+		}
+		if (log != null) log.println(CSV_HEADER);
+		sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "telemetry");
+			//don't let this thread keep the program from terminating
+			thread.setDaemon(true);
+			return thread;
+		});
+		sampler.scheduleAtFixedRate(this::sample, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+	/**
+	 * Adds a worker's pending counters to the totals and clears them.
+	 * @param worker The index of the worker.
+	 * @param iterations The worker's iteration counter.
+	 * @param pending The worker's counters, indexed by ITERATIONS, ACCEPTED and so on.
+	 * @param pendingWaits The worker's wait histogram.
+	 */
+	void flush(int worker, long iterations, long[] pending, long[] pendingWaits) {
+		for (int i = 0; i < COUNTERS; i++) {
+			if (pending[i] != 0) {
+				totals[i].add(pending[i]);
+				pending[i] = 0;
+			}
+		}
+		for (int i = 0; i < BUCKETS; i++) {
+			if (pendingWaits[i] != 0) {
+				waits.addAndGet(i, pendingWaits[i]);
+				pendingWaits[i] = 0;
+			}
+		}
+		workerIterations.set(worker, iterations);
+	}
+	/**
+	 * Returns the histogram bucket for a wait: its bit length, so bucket b holds waits below 2^b nanoseconds.
+	 */
+	static int bucket(long nanos) {
+		return BUCKETS - Long.numberOfLeadingZeros(Math.max(nanos, 0));
+	}
+	/**
+	 * Samples the best metric into the series and prints a log line if asked to.
+	 */
+	private void sample() {
+		final BestRegistry.Best best = registry.get();
+		final int metric = best != null ? best.metric : Integer.MIN_VALUE;
+		record(getElapsedMillis(), metric);
+		if (log != null) log.println(csvLine());
+	}
+	/**
+	 * Adds a point to the best-over-time series, thinning it out when it is full.
+	 */
+	private synchronized void record(long millis, int metric) {
+		if (samples++ % stride != 0) return;
+		if (seriesLength == MAX_SERIES) {
+			//keep every other point and only take half as many from now on
+			for (int i = 0; i < MAX_SERIES / 2; i++) {
+				seriesMillis[i] = seriesMillis[i * 2];
+				seriesMetrics[i] = seriesMetrics[i * 2];
+			}
+			seriesLength = MAX_SERIES / 2;
+			stride *= 2;
+		}
+		seriesMillis[seriesLength] = millis;
+		seriesMetrics[seriesLength] = metric;
+		seriesLength++;
+	}
+	/**
+	 * Returns the totals so far as a CSV line matching CSV_HEADER.
+	 */
+	String csvLine() {
+		return getElapsedMillis() + "," + getIterations() + "," + getAcceptedMoves() + "," + getRejectedMoves()
+				+ "," + getExchanges() + "," + getRefusedExchanges() + "," + getEmptyExchanges()
+				+ "," + getExchangeWaitP50Nanos() + "," + getExchangeWaitP99Nanos() + "," + getBestMetric()
+				+ "," + getCacheHits() + "," + getCacheMisses() + "," + getRestarts();
+	}
+	/**
+	 * Stops sampling, prints a last log line and unregisters from JMX.
+	 * Call once the workers have stopped and flushed, so the last line has the final totals.
+	 */
+	void close() {
+		if (sampler != null) sampler.shutdownNow();
+		sample();
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			}
+			catch (JMException e) {
+				//it's going away either way
+			}
+		}
+	}
+	/**
+	 * Returns the smallest bucket bound that covers the given fraction of the waits, or zero if there were none.
+	 */
+	private long waitPercentile(double fraction) {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) count += waits.get(i);
+		if (count == 0) return 0;
+		final long wanted = (long)Math.ceil(count * fraction);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += waits.get(i);
+			if (seen >= wanted) return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+		}
+		return Long.MAX_VALUE;
+	}
+	@Override
+	public long getElapsedMillis() {
+		return (System.nanoTime() - startNanos) / 1_000_000L;
+	}
+	@Override
+	public long getIterations() {
+		return totals[ITERATIONS].sum();
+	}
+	@Override
+	public long[] getWorkerIterations() {
+		final long[] result = new long[workerIterations.length()];
+		for (int i = 0; i < result.length; i++) result[i] = workerIterations.get(i);
+		return result;
+	}
+	@Override
+	public long getAcceptedMoves() {
+		return totals[ACCEPTED].sum();
+	}
+	@Override
+	public long getRejectedMoves() {
+		return totals[REJECTED].sum();
+	}
+	@Override
+	public long getExchanges() {
+		return totals[EXCHANGES].sum();
+	}
+	@Override
+	public long getRefusedExchanges() {
+		return totals[REFUSED].sum();
+	}
+	@Override
+	public long getEmptyExchanges() {
+		return totals[EMPTY].sum();
+	}
+	@Override
+	public long getRestarts() {
+		return totals[RESTARTS].sum();
+	}
+	@Override
+	public long getExchangeWaitNanos() {
+		return totals[WAIT_NANOS].sum();
+	}
+	@Override
+	public long[] getExchangeWaitHistogram() {
+		final long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) result[i] = waits.get(i);
+		return result;
+	}
+	@Override
+	public long getExchangeWaitP50Nanos() {
+		return waitPercentile(0.5);
+	}
+	@Override
+	public long getExchangeWaitP99Nanos() {
+		return waitPercentile(0.99);
+	}
+	@Override
+	public int getBestMetric() {
+		final BestRegistry.Best best = registry.get();
+		return best != null ? best.metric : Integer.MIN_VALUE;
+	}
+	@Override
+	public synchronized long[] getBestSeriesMillis() {
+		return Arrays.copyOf(seriesMillis, seriesLength);
+	}
+	@Override
+	public synchronized int[] getBestSeriesMetrics() {
+		return Arrays.copyOf(seriesMetrics, seriesLength);
+	}
+	@Override
+	public long getCacheHits() {
+		return cache != null ? cache.getHits() : 0;
+	}
+	@Override
+	public long getCacheMisses() {
+		return cache != null ? cache.getMisses() : 0;
+	}
+	@Override
+	public long getCacheEvictions() {
+		return cache != null ? cache.getEvictions() : 0;
+	}
+	@Override
+	public double getCacheHitRate() {
+		return cache != null ? cache.getHitRate() : 0;
+	}
+
+}
@@ -0,0 +1,90 @@
+package gafolgo;
+
+/**
+ * @author Benjamin Groman
+ * The attributes of a run that can be watched over JMX, e.g. with jconsole. Implemented by SearchTelemetry.
+ * Counters only include what the workers have flushed, which happens every few thousand iterations.
+ */
+public interface SearchTelemetryMBean {
+	/**
+	 * Returns the milliseconds since the run started.
+	 */
+	long getElapsedMillis();
+	/**
+	 * Returns the iterations completed by all workers.
+	 */
+	long getIterations();
+	/**
+	 * Returns the iterations completed by each worker, in worker order.
+	 */
+	long[] getWorkerIterations();
+	/**
+	 * Returns the moves that the acceptance policies took.
+	 */
+	long getAcceptedMoves();
+	/**
+	 * Returns the moves that the acceptance policies turned down.
+	 */
+	long getRejectedMoves();
+	/**
+	 * Returns the number of layouts that arrived through migration.
+	 */
+	long getExchanges();
+	/**
+	 * Returns the number of layouts that arrived through migration but had a different bag of machines.
+	 */
+	long getRefusedExchanges();
+	/**
+	 * Returns the number of migrations where nothing arrived (e.g. the exchanger timed out).
+	 */
+	long getEmptyExchanges();
+	/**
+	 * Returns the number of times a worker gave up on its layout and restarted from a new one.
+	 */
+	long getRestarts();
+	/**
+	 * Returns the total time spent waiting in migration, in nanoseconds.
+	 */
+	long getExchangeWaitNanos();
+	/**
+	 * Returns how many migration waits fell in each power-of-two bucket: bucket b counts waits below 2^b nanoseconds
+	 * that didn't fit in bucket b - 1.
+	 */
+	long[] getExchangeWaitHistogram();
+	/**
+	 * Returns the median migration wait, rounded up to a power of two nanoseconds.
+	 */
+	long getExchangeWaitP50Nanos();
+	/**
+	 * Returns the 99th percentile migration wait, rounded up to a power of two nanoseconds.
+	 */
+	long getExchangeWaitP99Nanos();
+	/**
+	 * Returns the best metric found by any worker.
+	 */
+	int getBestMetric();
+	/**
+	 * Returns when each point of the best-over-time series was sampled, in milliseconds since the start.
+	 */
+	long[] getBestSeriesMillis();
+	/**
+	 * Returns the best metric at each point of the best-over-time series.
+	 */
+	int[] getBestSeriesMetrics();
+	/**
+	 * Returns the number of layouts whose metric was found in the fitness cache instead of being scored.
+	 */
+	long getCacheHits();
+	/**
+	 * Returns the number of layouts the fitness cache had to score.
+	 */
+	long getCacheMisses();
+	/**
+	 * Returns the number of entries the fitness cache pushed out to make room.
+	 */
+	long getCacheEvictions();
+	/**
+	 * Returns the fraction of fitness cache lookups that were hits, or zero if there were none (or no cache).
+	 */
+	double getCacheHitRate();
+}
@@ -0,0 +1,604 @@
+package gafolgo;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Benjamin Groman
+ * This class holds what every search worker has in common: how it trades with the others,
+ * the best layout it has found, its budget, and its link to the GUI.
+ * Subclasses supply one step of the actual search in step().
+ * <p>
+ * A worker is a task, not a thread. It can run on a platform thread of its own through run(),
+ * or a slice at a time on a shared pool through runSlice(); WorkerGroup takes care of either.
+ * Either way only one thread runs a given worker at a time.
+ * <p>
+ * A LoadController can park a worker between steps to keep the run within its CPU budget. A parked worker
+ * on a thread of its own blocks until it is unparked; one on a pool gives up its slot and is handed back
+ * to the pool when it is unparked.
+ */
+public abstract class SearchWorker implements Runnable {
+	/**
+	 * How many loop checks pass between looks at the clock for stagnation.
+	 */
+	private static final int STAGNATION_CHECK_INTERVAL = 1024;
+	/**
+	 * How many iterations pass between telemetry flushes when running flat out.
+	 * A throttled thread flushes more often, since its iterations are slow.
+	 */
+	private static final int TELEMETRY_FLUSH_INTERVAL = 4096;
+	/**
+	 * How many steps of a slice pass between looks at the clock. Must be a power of two.
+	 */
+	private static final int SLICE_CHECK_INTERVAL = 64;
+	/**
+	 * The fewest milliseconds between published frames. The RenderScheduler polls at about the same rate.
+	 */
+	static final long PUBLISH_INTERVAL = 100;
+	/**
+	 * How this worker trades solutions with the other workers. Null for workers that never trade.
+	 */
+	final Migration migration;
+	/**
+	 * This worker's index among the islands of the migration.
+	 */
+	final int island;
+	/**
+	 * The best layout of the floor found so far.
+	 */
+	FloorQuadSnapshot bestFloor;
+	/**
+	 * The best value of the affinity metric found so far.
+	 */
+	int bestMetric;
+	/**
+	 * The number of iterations of the main loop completed so far.
+	 */
+	long iterations = 0;
+	/**
+	 * The loop ends on its own after this many iterations.
+	 */
+	long iterationLimit = Long.MAX_VALUE;
+	/**
+	 * The loop ends on its own once the best metric reaches this value.
+	 */
+	int target = Integer.MAX_VALUE;
+	/**
+	 * Milliseconds to sleep after every iteration. Zero means don't sleep at all.
+	 */
+	long throttle = 5;
+	/**
+	 * The seed of this worker's random number generator, saved with checkpoints so a resumed run can be reseeded.
+	 */
+	long seed = ThreadLocalRandom.current().nextLong();
+	/**
+	 * Set to make the worker stop at the end of its current step.
+	 */
+	private volatile boolean cancelled = false;
+	/**
+	 * True while the worker is told to hold off between steps. Only written while holding this.
+	 */
+	private volatile boolean parked = false;
+	/**
+	 * What to run to hand a pooled worker back to its pool once it is unparked, or null if it isn't held. Guarded by this.
+	 */
+	private Runnable resume = null;
+	/**
+	 * The platform thread running the whole search through run(), or null on a pool.
+	 */
+	private volatile Thread runner = null;
+	/**
+	 * The iteration count as of the last telemetry flush, for the LoadController to read.
+	 */
+	private volatile long reportedIterations = 0;
+	/**
+	 * The best metric, for the LoadController to read.
+	 */
+	private volatile int reportedBest;
+	/**
+	 * True once begin() has been called.
+	 */
+	private boolean begun = false;
+	/**
+	 * Where improvements are published for everyone to see, and where the run is ended for everyone. May be null.
+	 */
+	private BestRegistry registry = null;
+	/**
+	 * Loop checks left until the next stagnation check.
+	 */
+	private int stagnationCountdown = STAGNATION_CHECK_INTERVAL;
+	/**
+	 * Where this worker's counters are added up. If null, nothing is counted.
+	 */
+	private SearchTelemetry telemetry = null;
+	/**
+	 * Remembers the metrics of layouts scored before, shared by every worker of the run, or null to always score.
+	 */
+	FitnessCache cache = null;
+	/**
+	 * Counts not yet flushed to the telemetry, indexed by SearchTelemetry.ITERATIONS, ACCEPTED and so on.
+	 */
+	private final long[] pending = new long[SearchTelemetry.COUNTERS];
+	/**
+	 * Migration waits not yet flushed to the telemetry, bucketed by SearchTelemetry.bucket().
+	 */
+	private final long[] pendingWaits = new long[SearchTelemetry.BUCKETS];
+	/**
+	 * The iteration count at the last telemetry flush.
+	 */
+	private long flushedIterations = 0;
+	/**
+	 * The iteration count at which the next telemetry flush is due.
+	 */
+	private long nextFlush = Long.MAX_VALUE;
+	/**
+	 * Where to save this worker's state now and then. If null, nothing is saved.
+	 */
+	private Checkpoint checkpoint = null;
+	/**
+	 * The number of iterations between checkpoints.
+	 */
+	private long checkpointInterval = Long.MAX_VALUE;
+	/**
+	 * The iteration count at which the next checkpoint is due.
+	 */
+	private long nextCheckpoint = Long.MAX_VALUE;
+	/**
+	 * Scratch space for the current layout while saving, so checkpoints don't allocate.
+	 */
+	private byte[] currentScratch;
+	/**
+	 * Scratch space for the best layout while saving.
+	 */
+	private byte[] bestScratch;
+	/**
+	 * True once something (the RenderScheduler) is looking at the published frames. Until then nothing is published.
+	 */
+	private volatile boolean watched = false;
+	/**
+	 * The latest layout this worker has published for display, with its metric.
+	 */
+	private volatile Frame published;
+	/**
+	 * Used to prevent publishing from occurring too frequently.
+	 * Represents milliseconds.
+	 */
+	private long lastPublish = 0;
+
+	/**
+	 * Sets up the common state. The starting layout is also the best so far.
+	 * @param start The starting layout.
+	 * @param startMetric The metric of the starting layout.
+	 * @param migration How to trade layouts with the other workers.
+	 * @param island This worker's index among the islands of the migration.
+	 */
+	SearchWorker(FloorQuadSnapshot start, int startMetric, Migration migration, int island) {
+		this.migration = migration;
+		this.island = island;
+		bestFloor = start;
+		bestMetric = startMetric;
+		reportedBest = startMetric;
+		published = new Frame(start, startMetric);
+	}
+	/**
+	 * Runs the whole search on the calling thread, sleeping for the throttle after every step,
+	 * until cancelled, out of iterations, or on target.
+	 */
+	@Override
+	public final void run() {
+		runner = Thread.currentThread();
+		startIfNeeded();
+		while (shouldContinue()) {
+			step();
+			pause();
+			awaitUnpark();
+		}
+		finish();
+	}
+	/**
+	 * Runs steps until the time slice is used up or the search is over, so that many workers can share a few threads.
+	 * A throttled worker only takes one step per slice; whoever schedules it should wait for the throttle in between.
+	 * A parked worker ends its slice at once; whoever schedules it should check holdIfParked() in between.
+	 * @param sliceNanos Roughly how long to run before giving the thread back.
+	 * @return True if there is more to do, false once the search is over.
+	 */
+	final boolean runSlice(long sliceNanos) {
+		startIfNeeded();
+		final long end = System.nanoTime() + sliceNanos;
+		int steps = 0;
+		while (shouldContinue()) {
+			step();
+			//the clock is only read every few steps
+			if (throttle > 0 || parked || ((++steps & (SLICE_CHECK_INTERVAL - 1)) == 0 && System.nanoTime() >= end)) {
+				return true;
+			}
+		}
+		finish();
+		return false;
+	}
+	/**
+	 * Makes the worker stop at the end of its current step. Safe to call from any thread.
+	 */
+	public void cancel() {
+		cancelled = true;
+		//a parked worker has to wake up to notice
+		unpark();
+	}
+	/**
+	 * Makes the worker hold off at the end of its current step until unpark() is called. Safe to call from any thread.
+	 */
+	synchronized void park() {
+		parked = true;
+	}
+	/**
+	 * Lets a parked worker carry on. Safe to call from any thread.
+	 */
+	void unpark() {
+		final Runnable handBack;
+		synchronized (this) {
+			parked = false;
+			handBack = resume;
+			resume = null;
+		}
+		if (handBack != null) {
+			handBack.run();
+		}
+		else {
+			final Thread thread = runner;
+			if (thread != null) LockSupport.unpark(thread);
+		}
+	}
+	/**
+	 * Called by the pool between slices. If the worker is parked, keeps the given task to run once it is unparked.
+	 * @param handBack Resubmits the worker to its pool.
+	 * @return True if the worker is parked and the task was kept, false if the caller should go on as usual.
+	 */
+	synchronized boolean holdIfParked(Runnable handBack) {
+		if (!parked || cancelled) return false;
+		reportedIterations = iterations;
+		resume = handBack;
+		return true;
+	}
+	/**
+	 * Blocks the calling thread for as long as the worker is parked and not cancelled.
+	 */
+	private void awaitUnpark() {
+		if (!parked) return;
+		reportedIterations = iterations;
+		while (parked && !cancelled) {
+			LockSupport.park(this);
+		}
+	}
+	/**
+	 * Performs one step of the search: one iteration or more, including any migration, drawing and housekeeping.
+	 */
+	abstract void step();
+	/**
+	 * Called once before the first step, on the thread that runs it. Sets up whatever the steps share.
+	 */
+	void begin() {
+	}
+	/**
+	 * Called once after the last step, on the thread that ran it.
+	 */
+	void end() {
+	}
+	/**
+	 * Calls begin() the first time only.
+	 */
+	private void startIfNeeded() {
+		if (!begun) {
+			begun = true;
+			begin();
+		}
+	}
+	/**
+	 * Wraps up after the last step.
+	 */
+	private void finish() {
+		end();
+		//don't keep anybody waiting at a migration barrier
+		if (migration != null) migration.leave(island);
+		//count whatever hasn't been flushed yet
+		flushTelemetry();
+	}
+	/**
+	 * Checks for cancellation so that we can terminate nicely, and stops on our own once the budget or target is reached,
+	 * or once the registry says the whole run is over.
+	 */
+	final boolean shouldContinue() {
+		return !cancelled && iterations < iterationLimit && bestMetric < target && !isRunOver();
+	}
+	/**
+	 * Checks whether the registry has ended the run. The clock is only read every so often for the stagnation limit.
+	 */
+	private boolean isRunOver() {
+		if (registry == null) return false;
+		if (--stagnationCountdown <= 0) {
+			stagnationCountdown = STAGNATION_CHECK_INTERVAL;
+			return registry.checkStagnation();
+		}
+		return registry.isStopped();
+	}
+	/**
+	 * Records a new best layout for this worker and publishes it to the registry, if there is one.
+	 * @param layout An immutable layout, since other threads may read it through the registry.
+	 * @param metric The metric of the layout. Must be greater than the current best.
+	 */
+	final void improved(FloorQuadSnapshot layout, int metric) {
+		bestFloor = layout;
+		bestMetric = metric;
+		reportedBest = metric;
+		if (registry != null) registry.offer(island, layout, metric);
+	}
+	/**
+	 * Checks whether anyone is watching and at least PUBLISH_INTERVAL milliseconds have passed since the last publish.
+	 */
+	final boolean isPublishDue() {
+		return watched && lastPublish + PUBLISH_INTERVAL < System.currentTimeMillis();
+	}
+	/**
+	 * Publishes a layout for display. Nothing is queued on the GUI thread; the RenderScheduler picks it up on its next frame.
+	 * @param shown An immutable layout, so the GUI thread can't see it change.
+	 * @param shownMetric The metric to display with it.
+	 */
+	final void publish(FloorQuadSnapshot shown, int shownMetric) {
+		published = new Frame(shown, shownMetric);
+		lastPublish = System.currentTimeMillis();
+	}
+	/**
+	 * Returns the latest layout published for display. Safe to call from any thread.
+	 */
+	Frame getPublished() {
+		return published;
+	}
+	/**
+	 * Sleeps for the throttle, if there is one.
+	 */
+	private void pause() {
+		if (throttle > 0) {
+			try {
+				//waiting between swaps to avoid total load of my system.
+				Thread.sleep(throttle);
+			}
+			catch(InterruptedException e) {
+				//be sure we don't miss our termination signal
+				cancel();
+			}
+		}
+	}
+	/**
+	 * Does the periodic bookkeeping: saves this worker's state and flushes its counters when enough iterations have passed.
+	 * Cheap enough to call every iteration.
+	 */
+	final void housekeeping() {
+		if (iterations >= nextCheckpoint) {
+			saveCheckpoint();
+		}
+		if (iterations >= nextFlush) {
+			flushTelemetry();
+		}
+	}
+	/**
+	 * Counts a move that the acceptance policy either took or turned down.
+	 */
+	final void countMove(boolean accepted) {
+		pending[accepted ? SearchTelemetry.ACCEPTED : SearchTelemetry.REJECTED]++;
+	}
+	/**
+	 * Counts a restart from a new layout.
+	 */
+	final void countRestart() {
+		pending[SearchTelemetry.RESTARTS]++;
+	}
+	/**
+	 * Counts one migration.
+	 * @param waitNanos How long the migration took.
+	 * @param offer What arrived, or null for nothing.
+	 * @param refused True if it arrived but had a different bag of machines.
+	 */
+	final void countExchange(long waitNanos, FloorQuadSnapshot offer, boolean refused) {
+		if (offer == null) {
+			pending[SearchTelemetry.EMPTY]++;
+		}
+		else {
+			pending[SearchTelemetry.EXCHANGES]++;
+			if (refused) pending[SearchTelemetry.REFUSED]++;
+		}
+		pending[SearchTelemetry.WAIT_NANOS] += waitNanos;
+		pendingWaits[SearchTelemetry.bucket(waitNanos)]++;
+	}
+	/**
+	 * Adds this worker's counters to the telemetry, if there is one.
+	 * Must only be called by the thread running this worker, or by anyone once it has stopped.
+	 */
+	final void flushTelemetry() {
+		reportedIterations = iterations;
+		if (telemetry == null) return;
+		pending[SearchTelemetry.ITERATIONS] += iterations - flushedIterations;
+		flushedIterations = iterations;
+		telemetry.flush(island, iterations, pending, pendingWaits);
+		nextFlush = iterations + (throttle > 0 ? 16 : TELEMETRY_FLUSH_INTERVAL);
+	}
+	/**
+	 * Saves this worker's state to the checkpoint, if there is one.
+	 * Must only be called by the thread running this worker, or by anyone once it has stopped.
+	 */
+	final void saveCheckpoint() {
+		if (checkpoint == null) return;
+		copyCurrent(currentScratch);
+		bestFloor.copyMachines(bestScratch);
+		checkpoint.save(island, iterations, seed, getLastMetric(), currentScratch, bestMetric, bestScratch);
+		nextCheckpoint = iterations + checkpointInterval;
+	}
+	/**
+	 * Copies the flavor indices of the current layout into the given array.
+	 * Subclasses with a mutable working floor can skip the snapshot.
+	 */
+	void copyCurrent(byte[] target) {
+		getLastLayout().copyMachines(target);
+	}
+	/**
+	 * Picks up where a checkpointed thread left off: its best layout and iteration count.
+	 * The seed is mixed with the iteration count, so the resumed thread doesn't replay the random choices it already made.
+	 * Must be called before the worker starts.
+	 * @param state The saved state of this worker.
+	 */
+	void restore(Checkpoint.WorkerState state) {
+		if (!state.best.spec.equals(bestFloor.spec)) {
+			throw new IllegalArgumentException("Cannot restore a " + state.best.spec + " layout into a " + bestFloor.spec + " worker");
+		}
+		//the saved metric is only trusted as far as the layout agrees with it
+		bestFloor = state.best;
+		bestMetric = FloorQuadSnapshot.calculateFullMetric(state.best);
+		reportedBest = bestMetric;
+		iterations = state.iterations;
+		reportedIterations = iterations;
+		//the iterations of the earlier run were counted by its own telemetry
+		flushedIterations = iterations;
+		if (telemetry != null) nextFlush = iterations;
+		seed = state.seed ^ (state.iterations * 0x9E3779B97F4A7C15L);
+		if (checkpoint != null) nextCheckpoint = iterations + checkpointInterval;
+		if (registry != null) registry.offer(island, bestFloor, bestMetric);
+	}
+	/**
+	 * Returns the best metric found so far by this worker. Result not guaranteed if the worker is running;
+	 * use a BestRegistry to follow the best while the run goes on.
+	 */
+	public int getBestMetric() {
+		return bestMetric;
+	}
+	/**
+	 * Returns the best layout found so far.
+	 */
+	public FloorQuadSnapshot getBestLayout() {
+		return bestFloor;
+	}
+	/**
+	 * Returns the last metric found. Result not guaranteed if the worker is running.
+	 */
+	public abstract int getLastMetric();
+	/**
+	 * Returns the last layout found. Result not guaranteed if the worker is running.
+	 */
+	public abstract FloorQuadSnapshot getLastLayout();
+	/**
+	 * Returns the number of iterations completed. Result not guaranteed if the worker is running.
+	 */
+	public long getIterations() {
+		return iterations;
+	}
+	/**
+	 * Returns the number of iterations completed as of the last telemetry flush. Safe to call from any thread.
+	 */
+	long reportedIterations() {
+		return reportedIterations;
+	}
+	/**
+	 * Returns the best metric found so far. Safe to call from any thread.
+	 */
+	int reportedBest() {
+		return reportedBest;
+	}
+	/**
+	 * Sets how long to sleep after every iteration. Must be called before the worker starts.
+	 * @param millis Milliseconds to sleep, or zero to run flat out.
+	 */
+	public void setThrottle(long millis) {
+		throttle = millis;
+	}
+	/**
+	 * Makes the loop end on its own after the given number of iterations. Must be called before the worker starts.
+	 */
+	public void setIterationLimit(long limit) {
+		iterationLimit = limit;
+	}
+	/**
+	 * Makes the loop end on its own once the best metric reaches the given value. Must be called before the worker starts.
+	 */
+	public void setTarget(int metric) {
+		target = metric;
+	}
+	/**
+	 * Sets the seed of this worker's random number generator. Must be called before the worker starts.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+	/**
+	 * Returns the best layout of the whole run as far as the registry knows, or this worker's own best without one.
+	 */
+	final FloorQuadSnapshot globalBest() {
+		final BestRegistry.Best best = registry != null ? registry.get() : null;
+		return best != null ? best.layout : bestFloor;
+	}
+	/**
+	 * Makes this worker publish its improvements to the given registry and stop when it says so.
+	 * The current best is offered right away. Must be called before the worker starts.
+	 */
+	void setRegistry(BestRegistry registry) {
+		this.registry = registry;
+		registry.offer(island, bestFloor, bestMetric);
+	}
+	/**
+	 * Makes this worker count what it does into the given telemetry. Must be called before the worker starts.
+	 */
+	void setTelemetry(SearchTelemetry telemetry) {
+		this.telemetry = telemetry;
+		flushedIterations = iterations;
+		nextFlush = iterations;
+	}
+	/**
+	 * Makes this worker look up layouts it has to score from scratch in the given cache. Must be called before the worker starts.
+	 */
+	void setCache(FitnessCache cache) {
+		this.cache = cache;
+	}
+	/**
+	 * Returns the metric of a layout, from the cache if there is one and it has seen the layout.
+	 * For layouts that came from elsewhere, like migrants; a worker's own moves are scored by their deltas.
+	 */
+	final int evaluate(FloorQuadSnapshot layout) {
+		return cache != null ? cache.metric(layout) : FloorQuadSnapshot.calculateFullMetric(layout);
+	}
+	/**
+	 * Makes this worker save its state every so many iterations. Must be called before the worker starts.
+	 * @param checkpoint Where to save. This worker writes to the slots for its island index.
+	 * @param interval The number of iterations between saves.
+	 */
+	void setCheckpoint(Checkpoint checkpoint, long interval) {
+		this.checkpoint = checkpoint;
+		checkpointInterval = interval;
+		nextCheckpoint = iterations + interval;
+		final int cells = bestFloor.spec.cells();
+		currentScratch = new byte[cells];
+		bestScratch = new byte[cells];
+	}
+	/**
+	 * Tells the worker whether anyone is looking at its published frames, so it doesn't take snapshots for nobody.
+	 * Safe to call from any thread.
+	 */
+	void setWatched(boolean watched) {
+		this.watched = watched;
+	}
+
+	/**
+	 * A layout published for display together with its metric. Never modified, so it can be handed between threads.
+	 */
+	static final class Frame {
+		/**
+		 * The layout to show.
+		 */
+		final FloorQuadSnapshot layout;
+		/**
+		 * The metric to show with it.
+		 */
+		final int metric;
+
+		Frame(FloorQuadSnapshot layout, int metric) {
+			this.layout = layout;
+			this.metric = metric;
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package gafolgo;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * A tabu rule keyed on positions: once a cell has been part of a kept swap, it stays tabu for a number of iterations.
+ * Improving swaps are always taken, but a swap that is no better and touches a tabu cell is refused,
+ * so the search can't immediately undo what it just did. Other swaps that are no better get a flat chance.
+ */
+final class TabuAcceptance implements AcceptancePolicy {
+	/**
+	 * For each cell, the iteration until which it is tabu.
+	 */
+	private final long[] tabuUntil;
+	/**
+	 * How many iterations a cell stays tabu after it moves.
+	 */
+	private final int tenure;
+	/**
+	 * A non-tabu swap that is no better is taken when nextInt(odds) comes up 1.
+	 */
+	private final int odds;
+	/**
+	 * The number of iterations so far.
+	 */
+	private long clock = 0;
+
+	/**
+	 * Creates a tabu policy for a floor with the given number of cells.
+	 * @param cells The number of cells on the floor.
+	 * @param tenure How many iterations a cell stays tabu after it moves. Must be at least one.
+	 * @param odds One over the chance of taking a non-tabu swap that is no better. Must be at least two.
+	 */
+	TabuAcceptance(int cells, int tenure, int odds) {
+		if (tenure < 1) throw new IllegalArgumentException("Tabu tenure must be at least 1: " + tenure);
+		if (odds < 2) throw new IllegalArgumentException("Odds must be at least 2: " + odds);
+		tabuUntil = new long[cells];
+		this.tenure = tenure;
+		this.odds = odds;
+	}
+	@Override
+	public void step() {
+		clock++;
+	}
+	@Override
+	public boolean acceptSwap(int delta, int first, int second, RandomGenerator rand) {
+		if (delta > 0) return true;
+		//no better, so it had better not be touching anything that just moved
+		if (tabuUntil[first] > clock || tabuUntil[second] > clock) return false;
+		return rand.nextInt(odds)==1;
+	}
+	@Override
+	public boolean acceptMigrant(int delta, RandomGenerator rand) {
+		return delta > 0 || rand.nextInt(odds)==1;
+	}
+	@Override
+	public void accepted(int first, int second) {
+		tabuUntil[first] = clock + tenure;
+		tabuUntil[second] = clock + tenure;
+	}
+
+}
@@ -0,0 +1,191 @@
+package gafolgo;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * This class splits one large floor into bands of rows so that it can be worked on by several threads at once.
+ * The full metric is computed band by band on a ForkJoinPool, with each seam counted by the band above it.
+ * Swaps lock only the bands whose cells they read or write (striped locking), so swaps in different parts of
+ * the floor proceed in parallel.
+ */
+final class TiledFloor {
+	/**
+	 * Bands with at most this many cells are scored directly instead of being split further.
+	 */
+	private static final int SPLIT_THRESHOLD = 16 * 1024;
+	/**
+	 * The shape of the floor.
+	 */
+	final FloorSpec spec;
+	/**
+	 * The shared layout. A cell may only be read or written while holding the lock of its band.
+	 */
+	private final WorkingFloor floor;
+	/**
+	 * The number of rows in each band. The last band may be shorter.
+	 */
+	private final int bandRows;
+	/**
+	 * One lock per band.
+	 */
+	private final ReentrantLock[] locks;
+	/**
+	 * The metric of the shared layout, kept up to date by every swap.
+	 */
+	private final AtomicLong metric;
+
+	/**
+	 * Creates a tiled copy of the given layout.
+	 * @param start The starting layout.
+	 * @param bandRows The number of rows in each band. Must be at least one.
+	 * @param pool The pool used to score the starting layout.
+	 */
+	TiledFloor(FloorQuadSnapshot start, int bandRows, ForkJoinPool pool) {
+		if (bandRows < 1) throw new IllegalArgumentException("Bands must have at least one row: " + bandRows);
+		spec = start.spec;
+		//swaps in different bands run at once, so they can't all update one hash
+		floor = new WorkingFloor(start, false);
+		this.bandRows = bandRows;
+		locks = new ReentrantLock[(spec.rows + bandRows - 1) / bandRows];
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		metric = new AtomicLong(parallelMetric(pool));
+	}
+	/**
+	 * Scores the whole floor from scratch on the given pool, holding every lock so the layout can't change meanwhile.
+	 * @param pool The pool to run on.
+	 * @return The full metric.
+	 */
+	long parallelMetric(ForkJoinPool pool) {
+		lockAll();
+		try {
+			return pool.invoke(new BandMetric(0, locks.length));
+		}
+		finally {
+			unlockAll();
+		}
+	}
+	/**
+	 * Scores a range of bands, splitting it in half until each piece is small enough.
+	 */
+	private final class BandMetric extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The first band of the range.
+		 */
+		private final int fromBand;
+		/**
+		 * One past the last band of the range.
+		 */
+		private final int toBand;
+
+		BandMetric(int fromBand, int toBand) {
+			this.fromBand = fromBand;
+			this.toBand = toBand;
+		}
+		@Override
+		protected Long compute() {
+			final int fromRow = fromBand * bandRows;
+			final int toRow = Math.min(spec.rows, toBand * bandRows);
+			//small enough to do here, or can't be split any further
+			if (toBand - fromBand == 1 || (long)(toRow - fromRow) * spec.cols <= SPLIT_THRESHOLD) {
+				return (long)floor.rowsMetric(fromRow, toRow);
+			}
+			final int middle = (fromBand + toBand) >>> 1;
+			final BandMetric upper = new BandMetric(fromBand, middle);
+			upper.fork();
+			final long lower = new BandMetric(middle, toBand).compute();
+			return upper.join() + lower;
+		}
+	}
+	/**
+	 * Proposes a swap, locking every band it touches, and applies it if the policy accepts it.
+	 * Swaps that touch different bands don't wait for each other.
+	 * @param row1 The row of the first machine.
+	 * @param col1 The column of the first machine.
+	 * @param row2 The row of the second machine.
+	 * @param col2 The column of the second machine.
+	 * @param policy The calling thread's own acceptance policy.
+	 * @param rand The random number generator of the calling thread.
+	 * @return True if the swap was kept.
+	 */
+	boolean trySwap(int row1, int col1, int row2, int col2, AcceptancePolicy policy, RandomGenerator rand) {
+		//the delta reads the rows on either side of each cell
+		final int top1 = band(Math.max(row1 - 1, 0));
+		final int bottom1 = band(Math.min(row1 + 1, spec.rows - 1));
+		final int top2 = band(Math.max(row2 - 1, 0));
+		final int bottom2 = band(Math.min(row2 + 1, spec.rows - 1));
+		final int from = Math.min(top1, top2);
+		final int to = Math.max(bottom1, bottom2);
+		//always lock in ascending order so two swaps can't deadlock
+		for (int i = from; i <= to; i++) {
+			if ((i >= top1 && i <= bottom1) || (i >= top2 && i <= bottom2)) locks[i].lock();
+		}
+		try {
+			final int delta = floor.swapDelta(row1, col1, row2, col2);
+			policy.step();
+			final int first = (row1 * spec.cols) + col1;
+			final int second = (row2 * spec.cols) + col2;
+			if (!policy.acceptSwap(delta, first, second, rand)) return false;
+			floor.swap(row1, col1, row2, col2);
+			policy.accepted(first, second);
+			metric.addAndGet(delta);
+			return true;
+		}
+		finally {
+			for (int i = to; i >= from; i--) {
+				if ((i >= top1 && i <= bottom1) || (i >= top2 && i <= bottom2)) locks[i].unlock();
+			}
+		}
+	}
+	/**
+	 * Returns the metric of the shared layout as of the last completed swap.
+	 */
+	long metric() {
+		return metric.get();
+	}
+	/**
+	 * Takes a consistent copy of the shared layout. Every band is locked while copying, so swaps pause briefly.
+	 */
+	FloorQuadSnapshot snapshot() {
+		final byte[] cells = new byte[spec.cells()];
+		lockAll();
+		try {
+			floor.copyMachines(cells);
+		}
+		finally {
+			unlockAll();
+		}
+		//the shared floor has no hash to hand over, so the snapshot works out its own if anyone asks
+		return new FloorQuadSnapshot(spec, cells);
+	}
+	/**
+	 * Returns the index of the band holding the given row.
+	 */
+	private int band(int row) {
+		return row / bandRows;
+	}
+	/**
+	 * Locks every band in ascending order.
+	 */
+	private void lockAll() {
+		for (ReentrantLock lock : locks) {
+			lock.lock();
+		}
+	}
+	/**
+	 * Unlocks every band.
+	 */
+	private void unlockAll() {
+		for (int i = locks.length - 1; i >= 0; i--) {
+			locks[i].unlock();
+		}
+	}
+
+}
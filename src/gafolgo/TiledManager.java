@@ -0,0 +1,96 @@
+package gafolgo;
+
+import java.util.SplittableRandom;
+
+/**
+ * @author Benjamin Groman
+ * This class is one of several workers all swapping machines on the same TiledFloor.
+ * There is nothing to trade, since everyone works on the same layout; the best layout is
+ * copied out now and then when the shared metric has passed it.
+ */
+public class TiledManager extends SearchWorker {
+	/**
+	 * How many iterations pass between checks for a new best. Copying a huge floor pauses everyone, so not too often.
+	 */
+	private static final int BEST_CHECK_INTERVAL = 4096;
+	/**
+	 * The floor shared with the other tiled managers.
+	 */
+	private final TiledFloor tiles;
+	/**
+	 * Decides when to take a swap that is no better. This thread's own, since policies may keep state.
+	 */
+	private final AcceptancePolicy policy;
+	/**
+	 * Seeded from the worker's seed when the search begins.
+	 */
+	private SplittableRandom rand;
+
+	/**
+	 * Creates a worker on the given shared floor.
+	 * @param tiles The floor shared with the other workers.
+	 * @param start The layout the shared floor started from.
+	 * @param policy This thread's own acceptance policy.
+	 * @param island This thread's index, for display purposes.
+	 */
+	TiledManager(TiledFloor tiles, FloorQuadSnapshot start, AcceptancePolicy policy, int island) {
+		//no migration, since all the workers share one layout
+		//(the rest of the search keeps metrics in an int, so a floor whose metric doesn't fit fails here instead of wrapping)
+		super(start, Math.toIntExact(tiles.metric()), null, island);
+		this.tiles = tiles;
+		this.policy = policy;
+	}
+	/**
+	 * Seeds the random number generator, so a checkpoint can record where the random choices came from.
+	 */
+	@Override
+	void begin() {
+		rand = new SplittableRandom(seed);
+	}
+	/**
+	 * One pass of the main loop: propose a random swap on the shared floor, and now and then look for a new best.
+	 */
+	@Override
+	void step() {
+		final int rows = tiles.spec.rows;
+		final int cols = tiles.spec.cols;
+		countMove(tiles.trySwap(rand.nextInt(rows), rand.nextInt(cols), rand.nextInt(rows), rand.nextInt(cols), policy, rand));
+		iterations++;
+		if (iterations % BEST_CHECK_INTERVAL == 0) {
+			checkBest();
+			if (isPublishDue()) {
+				publish(bestFloor, bestMetric);
+			}
+		}
+		housekeeping();
+	}
+	/**
+	 * Doesn't miss an improvement made since the last check.
+	 */
+	@Override
+	void end() {
+		checkBest();
+	}
+	/**
+	 * Copies the shared layout if its metric has passed the best seen by this thread.
+	 */
+	private void checkBest() {
+		if (tiles.metric() > bestMetric) {
+			final FloorQuadSnapshot layout = tiles.snapshot();
+			//score the copy itself, since other threads may have moved on since metric() was read
+			final int layoutMetric = FloorQuadSnapshot.calculateFullMetric(layout);
+			if (layoutMetric > bestMetric) {
+				improved(layout, layoutMetric);
+			}
+		}
+	}
+	@Override
+	public int getLastMetric() {
+		return Math.toIntExact(tiles.metric());
+	}
+	@Override
+	public FloorQuadSnapshot getLastLayout() {
+		return tiles.snapshot();
+	}
+
+}
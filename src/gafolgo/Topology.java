@@ -0,0 +1,85 @@
+package gafolgo;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * This enumeration represents the ways islands can be connected for migration.
+ */
+enum Topology {
+	/**
+	 * Each island hears from the islands just before and after it, wrapping around.
+	 */
+	RING,
+	/**
+	 * The islands are laid out in a roughly square grid that wraps in both directions,
+	 * and each island hears from the four islands around it.
+	 */
+	TORUS,
+	/**
+	 * Each island hears from k other islands picked at random when the topology is built.
+	 */
+	RANDOM;
+
+	/**
+	 * Works out which islands each island receives migrants from.
+	 * @param islands The number of islands.
+	 * @param k The number of neighbors for RANDOM. Ignored by the others.
+	 * @param rand Used to pick the RANDOM neighbors.
+	 * @return For each island, the indices of its neighbors. Never includes the island itself.
+	 */
+	int[][] neighbors(int islands, int k, RandomGenerator rand) {
+		final int[][] result = new int[islands][];
+		for (int i = 0; i < islands; i++) {
+			switch (this) {
+			case RING:
+				result[i] = distinct(i, (i + islands - 1) % islands, (i + 1) % islands);
+				break;
+			case TORUS: {
+				//as square as possible, with the last row possibly short
+				final int width = (int)Math.ceil(Math.sqrt(islands));
+				final int height = (islands + width - 1) / width;
+				final int row = i / width;
+				final int col = i % width;
+				result[i] = distinct(i,
+						torusIndex((row + height - 1) % height, col, width, islands),
+						torusIndex((row + 1) % height, col, width, islands),
+						torusIndex(row, (col + width - 1) % width, width, islands),
+						torusIndex(row, (col + 1) % width, width, islands));
+				break;
+			}
+			default: {
+				//partial Fisher-Yates shuffle of everyone but ourselves
+				final int[] others = new int[islands - 1];
+				for (int j = 0, o = 0; j < islands; j++) {
+					if (j != i) others[o++] = j;
+				}
+				final int count = Math.min(k, others.length);
+				for (int j = 0; j < count; j++) {
+					final int pick = j + rand.nextInt(others.length - j);
+					final int temp = others[j];
+					others[j] = others[pick];
+					others[pick] = temp;
+				}
+				result[i] = Arrays.copyOf(others, count);
+			}
+			}
+		}
+		return result;
+	}
+	/**
+	 * Converts a grid position to an island index, wrapping positions in the short last row back to its start.
+	 */
+	private static int torusIndex(int row, int col, int width, int islands) {
+		final int index = (row * width) + col;
+		return index < islands ? index : index % width;
+	}
+	/**
+	 * Collects the given candidates without duplicates or the island itself.
+	 */
+	private static int[] distinct(int self, int... candidates) {
+		return Arrays.stream(candidates).filter(c -> c != self).distinct().toArray();
+	}
+
+}
@@ -0,0 +1,198 @@
+package gafolgo;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Benjamin Groman
+ * This class runs the workers of a run, either on a platform thread each (the original way),
+ * or as time-sliced tasks on a ForkJoinPool with one thread per core.
+ * <p>
+ * In the pool, each worker runs for a short slice and then resubmits itself, so the number of islands
+ * can be far larger than the number of cores without paying for their threads and context switches.
+ * Workers resubmitted from a pool thread go to the back of that thread's own queue (the pool is in
+ * async mode), and idle threads steal from the others, so every worker gets its turn.
+ * A throttled worker takes one step per slice and is resubmitted after the throttle by a timer,
+ * instead of sleeping on a pool thread. A parked worker isn't resubmitted at all until it is unparked.
+ * <p>
+ * Blocking migration (the shared exchanger) doesn't belong in the pool, since the partner may not be
+ * running at the time; RunOptions refuses that combination.
+ * <p>
+ * Several groups can share one pool and timer (see JobRunner), in which case their slices simply interleave
+ * and the pool outlives every group.
+ */
+final class WorkerGroup {
+	/**
+	 * Roughly how long a worker runs in the pool before giving its thread to the next one, in nanoseconds.
+	 */
+	private static final long SLICE_NANOS = 2_000_000L;
+	/**
+	 * The workers being run.
+	 */
+	private final SearchWorker[] workers;
+	/**
+	 * The number of pool threads, or zero for one platform thread per worker.
+	 */
+	private final int parallelism;
+	/**
+	 * True if the pool and timer belong to this group, which shuts them down in join().
+	 */
+	private final boolean ownsPool;
+	/**
+	 * Counted down as each worker finishes.
+	 */
+	private final CountDownLatch remaining;
+	/**
+	 * One per worker when not pooled, otherwise null.
+	 */
+	private Thread[] threads = null;
+	/**
+	 * The pool the workers share, or null when not pooled.
+	 */
+	private ForkJoinPool pool = null;
+	/**
+	 * Resubmits throttled workers after their throttle, or null when not pooled.
+	 */
+	private ScheduledExecutorService timer = null;
+
+	/**
+	 * Creates a group for the given workers. Nothing runs until start().
+	 * @param workers The workers to run.
+	 * @param parallelism The number of pool threads to share, or zero to give every worker a platform thread.
+	 */
+	WorkerGroup(SearchWorker[] workers, int parallelism) {
+		if (parallelism < 0) throw new IllegalArgumentException("Parallelism must not be negative: " + parallelism);
+		this.workers = workers;
+		this.parallelism = parallelism;
+		ownsPool = true;
+		remaining = new CountDownLatch(workers.length);
+	}
+	/**
+	 * Creates a group for the given workers that runs them on a pool and timer shared with other groups.
+	 * Nothing runs until start(), and the pool and timer are left running after join().
+	 * @param workers The workers to run.
+	 * @param pool A pool from createPool().
+	 * @param timer A timer from createTimer().
+	 */
+	WorkerGroup(SearchWorker[] workers, ForkJoinPool pool, ScheduledExecutorService timer) {
+		this.workers = workers;
+		parallelism = pool.getParallelism();
+		ownsPool = false;
+		this.pool = pool;
+		this.timer = timer;
+		remaining = new CountDownLatch(workers.length);
+	}
+	/**
+	 * Creates a pool for time-sliced workers.
+	 * @param parallelism The number of pool threads.
+	 */
+	static ForkJoinPool createPool(int parallelism) {
+		return new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+	}
+	/**
+	 * Creates the timer that resubmits throttled workers to a pool.
+	 */
+	static ScheduledExecutorService createTimer() {
+		return Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "worker-timer");
+			//don't let this thread keep the program from terminating
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	/**
+	 * Starts every worker.
+	 */
+	void start() {
+		if (parallelism == 0) {
+			threads = new Thread[workers.length];
+			for (int i = 0; i < workers.length; i++) {
+				final SearchWorker worker = workers[i];
+				threads[i] = new Thread(() -> {
+					try {
+						worker.run();
+					}
+					finally {
+						remaining.countDown();
+					}
+				}, "worker-" + i);
+				//don't let these threads keep the program from terminating
+				threads[i].setDaemon(true);
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+		}
+		else {
+			if (ownsPool) {
+				pool = createPool(parallelism);
+				timer = createTimer();
+			}
+			//queue the first slices from inside the pool, so they land in a pool thread's own FIFO queue where
+			//the resubmitted slices go too; from outside they would wait behind every resubmitted slice forever
+			pool.execute(() -> {
+				for (SearchWorker worker : workers) {
+					pool.execute(() -> slice(worker));
+				}
+			});
+		}
+	}
+	/**
+	 * Runs one slice of a worker and queues the next one, or counts the worker as finished.
+	 */
+	private void slice(SearchWorker worker) {
+		boolean more = false;
+		try {
+			more = worker.runSlice(SLICE_NANOS);
+		}
+		finally {
+			//a worker that fails counts as finished too, so join() doesn't wait forever
+			if (!more) remaining.countDown();
+		}
+		if (!more) return;
+		//a parked worker is handed back to the pool when it is unparked
+		if (worker.holdIfParked(() -> pool.execute(() -> slice(worker)))) return;
+		if (worker.throttle > 0) {
+			timer.schedule(() -> pool.execute(() -> slice(worker)), worker.throttle, TimeUnit.MILLISECONDS);
+		}
+		else {
+			pool.execute(() -> slice(worker));
+		}
+	}
+	/**
+	 * Tells every worker to stop at the end of its current step. Platform threads are also interrupted,
+	 * so that a worker sleeping for its throttle or waiting at the exchanger notices right away.
+	 */
+	void stop() {
+		for (SearchWorker worker : workers) {
+			worker.cancel();
+		}
+		if (threads != null) {
+			for (Thread thread : threads) {
+				thread.interrupt();
+			}
+		}
+	}
+	/**
+	 * Waits for every worker to finish, then releases the pool if it is this group's own.
+	 * Afterwards the workers' fields are safe to read.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting.
+	 */
+	void join() throws InterruptedException {
+		remaining.await();
+		if (pool != null && ownsPool) {
+			timer.shutdownNow();
+			pool.shutdown();
+		}
+	}
+	/**
+	 * Returns true once every worker has finished.
+	 */
+	boolean isFinished() {
+		return remaining.getCount() == 0;
+	}
+
+}
@@ -0,0 +1,305 @@
+package gafolgo;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * @author Benjamin Groman
+ * This class is a mutable, packed copy of a floor for the main loop to work on.
+ * Machines are stored as flavor indices, one byte per cell in a flat row-major array, so swapping two of them
+ * happens in place without allocating anything. An immutable FloorQuadSnapshot is only
+ * produced when one is actually needed (new best, exchange, drawing).
+ */
+final class WorkingFloor {
+	/**
+	 * The shape of the floor. Only layouts with the same spec can be loaded.
+	 */
+	final FloorSpec spec;
+	/**
+	 * Copied from the spec so that the loops don't need to go through it.
+	 */
+	private final int rows;
+	/**
+	 * Copied from the spec so that the loops don't need to go through it.
+	 */
+	private final int cols;
+	/**
+	 * Copied from the spec so that the loops don't need to go through it.
+	 */
+	private final int flavors;
+	/**
+	 * The affinity table from the spec, indexed by (machine * flavors) + neighbor. Never modified.
+	 */
+	private final int[] affinity;
+	/**
+	 * The flavor index of the machine in each cell, indexed by (row * cols) + col.
+	 */
+	private final byte[] cells;
+	/**
+	 * The Zobrist hash of the cells, as FloorQuadSnapshot.zobristHash() would compute it, kept up to date by swap().
+	 * Always 0 if the hash isn't tracked.
+	 */
+	private long hash;
+	/**
+	 * False for a floor that doesn't keep its hash, such as one swapped by several threads at once.
+	 */
+	private final boolean tracksHash;
+	/**
+	 * How far each cell falls short of the best its machine could get from its edges, or null if not tracked.
+	 * Kept up to date by swap() once trackSlack() is called.
+	 */
+	private int[] slack = null;
+	/**
+	 * The best affinity each flavor can have for a neighbor it evaluates, when slack is tracked.
+	 */
+	private int[] bestOut = null;
+	/**
+	 * The best affinity any neighbor can have for each flavor, when slack is tracked.
+	 */
+	private int[] bestIn = null;
+
+	/**
+	 * Creates a working floor with the same layout as the given snapshot.
+	 */
+	WorkingFloor(FloorQuadSnapshot snapshot) {
+		this(snapshot, true);
+	}
+	/**
+	 * Creates a working floor with the same layout as the given snapshot, optionally without keeping its hash.
+	 * @param tracksHash False if several threads will swap cells at once under separate locks, where updating the
+	 * one hash would be a race. hash() can't be called then, and snapshots work out their own hash when asked.
+	 */
+	WorkingFloor(FloorQuadSnapshot snapshot, boolean tracksHash) {
+		this.tracksHash = tracksHash;
+		spec = snapshot.spec;
+		rows = spec.rows;
+		cols = spec.cols;
+		flavors = spec.flavors;
+		affinity = spec.affinity.table;
+		cells = new byte[spec.cells()];
+		load(snapshot);
+	}
+	/**
+	 * Overwrites the working layout with the given snapshot, reusing the existing storage.
+	 * @param snapshot The layout to copy. Must have the same spec as this floor.
+	 */
+	void load(FloorQuadSnapshot snapshot) {
+		if (!spec.equals(snapshot.spec)) {
+			throw new IllegalArgumentException("Cannot load a " + snapshot.spec + " layout into a " + spec + " floor");
+		}
+		snapshot.copyMachines(cells);
+		if (tracksHash) hash = snapshot.zobristHash();
+		if (slack != null) {
+			for (int i = 0; i < cells.length; i++) slack[i] = cellSlack(i);
+		}
+	}
+	/**
+	 * Starts keeping a per-cell slack score up to date, at the cost of a little more work per swap.
+	 */
+	void trackSlack() {
+		if (slack != null) return;
+		bestOut = new int[flavors];
+		bestIn = new int[flavors];
+		Arrays.fill(bestOut, Integer.MIN_VALUE);
+		Arrays.fill(bestIn, Integer.MIN_VALUE);
+		for (int a = 0; a < flavors; a++) {
+			for (int b = 0; b < flavors; b++) {
+				bestOut[a] = Math.max(bestOut[a], affinity(a, b));
+				bestIn[b] = Math.max(bestIn[b], affinity(a, b));
+			}
+		}
+		slack = new int[cells.length];
+		for (int i = 0; i < cells.length; i++) slack[i] = cellSlack(i);
+	}
+	/**
+	 * Returns how far the given cell falls short of the best its machine could get from the edges touching it.
+	 * Zero means every neighbor is the best possible one. Only valid after trackSlack().
+	 */
+	int slack(int cell) {
+		return slack[cell];
+	}
+	/**
+	 * Works out the slack of one cell from scratch: the best possible affinity of each edge touching it,
+	 * for its own flavor, minus the actual one.
+	 */
+	private int cellSlack(int index) {
+		final int row = index / cols;
+		final int col = index - (row * cols);
+		final int center = cells[index];
+		int total = 0;
+		if (row > 0) total += bestIn[center] - affinity(cells[index - cols], center);
+		if (row + 1 < rows) total += bestOut[center] - affinity(center, cells[index + cols]);
+		if (col > 0) total += bestIn[center] - affinity(cells[index - 1], center);
+		if (col + 1 < cols) total += bestOut[center] - affinity(center, cells[index + 1]);
+		return total;
+	}
+	/**
+	 * Recomputes the slack of a cell and of its neighbors, after the cell has changed.
+	 */
+	private void refreshSlack(int index) {
+		slack[index] = cellSlack(index);
+		final int col = index % cols;
+		if (index >= cols) slack[index - cols] = cellSlack(index - cols);
+		if (index + cols < cells.length) slack[index + cols] = cellSlack(index + cols);
+		if (col > 0) slack[index - 1] = cellSlack(index - 1);
+		if (col + 1 < cols) slack[index + 1] = cellSlack(index + 1);
+	}
+	/**
+	 * Produces an immutable copy of the current layout.
+	 */
+	FloorQuadSnapshot snapshot() {
+		//the snapshot gets its own array so later swaps can't leak into it
+		if (!tracksHash) return new FloorQuadSnapshot(spec, cells.clone());
+		return new FloorQuadSnapshot(spec, cells.clone(), hash);
+	}
+	/**
+	 * Copies the flavor indices into the given array, which must be at least as long as the number of cells.
+	 */
+	void copyMachines(byte[] target) {
+		System.arraycopy(cells, 0, target, 0, cells.length);
+	}
+	/**
+	 * Calculates the part of the metric that belongs to the given band of rows, as FloorQuadSnapshot.calculateRowsMetric() does.
+	 * @param fromRow The first row of the band.
+	 * @param toRow One past the last row of the band.
+	 */
+	int rowsMetric(int fromRow, int toRow) {
+		return FloorQuadSnapshot.calculateRowsMetric(spec, cells, fromRow, toRow);
+	}
+	/**
+	 * Reads the flavor index at the given position. The position must be within the floor.
+	 */
+	int flavor(int row, int col) {
+		return cells[(row * cols) + col];
+	}
+	/**
+	 * Calculates the metric of the whole floor from scratch.
+	 */
+	int fullMetric() {
+		return rowsMetric(0, rows);
+	}
+	/**
+	 * Rearranges the machines at random in place, keeping the same bag of machines.
+	 */
+	void shuffle(RandomGenerator rand) {
+		//Fisher-Yates, through swap() so the hash stays up to date
+		for (int i = cells.length - 1; i > 0; i--) {
+			swap(i, rand.nextInt(i + 1));
+		}
+	}
+	/**
+	 * Returns true if the two given cell indices hold machines of the same flavor, so swapping them would change nothing.
+	 */
+	boolean sameFlavor(int first, int second) {
+		return cells[first] == cells[second];
+	}
+	/**
+	 * Exchanges the machines at the two given positions in place.
+	 * A swap is its own inverse, so calling this again with the same positions undoes it.
+	 */
+	void swap(int row1, int col1, int row2, int col2) {
+		swap((row1 * cols) + col1, (row2 * cols) + col2);
+	}
+	/**
+	 * Exchanges the machines at the two given cell indices, (row * cols) + col, in place.
+	 */
+	void swap(int first, int second) {
+		final byte a = cells[first];
+		final byte b = cells[second];
+		//a swap of equal machines changes nothing, not even the hash
+		if (a == b) return;
+		if (tracksHash) hash ^= FloorQuadSnapshot.zobristKey(first, a) ^ FloorQuadSnapshot.zobristKey(first, b)
+				^ FloorQuadSnapshot.zobristKey(second, b) ^ FloorQuadSnapshot.zobristKey(second, a);
+		cells[first] = b;
+		cells[second] = a;
+		if (slack != null) {
+			refreshSlack(first);
+			refreshSlack(second);
+		}
+	}
+	/**
+	 * Returns the Zobrist hash of the current layout. Fails if the floor doesn't track it.
+	 */
+	long hash() {
+		if (!tracksHash) throw new IllegalStateException("This floor doesn't keep its hash");
+		return hash;
+	}
+	/**
+	 * Exchanges two cells without touching the hash, for trying a swap out and putting it back.
+	 */
+	private void exchange(int first, int second) {
+		final byte temp = cells[first];
+		cells[first] = cells[second];
+		cells[second] = temp;
+	}
+	/**
+	 * Calculates how much the benefit metric would change if the machines at the two given positions were swapped.
+	 * Works the same way as FloorQuadSnapshot.swapDelta(), but without leaving the packed array.
+	 * @return The metric of the swapped layout minus the metric of the current layout.
+	 */
+	int swapDelta(int row1, int col1, int row2, int col2) {
+		final int first = (row1 * cols) + col1;
+		final int second = (row2 * cols) + col2;
+		//swapping two machines of the same flavor (or a machine with itself) changes nothing
+		if (cells[first] == cells[second]) return 0;
+		//measure the edges around both positions, swap, measure again, and put things back
+		int before = localAffinity(row1, col1) + localAffinity(row2, col2) - sharedAffinity(row1, col1, row2, col2);
+		exchange(first, second);
+		int after = localAffinity(row1, col1) + localAffinity(row2, col2) - sharedAffinity(row1, col1, row2, col2);
+		exchange(first, second);
+		return after - before;
+	}
+	/**
+	 * Calculates how much the benefit metric would change if the machines at the two given cell indices,
+	 * (row * cols) + col, were swapped. Lets a caller that draws flat indices skip splitting them itself.
+	 * @return The metric of the swapped layout minus the metric of the current layout.
+	 */
+	int swapDelta(int first, int second) {
+		//cheap way out before paying for the divisions
+		if (cells[first] == cells[second]) return 0;
+		final int row1 = first / cols;
+		final int row2 = second / cols;
+		return swapDelta(row1, first - (row1 * cols), row2, second - (row2 * cols));
+	}
+	/**
+	 * Sums the affinities of the up to four edges touching the given cell, using the right and down convention.
+	 */
+	private int localAffinity(int row, int col) {
+		final int index = (row * cols) + col;
+		final int center = cells[index];
+		int total = 0;
+		//the cell above evaluates this one
+		if (row > 0) total += affinity(cells[index - cols], center);
+		//this cell evaluates the one below
+		if (row + 1 < rows) total += affinity(center, cells[index + cols]);
+		//the cell to the left evaluates this one
+		if (col > 0) total += affinity(cells[index - 1], center);
+		//this cell evaluates the one to the right
+		if (col + 1 < cols) total += affinity(center, cells[index + 1]);
+		return total;
+	}
+	/**
+	 * Looks up the affinity of the machine for its neighbor.
+	 */
+	private int affinity(int machine, int neighbor) {
+		return affinity[(machine * flavors) + neighbor];
+	}
+	/**
+	 * Returns the affinity of the edge between two adjacent positions, or zero if they aren't adjacent.
+	 * This is the edge that localAffinity() counts from both sides.
+	 */
+	private int sharedAffinity(int row1, int col1, int row2, int col2) {
+		if (row1 == row2 && Math.abs(col1 - col2) == 1) {
+			//horizontal neighbors - the left one is the machine doing the evaluating
+			final int left = (row1 * cols) + Math.min(col1, col2);
+			return affinity(cells[left], cells[left + 1]);
+		}
+		if (col1 == col2 && Math.abs(row1 - row2) == 1) {
+			//vertical neighbors - the upper one is the machine doing the evaluating
+			final int up = (Math.min(row1, row2) * cols) + col1;
+			return affinity(cells[up], cells[up + cols]);
+		}
+		return 0;
+	}
+
+}
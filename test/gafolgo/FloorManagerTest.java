@@ -0,0 +1,56 @@
+package gafolgo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Benjamin Groman
+ * Checks how a FloorManager trades layouts with its neighbors.
+ */
+class FloorManagerTest {
+	/**
+	 * Takes every swap and every migrant, so whatever a step ends on is what the migration handed over.
+	 */
+	private static final AcceptancePolicy TAKE_EVERYTHING = new AcceptancePolicy() {
+		@Override
+		public boolean acceptSwap(int delta, int first, int second, RandomGenerator rand) {
+			return true;
+		}
+		@Override
+		public boolean acceptMigrant(int delta, RandomGenerator rand) {
+			return true;
+		}
+	};
+
+	/**
+	 * Once two islands hold the very same best layout, a neighbor's best must still be taken
+	 * every time the working floor has wandered off it.
+	 */
+	@Test
+	void migrantsAreStillTakenOnceIslandsAgreeOnABest() throws InterruptedException {
+		final FloorSpec spec = new FloorSpec(8, 8, 4);
+		final FloorQuadSnapshot start = new FloorQuadSnapshot(spec, new SplittableRandom(1));
+		//the same machines in another order, so the two layouts can be traded
+		final WorkingFloor shuffled = new WorkingFloor(start);
+		shuffled.shuffle(new SplittableRandom(2));
+		final FloorQuadSnapshot best = shuffled.snapshot();
+		final IslandMigration migration = new IslandMigration(2, Topology.RING, 0, 1, 0);
+		final FloorManager manager = new FloorManager(start, migration, 0, TAKE_EVERYTHING);
+		//both islands agree on the same best object, which the neighbor keeps posting
+		manager.restore(new Checkpoint.WorkerState(0, 3, start, best, 0));
+		migration.migrate(1, best, new SplittableRandom(4));
+		assertSame(best, manager.getBestLayout());
+		manager.begin();
+		for (int i = 0; i < 20; i++) {
+			//every step swaps the working floor away from the best, then migrates back onto it
+			manager.step();
+			assertEquals(best.zobristHash(), manager.getLastLayout().zobristHash(), "step " + i);
+		}
+	}
+
+}
@@ -0,0 +1,23 @@
+package gafolgo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Benjamin Groman
+ * Checks the lines JobRunner prints for jobs that fail.
+ */
+class JobRunnerTest {
+	/**
+	 * A message spanning several lines, with quotes, backslashes and other control characters,
+	 * still has to come out as one line holding one JSON object.
+	 */
+	@Test
+	void jsonErrorStaysOnOneLine() {
+		final String message = "bad.bin (No such file)\r\n\tat \"C:\\floors\"\u0001";
+		assertEquals("{\"job\":3,\"error\":\"bad.bin (No such file)\\r\\n\\tat \\\"C:\\\\floors\\\"\\u0001\"}",
+				JobRunner.error(3, message, false));
+	}
+
+}